@@ -1,12 +1,18 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max, min). Note that we only
  * support aggregates over a single column, grouped by a single column.
+ * <p>
+ * If the child is sorted on the group-by field, each group is returned as soon as its last tuple
+ * has been read. Otherwise the groups are hashed, and when there are more than the memory budget
+ * allows, their partial aggregates are spilled to disk by group and merged back afterwards. A heap
+ * file child is hashed by several threads at once, each reading its own morsels of pages.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
 
   private static final long serialVersionUID = 1L;
 
@@ -14,7 +20,39 @@ public class Aggregate extends Operator {
   private int afield;
   private OpIterator child;
   private Aggregator.Op op;
-  private OpIterator aggreIterator;
+  private final int maxGroups;
+  private int workers = MorselQueue.defaultWorkers();
+
+  /** The default number of groups held in memory. */
+  public static final int MAX_GROUPS = 100000;
+
+  /** A file of partial aggregates spilled at level - 1, whose groups are partitioned at level. */
+  private static class Partition {
+    final SpillFile file;
+    final int level;
+
+    Partition(SpillFile file, int level) {
+      this.file = file;
+      this.level = level;
+    }
+  }
+
+  // hash mode state. The child is merged into aggregator until it holds more than maxGroups groups;
+  // then the partial aggregates of all groups are written to spill partitions by group key and the
+  // aggregator starts over. At the end of the input, each partition is merged in turn and its groups
+  // returned, after partitioning it again if it still has too many groups.
+  private transient Aggregator aggregator;
+  private transient boolean started;
+  private transient int nextGroup;
+  private transient int level;
+  private transient SpillFile[] spill;
+  private transient ArrayDeque<Partition> pending;
+
+  // streaming mode state, used if the child is sorted on the group-by field
+  private transient boolean streaming;
+  private transient Tuple lookahead;
+
+  private transient TupleBatch out;
 
   /**
    * Constructor.
@@ -30,10 +68,21 @@ public class Aggregate extends Operator {
    */
   public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
     // some code goes here
+    this(child, afield, gfield, aop, MAX_GROUPS);
+  }
+
+  /**
+   * Constructor that sets the memory budget.
+   *
+   * @param maxGroups the number of groups to hold in memory before partial aggregates are spilled
+   *                  to disk
+   */
+  public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
     this.child = child;
     this.afield = afield;
     this.gfield = gfield;
     this.op = aop;
+    this.maxGroups = maxGroups;
   }
 
   /**
@@ -82,24 +131,236 @@ public class Aggregate extends Operator {
     return aop.toString();
   }
 
+  /**
+   * Sets the number of threads that aggregate a heap file child in parallel. Defaults to {@link
+   * MorselQueue#defaultWorkers}; 1 makes the aggregate read its child on the calling thread.
+   */
+  public void setParallelism(int workers) {
+    this.workers = workers;
+  }
+
+  /**
+   * Creates the aggregator for this operator's parameters.
+   */
+  private Aggregator newAggregator() {
+    TupleDesc td = child.getTupleDesc();
+    Type gtype = gfield == Aggregator.NO_GROUPING ? null : td.getFieldType(gfield);
+    if (Type.STRING_TYPE == td.getFieldType(afield)) {
+      return new StringAggregator(gfield, gtype, afield, op);
+    }
+    return new IntegerAggregator(gfield, gtype, afield, op);
+  }
+
   public void open() throws NoSuchElementException, DbException,
       TransactionAbortedException {
     // some code goes here
     super.open();
     child.open();
-    Aggregator aggregator;
-    if (Type.STRING_TYPE == getTupleDesc().getFieldType(afield)) {
-      aggregator = new StringAggregator(gfield, getTupleDesc().getFieldType(gfield), afield, op);
+    // the child is read by the first call to fetchNext or nextBatch
+    reset();
+  }
+
+  /**
+   * Drops the groups and spill files of a previous run.
+   */
+  private void reset() {
+    if (spill != null) {
+      for (SpillFile f : spill) {
+        if (f != null) {
+          f.delete();
+        }
+      }
+      spill = null;
     }
-    else{
-      aggregator = new IntegerAggregator(gfield, getTupleDesc().getFieldType(gfield), afield, op);
+    if (pending != null) {
+      for (Partition p : pending) {
+        p.file.delete();
+      }
+      pending = null;
     }
-    while (child.hasNext()) {
-      aggregator.mergeTupleIntoGroup(child.next());
+    aggregator = null;
+    started = false;
+    streaming = gfield != Aggregator.NO_GROUPING && SortMergeJoin.isSorted(child, gfield);
+    lookahead = null;
+  }
+
+  /**
+   * Reads the child into the aggregator, writing partial aggregates to disk whenever more than
+   * maxGroups groups are held.
+   */
+  private void build() throws DbException, TransactionAbortedException {
+    aggregator = newAggregator();
+    pending = new ArrayDeque<Partition>();
+    level = 0;
+    ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    SeqScan scan = parallelScan(predicates);
+    if (scan != null) {
+      buildParallel(scan, predicates);
+    } else if (child instanceof BatchOpIterator) {
+      // the child can produce batches, so let the aggregator read its columns directly
+      TupleBatch batch;
+      while ((batch = ((BatchOpIterator) child).nextBatch()) != null) {
+        aggregator.mergeBatchIntoGroup(batch);
+        if (aggregator.numGroups() > maxGroups) {
+          spillGroups();
+        }
+      }
+    } else {
+      while (child.hasNext()) {
+        aggregator.mergeTupleIntoGroup(child.next());
+        if (aggregator.numGroups() > maxGroups) {
+          spillGroups();
+        }
+      }
     }
-    aggreIterator = aggregator.iterator();
+    endPass();
+  }
 
-    aggreIterator.open();
+  /**
+   * Returns the scan under the child if the child can be read in parallel: it is a SeqScan of a heap
+   * file with more than one morsel of pages, possibly under Filters, whose predicates are added to
+   * predicates, and possibly under an Exchange.
+   *
+   * @return the scan, or null if the child has to be read on this thread
+   */
+  private SeqScan parallelScan(ArrayList<Predicate> predicates) {
+    if (workers <= 1) {
+      return null;
+    }
+    OpIterator it = child;
+    if (it instanceof Exchange) {
+      // aggregate in the workers instead of gathering their tuples first
+      it = ((Exchange) it).getChildren()[0];
+    }
+    while (it instanceof Filter) {
+      predicates.add(((Filter) it).getPredicate());
+      it = ((Filter) it).getChildren()[0];
+    }
+    if (!(it instanceof SeqScan)) {
+      return null;
+    }
+    SeqScan scan = (SeqScan) it;
+    DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+    if (!(file instanceof HeapFile)
+        || ((HeapFile) file).numPages() <= MorselQueue.DEFAULT_MORSEL_PAGES) {
+      return null;
+    }
+    return scan;
+  }
+
+  /**
+   * Parallel version of the input loop of build: each worker takes morsels of the scanned heap file,
+   * decodes their pages into batches, applies the predicates and merges the rows into its own
+   * aggregator. Whenever a worker holds more than its share of maxGroups groups, and once it is done,
+   * it merges its partial aggregates into the shared aggregator.
+   */
+  private void buildParallel(SeqScan scan, ArrayList<Predicate> predicates)
+      throws DbException, TransactionAbortedException {
+    HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+    MorselQueue morsels = new MorselQueue(file.numPages(), MorselQueue.DEFAULT_MORSEL_PAGES);
+    int n = Math.min(workers, morsels.numMorsels());
+    int share = Math.max(1, maxGroups / n);
+    ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < n; i++) {
+      tasks.add(() -> {
+        Aggregator local = newAggregator();
+        TupleBatch batch = new TupleBatch(file.getTupleDesc());
+        DbFileIterator it = morsels.iterator(file, scan.getTransactionId());
+        it.open();
+        while (it.fillBatch(batch)) {
+          for (Predicate p : predicates) {
+            p.filter(batch);
+          }
+          local.mergeBatchIntoGroup(batch);
+          batch.clear();
+          if (local.numGroups() > share) {
+            mergeLocal(local);
+          }
+        }
+        it.close();
+        mergeLocal(local);
+        return null;
+      });
+    }
+    MorselQueue.runAll(tasks);
+  }
+
+  /**
+   * Merges the partial aggregates of a worker's aggregator into the shared one, spilling that if it
+   * gets too big, and empties the worker's aggregator.
+   */
+  private synchronized void mergeLocal(Aggregator local) throws DbException {
+    for (int group = 0; group < local.numGroups(); group++) {
+      aggregator.mergePartial(local.partial(group));
+      if (aggregator.numGroups() > maxGroups) {
+        spillGroups();
+      }
+    }
+    local.clear();
+  }
+
+  /**
+   * Writes the partial aggregates of the groups in memory to the spill partition of each group's
+   * key, and empties the aggregator.
+   */
+  private void spillGroups() throws DbException {
+    if (spill == null) {
+      spill = new SpillFile[HashEquiJoin.PARTITIONS];
+    }
+    for (int group = 0; group < aggregator.numGroups(); group++) {
+      Tuple partial = aggregator.partial(group);
+      int p = HashEquiJoin.partition(partial.getField(0), level);
+      if (spill[p] == null) {
+        spill[p] = new SpillFile(aggregator.getPartialTupleDesc(), "aggregate");
+      }
+      spill[p].add(partial);
+    }
+    aggregator.clear();
+  }
+
+  /**
+   * Called when the input of a pass is exhausted. If anything was spilled, the groups still in
+   * memory are spilled as well, so that each group is finished by merging a single partition.
+   */
+  private void endPass() throws DbException {
+    if (spill != null) {
+      spillGroups();
+      for (SpillFile f : spill) {
+        if (f != null) {
+          pending.add(new Partition(f, level + 1));
+        }
+      }
+      spill = null;
+    }
+    nextGroup = 0;
+  }
+
+  /**
+   * Merges the partial aggregates of the next spilled partition, spilling again one level deeper if
+   * the partition holds too many groups.
+   *
+   * @return false if there are no partitions left
+   */
+  private boolean nextPartition() throws DbException, TransactionAbortedException {
+    Partition p = pending.poll();
+    if (p == null) {
+      return false;
+    }
+    level = p.level;
+    aggregator.clear();
+    SpillFile.Reader reader = p.file.iterator();
+    reader.open();
+    while (reader.hasNext()) {
+      aggregator.mergePartial(reader.next());
+      // partitions are only split so often; past that, the budget is exceeded instead
+      if (aggregator.numGroups() > maxGroups && level < HashEquiJoin.MAX_LEVEL) {
+        spillGroups();
+      }
+    }
+    reader.close();
+    p.file.delete();
+    endPass();
+    return true;
   }
 
   /**
@@ -110,10 +371,65 @@ public class Aggregate extends Operator {
    */
   protected Tuple fetchNext() throws TransactionAbortedException, DbException {
     // some code goes here
-    if(aggreIterator.hasNext()){
-      return aggreIterator.next();
+    if (streaming) {
+      return nextSortedGroup();
+    }
+    if (!started) {
+      started = true;
+      build();
+    }
+    while (true) {
+      if (nextGroup < aggregator.numGroups()) {
+        return aggregator.result(nextGroup++);
+      }
+      if (!nextPartition()) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Streaming version of fetchNext for a child sorted on the group-by field: aggregates the next run
+   * of tuples with equal group-by values, holding only that one group.
+   */
+  private Tuple nextSortedGroup() throws TransactionAbortedException, DbException {
+    if (aggregator == null) {
+      aggregator = newAggregator();
+    }
+    Field key = null;
+    while (lookahead != null || child.hasNext()) {
+      Tuple t = lookahead != null ? lookahead : child.next();
+      lookahead = null;
+      Field tkey = t.getField(gfield);
+      if (key != null && !key.equals(tkey)) {
+        lookahead = t;
+        break;
+      }
+      key = tkey;
+      aggregator.mergeTupleIntoGroup(t);
+    }
+    if (key == null) {
+      return null;
+    }
+    Tuple result = aggregator.result(0);
+    aggregator.clear();
+    return result;
+  }
+
+  public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    Tuple t = fetchNext();
+    if (t == null) {
+      return null;
+    }
+    if (out == null) {
+      out = new TupleBatch(t.getTupleDesc());
+    }
+    out.clear();
+    out.addTuple(t);
+    while (!out.isFull() && (t = fetchNext()) != null) {
+      out.addTuple(t);
     }
-    return null;
+    return out;
   }
 
   public void rewind() throws DbException, TransactionAbortedException {
@@ -139,8 +455,8 @@ public class Aggregate extends Operator {
   public void close() {
     // some code goes here
     super.close();
+    reset();
     child.close();
-    aggreIterator.close();
   }
 
   @Override
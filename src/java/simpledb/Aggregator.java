@@ -75,10 +75,65 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the selected rows of a batch into the aggregate. Aggregators that
+     * can read the batch's columns directly override this; by default each
+     * row is turned into a Tuple.
+     * 
+     * @param batch
+     *            the batch containing an aggregate field and a group-by field
+     */
+    public default void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(batch.row(i)));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
      */
     public OpIterator iterator();
+
+    /**
+     * @return the number of groups merged so far; their ids are 0 to
+     *         numGroups()-1, in the order the groups were first seen
+     */
+    public int numGroups();
+
+    /**
+     * @return the TupleDesc of the tuples returned by iterator()
+     */
+    public TupleDesc getResultTupleDesc();
+
+    /**
+     * @return the aggregate result of a group, as returned by iterator()
+     */
+    public Tuple result(int group);
+
+    /**
+     * Returns the TupleDesc of partial aggregates: the group-by field, if
+     * there is one, then the high and low 32 bits of the running aggregate
+     * and the number of values merged.
+     */
+    public TupleDesc getPartialTupleDesc();
+
+    /**
+     * @return the running state of a group, which can be written to disk and
+     *         merged back with {@link #mergePartial}, into this or another
+     *         aggregator with the same parameters
+     */
+    public Tuple partial(int group);
+
+    /**
+     * Merges a tuple returned by {@link #partial} into the aggregate of its
+     * group, as if the values behind it had been merged one by one.
+     */
+    public void mergePartial(Tuple partial);
+
+    /**
+     * Removes all groups.
+     */
+    public void clear();
     
 }
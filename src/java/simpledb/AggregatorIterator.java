@@ -0,0 +1,48 @@
+package simpledb;
+
+/**
+ * AggregatorIterator returns the results of an Aggregator's groups one at a
+ * time, building each result tuple only when it is asked for. Groups merged
+ * while the iterator is open are returned too.
+ */
+class AggregatorIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Aggregator aggregator;
+    private transient int group;
+
+    AggregatorIterator(Aggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        group = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (group < aggregator.numGroups()) {
+            return aggregator.result(group++);
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return aggregator.getResultTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -108,10 +108,9 @@ public class BTreeFileEncoder {
 	}
 
 	/** 
-	 * comparator to sort Tuples by key field
+	 * comparator to sort Tuples by key field, in ascending order
 	 */
-	public static class TupleComparator implements Comparator<Tuple> {
-		private int keyField;
+	public static class TupleComparator extends simpledb.TupleComparator {
 
 		/** 
 		 * Construct a TupleComparator
@@ -119,23 +118,7 @@ public class BTreeFileEncoder {
 		 * @param keyField - the index of the field the tuples are keyed on
 		 */
 		public TupleComparator(int keyField) {
-			this.keyField = keyField;
-		}
-
-		/**
-		 * Compare two tuples based on their key field
-		 * 
-		 * @return -1 if t1 < t2, 1 if t1 > t2, 0 if t1 == t2
-		 */
-		public int compare(Tuple t1, Tuple t2) {
-			int cmp = 0;
-			if(t1.getField(keyField).compare(Op.LESS_THAN, t2.getField(keyField))) {
-				cmp = -1;
-			}
-			else if(t1.getField(keyField).compare(Op.GREATER_THAN, t2.getField(keyField))) {
-				cmp = 1;
-			}
-			return cmp;
+			super(keyField, true);
 		}
 	}
 
@@ -213,7 +196,7 @@ public class BTreeFileEncoder {
 			tuples.add(tup);
 		}
 		it.close();
-		Collections.sort(tuples, new TupleComparator(keyField));
+		new TupleComparator(keyField).sort(tuples);
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
@@ -554,7 +537,7 @@ public class BTreeFileEncoder {
 		if (i % 8 > 0)
 			dos.writeByte(headerbyte);
 
-		Collections.sort(tuples, new TupleComparator(keyField));
+		new TupleComparator(keyField).sort(tuples);
 		for(int t = 0; t < recordcount; t++) {
 			TupleDesc td = tuples.get(t).getTupleDesc();
 			for(int j = 0; j < td.numFields(); j++) {
@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * BatchOpIterator is implemented by operators that can also run in batch
+ * mode, handing their output to the parent a {@link TupleBatch} at a time
+ * rather than a Tuple at a time. This pays the per-call overhead once per
+ * batch, and lets operators work on int vectors directly.
+ * <p>
+ * An operator is opened, rewound and closed the same way in both modes, and
+ * a consumer must stick to one mode between open and rewind or close. Batch
+ * mode operators drive their children in batch mode, wrapping tuple-mode
+ * children in a {@link BatchAdapter}; {@link Unbatch} goes the other way, so
+ * tuple-mode operators can sit on top of a batched subtree.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * System property that, when "true", makes {@link LogicalPlan} produce
+     * plans that run in batch mode.
+     */
+    public static final String BATCH_PROPERTY = "simpledb.exec.batch";
+
+    /**
+     * Returns the next batch of output rows. The batch belongs to this
+     * operator and is only valid until the next call to nextBatch, rewind or
+     * close. The caller may narrow its selection, but must copy any rows it
+     * wants to keep.
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -2,10 +2,9 @@ package simpledb;
 
 import java.io.*;
 
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -17,6 +16,19 @@ import java.util.concurrent.ConcurrentHashMap;
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
  * 
+ * The page table is a {@link ConcurrentHashMap}, so page hits never take a
+ * lock. Misses serialize only on one of {@link #LOAD_STRIPES} stripe locks
+ * chosen by the page id, which keeps two threads from reading the same page
+ * twice while unrelated misses proceed in parallel.
+ * <p>
+ * Which page to evict is left to a {@link ReplacementPolicy}, chosen by the
+ * {@value #REPLACEMENT_POLICY_PROPERTY} system property: "clock" (the
+ * default), "2q" or "lru-k".
+ * <p>
+ * The bytes of cached heap pages live in a {@link FrameArena} of numPages
+ * off-heap frames rather than on the Java heap; a page gives its frame back
+ * when it is evicted or discarded.
+ * 
  * @Threadsafe, all fields are final
  */
 public class BufferPool {
@@ -25,11 +37,21 @@ public class BufferPool {
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
 
-    private int numPages;
+    /** Number of stripe locks guarding page loads; must be a power of two. */
+    private static final int LOAD_STRIPES = 64;
+
+    /** System property naming the page replacement policy to use. */
+    public static final String REPLACEMENT_POLICY_PROPERTY = "simpledb.bufferpool.policy";
 
-    private LinkedHashMap<PageId, Page> linkedHashMap;
+    private final int numPages;
 
-    private Page evictPage;
+    private final ConcurrentHashMap<PageId, Page> pageTable;
+
+    private final Object[] loadLocks;
+
+    private final ReplacementPolicy replacementPolicy;
+
+    private final FrameArena frameArena;
     
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
@@ -43,21 +65,33 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         this.numPages = numPages;
-        linkedHashMap = new LinkedHashMap<PageId,Page>(16, 0.75f, true){
-            @Override
-            protected boolean removeEldestEntry(Entry<PageId, Page> eldest) {
-                if(this.size() > numPages){
-                    try {
-                        evictPage = eldest.getValue();
-                        evictPage();
-                    } catch (DbException e) {
-                        e.printStackTrace();
-                    }
-                    return true;
-                }
-                return false;
-            }
-        };
+        this.pageTable = new ConcurrentHashMap<PageId, Page>(numPages * 2,
+                0.75f, Runtime.getRuntime().availableProcessors());
+        this.loadLocks = new Object[LOAD_STRIPES];
+        for (int i = 0; i < LOAD_STRIPES; i++) {
+            loadLocks[i] = new Object();
+        }
+        this.replacementPolicy = newReplacementPolicy(
+                System.getProperty(REPLACEMENT_POLICY_PROPERTY, "clock"), numPages);
+        this.frameArena = new FrameArena(numPages, pageSize);
+    }
+
+    /**
+     * Creates the replacement policy with the given name.
+     *
+     * @throws IllegalArgumentException if the name is not a known policy
+     */
+    static ReplacementPolicy newReplacementPolicy(String name, int numPages) {
+        switch (name.toLowerCase()) {
+        case "clock":
+            return new ClockReplacementPolicy(numPages);
+        case "2q":
+            return new TwoQueueReplacementPolicy(numPages);
+        case "lru-k":
+            return new LruKReplacementPolicy(numPages);
+        default:
+            throw new IllegalArgumentException("Unknown replacement policy " + name);
+        }
     }
     
     public static int getPageSize() {
@@ -95,21 +129,95 @@ public class BufferPool {
         if (pid ==null){
             return null;
         }
-        Page page = linkedHashMap.get(pid);
-        if(page ==null){
+        Page page = pageTable.get(pid);
+        if (page != null) {
+            replacementPolicy.pageAccessed(pid);
+            return page;
+        }
+        return loadPage(pid, true);
+    }
+
+    /**
+     * Reads a page into the pool ahead of need, without acting on behalf of
+     * any transaction. Does nothing if the page is already cached. Used by
+     * {@link ReadAhead}.
+     *
+     * @param pid the ID of the page to load
+     */
+    void prefetchPage(PageId pid) throws DbException {
+        if (!pageTable.containsKey(pid)) {
+            loadPage(pid, false);
+        }
+    }
+
+    /** @return the maximum number of pages this pool caches */
+    int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * The miss path of {@link #getPage}: reads the page from its DbFile and
+     * installs it, unless another thread got there first.
+     *
+     * @param access true if the caller is using the page now, rather than
+     *        prefetching it
+     */
+    private Page loadPage(PageId pid, boolean access) throws DbException {
+        Page page;
+        synchronized (loadLockFor(pid)) {
+            // another thread may have loaded the page while we waited
+            page = pageTable.get(pid);
+            if (page != null) {
+                if (access) {
+                    replacementPolicy.pageAccessed(pid);
+                }
+                return page;
+            }
             DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            if(dbFile ==null){
+            if (dbFile == null) {
                 return null;
             }
             page = dbFile.readPage(pid);
-            if(page !=null){
-                if(linkedHashMap.size() >= numPages){
-                    evictPage();
+            if (page == null) {
+                return null;
+            }
+            cachePage(page);
+            return page;
+        }
+    }
+
+    /** Returns the stripe lock that serializes loads of the given page. */
+    private Object loadLockFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return loadLocks[h & (LOAD_STRIPES - 1)];
+    }
+
+    /**
+     * Installs a page in the page table, evicting other pages first if the
+     * pool is full. Replaces any cached version of the same page. A heap
+     * page is moved into an arena frame on the way in, which is only done
+     * after eviction, so that the frames of the evicted pages are free.
+     */
+    private void cachePage(Page page) throws DbException {
+        PageId pid = page.getId();
+        synchronized (this) {
+            while (!pageTable.containsKey(pid) && pageTable.size() >= numPages) {
+                evictPage();
+            }
+            Page old = pageTable.get(pid);
+            if (old != null && old != page) {
+                releaseFrame(old);
+            }
+            if (page instanceof HeapPage && ((HeapPage) page).isOnHeap()) {
+                ByteBuffer frame = frameArena.acquire();
+                if (frame != null) {
+                    ((HeapPage) page).moveToFrame(frame);
                 }
-                linkedHashMap.put(pid,page);
             }
+            pageTable.put(pid, page);
+            replacementPolicy.pageLoaded(pid);
         }
-        return page;
     }
 
     /**
@@ -180,7 +288,7 @@ public class BufferPool {
         List<Page> affectPages = heapFile.insertTuple(tid, t);
         for (Page affectPage : affectPages) {
             affectPage.markDirty(true, tid);
-            linkedHashMap.put(affectPage.getId(), affectPage);
+            cachePage(affectPage);
         }
     }
 
@@ -228,7 +336,34 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        linkedHashMap.put(pid, null);
+        Page page = pageTable.remove(pid);
+        if (page != null) {
+            replacementPolicy.pageRemoved(pid);
+            releaseFrame(page);
+        }
+    }
+
+    /**
+     * Remove every page of a table from the buffer pool without flushing
+     * them. Used when the table's file is replaced wholesale, as by
+     * {@link BulkLoader}.
+     */
+    public synchronized void discardPages(int tableId) {
+        for (PageId pid : new ArrayList<PageId>(pageTable.keySet())) {
+            if (pid.getTableId() == tableId) {
+                discardPage(pid);
+            }
+        }
+    }
+
+    /** Gives the arena frame held by a page that is leaving the pool back to the arena. */
+    private void releaseFrame(Page page) {
+        if (page instanceof HeapPage) {
+            ByteBuffer frame = ((HeapPage) page).releaseFrame();
+            if (frame != null) {
+                frameArena.release(frame);
+            }
+        }
     }
 
     /**
@@ -238,12 +373,12 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page page = linkedHashMap.get(pid);
-        if (page !=null && page.isDirty() !=null) {
-            HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-            heapFile.writePage(page);
+        Page page = pageTable.get(pid);
+        if (page != null && page.isDirty() != null) {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            dbFile.writePage(page);
+            page.markDirty(false, null);
         }
-        linkedHashMap.put(pid, null);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -260,9 +395,20 @@ public class BufferPool {
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        if(evictPage !=null){
-            // do nothing
-            evictPage = null;
+        PageId pid = replacementPolicy.evict();
+        if (pid == null) {
+            throw new DbException("no page available to evict");
+        }
+        try {
+            flushPage(pid);
+        } catch (IOException e) {
+            // the page stays cached, so the policy must keep tracking it
+            replacementPolicy.pageLoaded(pid);
+            throw new DbException("could not flush page " + pid + ": " + e.getMessage());
+        }
+        Page page = pageTable.remove(pid);
+        if (page != null) {
+            releaseFrame(page);
         }
     }
 
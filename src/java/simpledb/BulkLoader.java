@@ -0,0 +1,407 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * BulkLoader creates a table from a stream of tuples in one pass, without
+ * going through the {@link BufferPool} or a transaction. Pages are packed
+ * full and written to disk sequentially as soon as they are complete.
+ * <p>
+ * A heap file is written in input order. A B+ tree is built bottom-up: the
+ * input is sorted on the key field with an {@link ExternalSorter}, leaf pages
+ * are written left to right, and each level of internal pages is then built
+ * from the separator keys of the level below, which are streamed through a
+ * temporary file. Memory use is bounded by the sort budget plus a few pages.
+ * <p>
+ * The table is written to a temporary file next to its destination and
+ * renamed into place once complete, so a failed load leaves any existing
+ * table untouched. The new file then replaces any table with the same file
+ * in the {@link Catalog} and the buffer pool.
+ */
+public class BulkLoader {
+
+    /** Number of pages' worth of tuples a B+ tree load sorts in memory. */
+    public static final int DEFAULT_SORT_PAGES = 1024;
+
+    /**
+     * Creates a heap file holding the tuples of source, and adds it to the
+     * catalog.
+     *
+     * @param source    the tuples to load; opened and closed by this method
+     * @param file      the file to create or replace
+     * @param name      the name of the table in the catalog
+     * @param pkeyField the name of the primary key field, or ""
+     * @return the new HeapFile
+     */
+    public static HeapFile loadHeapFile(OpIterator source, File file, String name, String pkeyField)
+            throws DbException, TransactionAbortedException, IOException {
+        TupleDesc td = source.getTupleDesc();
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = td.getSize();
+        int numSlots = pageSize * 8 / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+
+        File tmp = tempFileFor(file);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                FileChannel ch = out.getChannel();
+                ByteBuffer page = ByteBuffer.allocateDirect(pageSize);
+                int slot = 0;
+                source.open();
+                try {
+                    while (source.hasNext()) {
+                        Tuple t = source.next();
+                        page.put(slot / 8, (byte) (page.get(slot / 8) | (1 << (slot % 8))));
+                        writeFields(t, td, page, headerSize + slot * tupleSize);
+                        if (++slot == numSlots) {
+                            writePage(ch, page);
+                            slot = 0;
+                        }
+                    }
+                } finally {
+                    source.close();
+                }
+                if (slot > 0) {
+                    writePage(ch, page);
+                }
+                ch.force(true);
+            } finally {
+                out.close();
+            }
+            install(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+
+        HeapFile hf = new HeapFile(file, td);
+        Database.getCatalog().addTable(hf, name, pkeyField);
+        return hf;
+    }
+
+    /**
+     * Creates a B+ tree file holding the tuples of source, keyed on the given
+     * field, and adds it to the catalog. Uses {@link #DEFAULT_SORT_PAGES} of
+     * memory for sorting.
+     *
+     * @see #loadBTreeFile(OpIterator, File, int, String, String, int)
+     */
+    public static BTreeFile loadBTreeFile(OpIterator source, File file, int keyField,
+            String name, String pkeyField)
+            throws DbException, TransactionAbortedException, IOException {
+        return loadBTreeFile(source, file, keyField, name, pkeyField, DEFAULT_SORT_PAGES);
+    }
+
+    /**
+     * Creates a B+ tree file holding the tuples of source, keyed on the given
+     * field, and adds it to the catalog.
+     *
+     * @param source    the tuples to load, in any order; opened and closed by
+     *                  this method
+     * @param file      the file to create or replace
+     * @param keyField  the index of the field the tree is keyed on
+     * @param name      the name of the table in the catalog
+     * @param pkeyField the name of the primary key field, or ""
+     * @param sortPages the number of pages' worth of tuples to sort in memory
+     *                  before spilling sorted runs to disk
+     * @return the new BTreeFile
+     */
+    public static BTreeFile loadBTreeFile(OpIterator source, File file, int keyField,
+            String name, String pkeyField, int sortPages)
+            throws DbException, TransactionAbortedException, IOException {
+        TupleDesc td = source.getTupleDesc();
+        ExternalSorter sorter = new ExternalSorter(td,
+                new BTreeFileEncoder.TupleComparator(keyField), sortPages);
+        File tmp = tempFileFor(file);
+        try {
+            source.open();
+            try {
+                while (source.hasNext()) {
+                    sorter.add(source.next());
+                }
+            } finally {
+                source.close();
+            }
+            sorter.finish();
+
+            RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            try {
+                new TreeBuilder(raf.getChannel(), td, keyField).build(sorter);
+                raf.getChannel().force(true);
+            } finally {
+                raf.close();
+            }
+            install(tmp, file);
+        } finally {
+            sorter.close();
+            tmp.delete();
+        }
+
+        BTreeFile bf = new BTreeFile(file, keyField, td);
+        Database.getCatalog().addTable(bf, name, pkeyField);
+        return bf;
+    }
+
+    private static File tempFileFor(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        return File.createTempFile(file.getName(), ".load", dir);
+    }
+
+    /**
+     * Moves a completed file over its destination, after removing the table
+     * it replaces from the catalog and dropping its cached pages and its
+     * free-space map.
+     */
+    private static void install(File tmp, File file) throws IOException {
+        int tableId = file.getAbsoluteFile().hashCode();
+        // closing the old table writes out its free-space map, which would
+        // describe the wrong pages, so it must happen before the map is deleted
+        Database.getCatalog().removeTable(tableId);
+        Database.getBufferPool().discardPages(tableId);
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).delete();
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFields(Tuple t, TupleDesc td, ByteBuffer buf, int offset) {
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            type.write(t.getField(i), buf, offset);
+            offset += type.getLen();
+        }
+    }
+
+    /** Appends a complete heap page to the file and clears the buffer for the next one. */
+    private static void writePage(FileChannel ch, ByteBuffer page) throws IOException {
+        page.clear();
+        while (page.hasRemaining()) {
+            ch.write(page);
+        }
+        page.clear();
+        while (page.hasRemaining()) {
+            page.put((byte) 0);
+        }
+        page.clear();
+    }
+
+    /**
+     * Writes the pages of a B+ tree file from tuples sorted on the key field.
+     * Page numbers are handed out in write order: all the leaves first, then
+     * each internal level in turn, ending with the root.
+     */
+    private static class TreeBuilder {
+        private final FileChannel ch;
+        private final int keyField;
+        private final Type keyType;
+        private final Type[] types;
+        private final int tableId;
+        private final int pageSize = BufferPool.getPageSize();
+        private final int leafCapacity;
+        private final int internalCapacity;
+        private int nextPgNo = 1;
+
+        TreeBuilder(FileChannel ch, TupleDesc td, int keyField) {
+            this.ch = ch;
+            this.keyField = keyField;
+            this.keyType = td.getFieldType(keyField);
+            this.types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = td.getFieldType(i);
+            }
+            // the table id is not stored in the pages
+            this.tableId = 0;
+            // same arithmetic as BTreeFileEncoder
+            int leafPointerBytes = 3 * BTreeLeafPage.INDEX_SIZE;
+            this.leafCapacity = (pageSize * 8 - leafPointerBytes * 8) / (td.getSize() * 8 + 1);
+            int entryBytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+            int internalPointerBytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+            int maxEntries = (pageSize * 8 - internalPointerBytes * 8 - 1) / (entryBytes * 8 + 1);
+            // an internal page has one more child than it has keys
+            this.internalCapacity = maxEntries + 1;
+        }
+
+        private long offset(int pgNo) {
+            return BTreeRootPtrPage.getPageSize() + (long) (pgNo - 1) * pageSize;
+        }
+
+        private void write(ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) {
+                ch.write(buf, position + buf.position());
+            }
+        }
+
+        void build(ExternalSorter sorted) throws IOException, DbException {
+            write(ByteBuffer.wrap(new byte[BTreeRootPtrPage.getPageSize()]), 0);
+
+            // each level writes (smallest key, page number) of its pages for the level above
+            File level = File.createTempFile("btreelevel", ".tmp");
+            level.deleteOnExit();
+            try {
+                int pages;
+                DataOutputStream out = levelOutput(level);
+                try {
+                    pages = writeLeaves(sorted, out);
+                } finally {
+                    out.close();
+                }
+                int rootCategory = BTreePageId.LEAF;
+                while (pages > 1) {
+                    File above = File.createTempFile("btreelevel", ".tmp");
+                    above.deleteOnExit();
+                    DataInputStream in = new DataInputStream(
+                            new BufferedInputStream(new FileInputStream(level), 1 << 16));
+                    out = levelOutput(above);
+                    try {
+                        pages = writeInternalLevel(in, pages, rootCategory, out);
+                    } finally {
+                        in.close();
+                        out.close();
+                    }
+                    level.delete();
+                    level = above;
+                    rootCategory = BTreePageId.INTERNAL;
+                }
+                byte[] rootPtr = BTreeFileEncoder.convertToRootPtrPage(nextPgNo - 1, rootCategory, 0);
+                write(ByteBuffer.wrap(rootPtr), 0);
+            } finally {
+                level.delete();
+            }
+        }
+
+        private static DataOutputStream levelOutput(File f) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+        }
+
+        /**
+         * Writes the leaf level. One full page is held back so that the last
+         * two pages can share the remaining tuples, as BTreeFileEncoder does.
+         *
+         * @return the number of leaf pages written
+         */
+        private int writeLeaves(ExternalSorter sorted, DataOutputStream out)
+                throws IOException, DbException {
+            ArrayList<Tuple> pending = null;
+            ArrayList<Tuple> current = new ArrayList<Tuple>();
+            int pages = 0;
+            while (sorted.hasNext()) {
+                if (current.size() == leafCapacity) {
+                    if (pending != null) {
+                        writeLeaf(pending, true, out);
+                        pages++;
+                    }
+                    pending = current;
+                    current = new ArrayList<Tuple>();
+                }
+                current.add(sorted.next());
+            }
+            if (pending != null) {
+                if (current.size() < leafCapacity / 2) {
+                    ArrayList<Tuple> all = new ArrayList<Tuple>(pending);
+                    all.addAll(current);
+                    pending = new ArrayList<Tuple>(all.subList(0, all.size() / 2));
+                    current = new ArrayList<Tuple>(all.subList(all.size() / 2, all.size()));
+                }
+                writeLeaf(pending, true, out);
+                pages++;
+            }
+            writeLeaf(current, false, out);
+            return pages + 1;
+        }
+
+        private void writeLeaf(ArrayList<Tuple> tuples, boolean hasRight, DataOutputStream out)
+                throws IOException {
+            int pgNo = nextPgNo++;
+            ByteBuffer page = ByteBuffer.wrap(BTreeFileEncoder.convertToLeafPage(
+                    tuples, pageSize, types.length, types, keyField));
+            // pointers are parent, left sibling, right sibling; the parent is filled in later
+            page.putInt(BTreeLeafPage.INDEX_SIZE, pgNo > 1 ? pgNo - 1 : 0);
+            page.putInt(2 * BTreeLeafPage.INDEX_SIZE, hasRight ? pgNo + 1 : 0);
+            write(page, offset(pgNo));
+            if (!tuples.isEmpty()) {
+                tuples.get(0).getField(keyField).serialize(out);
+            } else {
+                // only the root of an empty tree can be empty; its key is never read
+                out.write(new byte[keyType.getLen()]);
+            }
+            out.writeInt(pgNo);
+        }
+
+        /**
+         * Writes one level of internal pages over the given number of child
+         * pages, balancing the last two pages like {@link #writeLeaves}.
+         *
+         * @return the number of pages written
+         */
+        private int writeInternalLevel(DataInputStream in, int children, int childCategory,
+                DataOutputStream out) throws IOException, DbException {
+            ArrayList<BTreeEntry> pending = null;
+            ArrayList<BTreeEntry> current = new ArrayList<BTreeEntry>();
+            int pages = 0;
+            for (int i = 0; i < children; i++) {
+                if (current.size() == internalCapacity) {
+                    if (pending != null) {
+                        writeInternal(pending, childCategory, out);
+                        pages++;
+                    }
+                    pending = current;
+                    current = new ArrayList<BTreeEntry>();
+                }
+                Field key;
+                try {
+                    key = keyType.parse(in);
+                } catch (ParseException e) {
+                    throw new DbException("could not read B+ tree level: " + e.getMessage());
+                }
+                BTreePageId child = new BTreePageId(tableId, in.readInt(), childCategory);
+                // the entry stands for the child and its smallest key
+                current.add(new BTreeEntry(key, null, child));
+            }
+            if (pending != null) {
+                if (current.size() < internalCapacity / 2) {
+                    ArrayList<BTreeEntry> all = new ArrayList<BTreeEntry>(pending);
+                    all.addAll(current);
+                    pending = new ArrayList<BTreeEntry>(all.subList(0, all.size() / 2));
+                    current = new ArrayList<BTreeEntry>(all.subList(all.size() / 2, all.size()));
+                }
+                writeInternal(pending, childCategory, out);
+                pages++;
+            }
+            writeInternal(current, childCategory, out);
+            return pages + 1;
+        }
+
+        /**
+         * Writes an internal page over the given children, each given as an
+         * entry whose right child is the child page and whose key is its
+         * smallest key, and points the children back at it.
+         */
+        private void writeInternal(ArrayList<BTreeEntry> children, int childCategory,
+                DataOutputStream out) throws IOException {
+            int pgNo = nextPgNo++;
+            ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>(children.size() - 1);
+            for (int i = 1; i < children.size(); i++) {
+                entries.add(new BTreeEntry(children.get(i).getKey(),
+                        children.get(i - 1).getRightChild(), children.get(i).getRightChild()));
+            }
+            byte[] page = BTreeFileEncoder.convertToInternalPage(entries, pageSize, keyType, childCategory);
+            write(ByteBuffer.wrap(page), offset(pgNo));
+
+            ByteBuffer parent = ByteBuffer.allocate(BTreeInternalPage.INDEX_SIZE);
+            for (BTreeEntry child : children) {
+                parent.clear();
+                parent.putInt(0, pgNo);
+                // the parent pointer is the first field of both leaf and internal pages
+                write(parent, offset(child.getRightChild().getPageNumber()));
+            }
+
+            children.get(0).getKey().serialize(out);
+            out.writeInt(pgNo);
+        }
+    }
+}
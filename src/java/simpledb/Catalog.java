@@ -40,11 +40,23 @@ public class Catalog {
      * conflict exists, use the last table to be added as the table for a given name.
      * @param pkeyField the name of the primary key field
      */
-    public void addTable(DbFile file, String name, String pkeyField) {
+    public synchronized void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
-        dbFileMap.put(file.getId(),file);
+        DbFile old = dbFileMap.put(file.getId(),file);
+        if (old != null && old != file) {
+            // the file has been replaced, e.g. by BulkLoader; drop the old handle
+            try {
+                old.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         pkeyFieldMap.put(file.getId(),pkeyField);
-        nameMap.put(file.getId(),name);
+        String oldName = nameMap.put(file.getId(),name);
+        if (oldName != null && !oldName.equals(name)
+                && Integer.valueOf(file.getId()).equals(tableIdMap.get(oldName))) {
+            tableIdMap.remove(oldName);
+        }
         tableIdMap.put(name,file.getId());
 
     }
@@ -122,9 +134,39 @@ public class Catalog {
         return nameMap.get(id);
     }
     
-    /** Delete all tables from the catalog */
+    /**
+     * Remove a table from the catalog and close its file.
+     * @param tableid the id of the table to remove
+     * @return the table's file, or null if there is no such table
+     */
+    public synchronized DbFile removeTable(int tableid) {
+        DbFile dbFile = dbFileMap.remove(tableid);
+        if (dbFile == null) {
+            return null;
+        }
+        pkeyFieldMap.remove(tableid);
+        String name = nameMap.remove(tableid);
+        if (name != null && Integer.valueOf(tableid).equals(tableIdMap.get(name))) {
+            tableIdMap.remove(name);
+        }
+        try {
+            dbFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return dbFile;
+    }
+
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for (DbFile dbFile : dbFileMap.values()) {
+            try {
+                dbFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         dbFileMap.clear();
         nameMap.clear();
         pkeyFieldMap.clear();
@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * CLOCK (second chance) replacement. Cached pages sit in a circular array of
+ * frames, each with a reference bit. A hit only sets the bit of the page's
+ * frame; eviction sweeps a hand around the array, clearing set bits, and
+ * takes the first frame whose bit was already clear.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private final PageId[] frames;
+    private final AtomicIntegerArray referenced;
+    private final ConcurrentHashMap<PageId, Integer> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private int hand = 0;
+
+    /**
+     * @param capacity the maximum number of pages the buffer pool caches
+     */
+    public ClockReplacementPolicy(int capacity) {
+        frames = new PageId[capacity];
+        referenced = new AtomicIntegerArray(capacity);
+        frameOf = new ConcurrentHashMap<PageId, Integer>(capacity * 2);
+        freeFrames = new ArrayDeque<Integer>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        Integer frame = freeFrames.poll();
+        if (frame == null) {
+            throw new IllegalStateException("more pages loaded than frames in the clock");
+        }
+        frames[frame] = pid;
+        referenced.set(frame, 1);
+        frameOf.put(pid, frame);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.lazySet(frame, 1);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced.set(frame, 0);
+            freeFrames.add(frame);
+        }
+    }
+
+    public synchronized PageId evict() {
+        if (frameOf.isEmpty()) {
+            return null;
+        }
+        // two full sweeps are enough: the first clears every reference bit
+        for (int i = 0; i < 2 * frames.length; i++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[frame];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.getAndSet(frame, 0) == 0) {
+                pageRemoved(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+}
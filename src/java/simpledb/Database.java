@@ -75,7 +75,8 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        // release the file handles held by the tables of the old instance
+        _instance.getAndSet(new Database())._catalog.clear();
     }
 
 }
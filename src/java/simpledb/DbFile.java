@@ -88,4 +88,14 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Releases any operating system resources, such as open file handles,
+     * held by this DbFile. Called by {@link Catalog#clear}. A closed DbFile
+     * may still be used; it reacquires what it needs on demand.
+     *
+     * @throws IOException if the resources cannot be released
+     */
+    public default void close() throws IOException {
+    }
 }
@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * DbFileChannel is the single open handle a {@link DbFile} uses to read and
+ * write its backing file. The underlying {@link FileChannel} is opened on
+ * first use and kept open until {@link #close}, and all I/O is positional, so
+ * concurrent readers never contend on a shared file pointer.
+ * <p>
+ * Page-sized transfers go through direct buffers borrowed from a small shared
+ * pool, which spares the JDK from copying heap arrays into a temporary direct
+ * buffer on every call.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    /** Upper bound on the number of idle direct buffers kept for reuse. */
+    static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final File file;
+    private FileChannel channel;
+
+    /**
+     * @param file the file this channel reads and writes; created on first
+     *             use if it does not exist
+     */
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the open channel, (re)opening the file if needed.
+     */
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Reads exactly len bytes starting at position into dst.
+     *
+     * @return false if the file ends before len bytes could be read
+     */
+    public boolean read(byte[] dst, long position) throws IOException {
+        ByteBuffer buf = borrowBuffer(dst.length);
+        try {
+            FileChannel ch = channel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, position + buf.position()) < 0) {
+                    return false;
+                }
+            }
+            buf.flip();
+            buf.get(dst);
+            return true;
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    /**
+     * Writes all of src at the given position, extending the file if needed.
+     */
+    public void write(byte[] src, long position) throws IOException {
+        write(ByteBuffer.wrap(src), position);
+    }
+
+    /**
+     * Writes the remaining bytes of src at the given position, extending the
+     * file if needed. A direct src is written as is; anything else is first
+     * copied into a pooled direct buffer.
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        if (src.isDirect()) {
+            writeFully(src.duplicate(), position);
+            return;
+        }
+        ByteBuffer buf = borrowBuffer(src.remaining());
+        try {
+            buf.put(src.duplicate());
+            buf.flip();
+            writeFully(buf, position);
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        FileChannel ch = channel();
+        long start = position - buf.position();
+        while (buf.hasRemaining()) {
+            ch.write(buf, start + buf.position());
+        }
+    }
+
+    /**
+     * Appends src to the end of the file.
+     *
+     * @return the position at which src was written
+     */
+    public synchronized long append(byte[] src) throws IOException {
+        long position = channel().size();
+        write(src, position);
+        return position;
+    }
+
+    /**
+     * Maps a region of the file into memory for reading. The mapping stays
+     * valid after {@link #close}, but does not grow with the file.
+     *
+     * @param position the offset of the first byte to map
+     * @param size     the number of bytes to map
+     * @return a read-only buffer over the region
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    /**
+     * Closes the underlying channel. The channel is reopened transparently if
+     * the file is used again.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * @return a cleared buffer of size bytes, direct and pooled if size is
+     *         the page size
+     */
+    static ByteBuffer borrowBuffer(int size) {
+        if (size != BufferPool.getPageSize()) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buf = bufferPool.poll();
+        if (buf == null || buf.capacity() != size) {
+            buf = ByteBuffer.allocateDirect(size);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /** Keeps buf for reuse if it is a pooled kind and the pool is not full. */
+    static void returnBuffer(ByteBuffer buf) {
+        if (buf.isDirect() && buf.capacity() == BufferPool.getPageSize()
+                && bufferPool.size() < MAX_POOLED_BUFFERS) {
+            bufferPool.offer(buf);
+        }
+    }
+
+    /** @return the number of idle direct buffers kept for reuse */
+    static int pooledBuffers() {
+        return bufferPool.size();
+    }
+}
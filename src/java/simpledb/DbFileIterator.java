@@ -33,6 +33,33 @@ public interface DbFileIterator{
      */
     public void rewind() throws DbException, TransactionAbortedException;
 
+    /**
+     * Appends tuples to batch until it is full or the iterator is exhausted.
+     * Files that can decode pages straight into a batch override this.
+     *
+     * @return true if any tuples were added
+     */
+    public default boolean fillBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        int before = batch.size();
+        while (!batch.isFull() && hasNext()) {
+            batch.addTuple(next());
+        }
+        return batch.size() > before;
+    }
+
+    /**
+     * Asks the iterator to skip the tuples that any of the given runtime
+     * filters rejects, in both next() and fillBatch(). Filters may be added
+     * to or removed from the list while the iterator is open.
+     *
+     * @return false if the iterator cannot filter, in which case the caller
+     *         has to apply the filters itself
+     */
+    public default boolean setRuntimeFilters(List<RuntimeFilter> filters) {
+        return false;
+    }
+
     /**
      * Closes the iterator.
      */
@@ -0,0 +1,355 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Exchange runs a pipeline of Filters and Projects over a SeqScan of a heap
+ * file on several worker threads and gathers their output. Each worker runs
+ * its own copy of the pipeline, whose scan takes morsels of the file from a
+ * shared {@link MorselQueue}, and hands its tuples to the consumer in chunks
+ * through a bounded queue, so the workers run at most a few chunks ahead of
+ * the operator reading the Exchange.
+ * <p>
+ * The output is in no particular order. The workers are started by the
+ * first call to next, and closing or rewinding the Exchange stops them.
+ * <p>
+ * Operators that do their own work per input tuple, like the probe of a
+ * hash join, can also run that work in the workers by giving the Exchange
+ * a {@link Stage}.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Tuples per chunk handed from a worker to the consumer. */
+    static final int CHUNK_SIZE = 256;
+
+    /** Chunks each worker may have waiting for the consumer. */
+    static final int CHUNKS_PER_WORKER = 4;
+
+    /** Put in the queue by each worker when it is done. */
+    private static final ArrayList<Tuple> END = new ArrayList<Tuple>(0);
+
+    /**
+     * Work done in the workers on each tuple of the pipeline. It must be safe
+     * to call from several threads at once.
+     */
+    interface Stage {
+        /** Adds the output tuples for t, if any, to out. */
+        void process(Tuple t, List<Tuple> out) throws DbException;
+    }
+
+    private OpIterator child;
+    private final int workers;
+    private transient Stage stage;
+    private transient TupleDesc td;
+
+    private transient BlockingQueue<ArrayList<Tuple>> queue;
+    /** The number of workers that have not put END in the queue yet. */
+    private transient int running;
+    private transient volatile boolean stopped;
+    private transient volatile Throwable failure;
+    private transient ArrayList<Tuple> chunk;
+    private transient int pos;
+
+    /**
+     * Constructor that uses {@link MorselQueue#defaultWorkers} threads.
+     *
+     * @param child
+     *            the pipeline to run: Filters and Projects over a SeqScan of
+     *            a heap file
+     */
+    public Exchange(OpIterator child) {
+        this(child, MorselQueue.defaultWorkers());
+    }
+
+    /**
+     * @param child
+     *            the pipeline to run: Filters and Projects over a SeqScan of
+     *            a heap file
+     * @param workers
+     *            the number of threads to run it on
+     */
+    public Exchange(OpIterator child, int workers) {
+        if (scanOf(child) == null) {
+            throw new IllegalArgumentException(
+                    "Exchange runs Filters and Projects over a heap file SeqScan only");
+        }
+        this.child = child;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Constructor for an Exchange whose workers pass each tuple of the
+     * pipeline through stage and return the tuples it outputs.
+     *
+     * @param td
+     *            the schema of the tuples stage outputs
+     */
+    Exchange(OpIterator child, int workers, Stage stage, TupleDesc td) {
+        this(child, workers);
+        this.stage = stage;
+        this.td = td;
+    }
+
+    /**
+     * @return the scan at the bottom of it if it is a pipeline Exchange can
+     *         run, or null otherwise
+     */
+    static SeqScan scanOf(OpIterator it) {
+        while (it instanceof Filter || it instanceof Project) {
+            it = ((Operator) it).getChildren()[0];
+        }
+        if (!(it instanceof SeqScan)) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) it;
+        if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile)) {
+            return null;
+        }
+        return scan;
+    }
+
+    /**
+     * Wraps it in an Exchange if that can run it and it is worth it: the
+     * {@value MorselQueue#WORKERS_PROPERTY} system property asks for more
+     * than one worker and the scanned file has more than one morsel of
+     * pages. Parallel scans are opt-in because an Exchange returns tuples in
+     * no particular order.
+     *
+     * @return the Exchange, or it itself
+     */
+    public static OpIterator parallelize(OpIterator it) {
+        if (MorselQueue.optInWorkers() <= 1 || !isParallelizable(it)) {
+            return it;
+        }
+        return new Exchange(it);
+    }
+
+    /**
+     * @return true if an Exchange can run it and its scanned file has more
+     *         than one morsel of pages
+     */
+    public static boolean isParallelizable(OpIterator it) {
+        SeqScan scan = scanOf(it);
+        if (scan == null) {
+            return false;
+        }
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return file.numPages() > MorselQueue.DEFAULT_MORSEL_PAGES;
+    }
+
+    /**
+     * @return the name shown for the Exchange in query plans
+     */
+    public String getName() {
+        return "exchange(" + workers + ")";
+    }
+
+    /**
+     * @return the number of threads the pipeline runs on
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td != null ? td : child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // the workers open their own copies of the child
+        queue = null;
+        super.open();
+    }
+
+    public void close() {
+        stop();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        super.close();
+        super.open();
+    }
+
+    /**
+     * @return a copy of the pipeline it whose scan reads the morsels it takes
+     *         from morsels, applying the same runtime filters
+     */
+    static OpIterator copy(OpIterator it, MorselQueue morsels) {
+        if (it instanceof Filter) {
+            Filter f = (Filter) it;
+            return new Filter(f.getPredicate(), copy(f.getChildren()[0], morsels));
+        }
+        if (it instanceof Project) {
+            Project p = (Project) it;
+            TupleDesc td = p.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = td.getFieldType(i);
+            }
+            return new Project(p.getOutFieldIds(), types, copy(p.getChildren()[0], morsels));
+        }
+        SeqScan s = (SeqScan) it;
+        SeqScan scan = new SeqScan(s.getTransactionId(), s.getTableId(), s.getAlias());
+        scan.setMorsels(morsels);
+        for (RuntimeFilter f : s.getRuntimeFilters()) {
+            scan.addRuntimeFilter(f);
+        }
+        return scan;
+    }
+
+    /**
+     * Starts the workers, each on its own copy of the child.
+     */
+    private void start() {
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scanOf(child).getTableId());
+        MorselQueue morsels = new MorselQueue(file.numPages(), MorselQueue.DEFAULT_MORSEL_PAGES);
+        int n = Math.min(workers, morsels.numMorsels());
+        final BlockingQueue<ArrayList<Tuple>> q =
+                new ArrayBlockingQueue<ArrayList<Tuple>>(Math.max(1, n * CHUNKS_PER_WORKER));
+        queue = q;
+        running = n;
+        stopped = false;
+        failure = null;
+        chunk = null;
+        for (int i = 0; i < n; i++) {
+            final OpIterator pipeline = copy(child, morsels);
+            MorselQueue.submit(() -> {
+                try {
+                    produce(pipeline, q);
+                } catch (Throwable e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                } finally {
+                    putUninterruptibly(q, END);
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Runs one worker's pipeline, putting its tuples in q chunk by chunk
+     * until it is exhausted or the Exchange is stopped.
+     */
+    private void produce(OpIterator pipeline, BlockingQueue<ArrayList<Tuple>> q)
+            throws DbException, TransactionAbortedException, InterruptedException {
+        pipeline.open();
+        try {
+            ArrayList<Tuple> out = new ArrayList<Tuple>(CHUNK_SIZE);
+            while (!stopped && pipeline.hasNext()) {
+                if (stage == null) {
+                    out.add(pipeline.next());
+                } else {
+                    stage.process(pipeline.next(), out);
+                }
+                if (out.size() >= CHUNK_SIZE) {
+                    q.put(out);
+                    out = new ArrayList<Tuple>(CHUNK_SIZE);
+                }
+            }
+            if (!out.isEmpty() && !stopped) {
+                q.put(out);
+            }
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<ArrayList<Tuple>> q, ArrayList<Tuple> c) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                q.put(c);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ArrayList<Tuple> takeUninterruptibly() {
+        boolean interrupted = false;
+        ArrayList<Tuple> c;
+        while (true) {
+            try {
+                c = queue.take();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return c;
+    }
+
+    /**
+     * Stops the workers, if they are running, and waits until they are done.
+     */
+    private void stop() {
+        if (queue == null) {
+            return;
+        }
+        stopped = true;
+        // workers blocked on a full queue finish once there is room
+        while (running > 0) {
+            if (takeUninterruptibly() == END) {
+                running--;
+            }
+        }
+        queue = null;
+        chunk = null;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (queue == null) {
+            start();
+        }
+        while (chunk == null || pos == chunk.size()) {
+            if (running == 0) {
+                return null;
+            }
+            chunk = takeUninterruptibly();
+            pos = 0;
+            if (chunk == END) {
+                running--;
+                chunk = null;
+                if (failure != null) {
+                    Throwable e = failure;
+                    stop();
+                    if (e instanceof DbException)
+                        throw (DbException) e;
+                    if (e instanceof TransactionAbortedException)
+                        throw (TransactionAbortedException) e;
+                    if (e instanceof RuntimeException)
+                        throw (RuntimeException) e;
+                    throw new DbException("Exchange worker failed: " + e);
+                }
+            }
+        }
+        return chunk.get(pos++);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,292 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSorter sorts a stream of tuples that may not fit in memory. Tuples
+ * are collected with {@link #add} until the memory budget is used up; the
+ * buffer is then sorted and written to a temporary run file. {@link #finish}
+ * merges the runs, and the sorted tuples are then read with {@link #hasNext}
+ * and {@link #next}. If everything fits in the budget, no file is written.
+ * <p>
+ * Runs are merged with a loser tree, which picks the next tuple with one
+ * comparison per level. The budget also bounds the number of runs read at
+ * once, since each needs a read buffer; if there are more, groups of runs
+ * are merged into longer runs first, until one merge can read them all.
+ * <p>
+ * With a {@link TupleComparator}, runs are sorted with
+ * {@link TupleComparator#sort} and the merge keeps the normalized key of
+ * each run's current tuple, so most comparisons are of two longs.
+ * <p>
+ * Tuples read back from runs carry no RecordId.
+ */
+public class ExternalSorter {
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    /** comparator, if it can compute normalized keys, or null. */
+    private final TupleComparator normalized;
+    /** True if equal normalized keys mean equal tuples. */
+    private final boolean exact;
+    private final int maxBufferedTuples;
+    private final int maxFanIn;
+
+    private ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private final ArrayList<SpillFile> runFiles = new ArrayList<SpillFile>();
+
+    /** Output state once {@link #finish} has been called. */
+    private Iterator<Tuple> inMemory;
+    private LoserTree merge;
+
+    /**
+     * @param td          the schema of the tuples to sort
+     * @param comparator  the sort order
+     * @param memoryPages the number of pages' worth of tuples to hold in
+     *                    memory before spilling a run to disk
+     */
+    public ExternalSorter(TupleDesc td, Comparator<Tuple> comparator, int memoryPages) {
+        this.td = td;
+        this.comparator = comparator;
+        this.normalized = comparator instanceof TupleComparator ? (TupleComparator) comparator : null;
+        this.exact = normalized != null && normalized.isNormalizedKeyExact(td);
+        long memory = (long) memoryPages * BufferPool.getPageSize();
+        this.maxBufferedTuples = (int) Math.max(1,
+                Math.min(Integer.MAX_VALUE - 8, memory / td.getSize()));
+        this.maxFanIn = (int) Math.max(2, Math.min(Integer.MAX_VALUE, memory / SpillFile.BUFFER_SIZE));
+    }
+
+    /**
+     * Adds a tuple to the input. Must not be called after {@link #finish}.
+     */
+    public void add(Tuple t) throws DbException {
+        buffer.add(t);
+        if (buffer.size() >= maxBufferedTuples) {
+            spill();
+        }
+    }
+
+    /**
+     * Sorts the buffered tuples and writes them to a new run file.
+     */
+    private void spill() throws DbException {
+        sortBuffer();
+        SpillFile run = new SpillFile(td, "sortrun");
+        runFiles.add(run);
+        for (Tuple t : buffer) {
+            run.add(t);
+        }
+        buffer.clear();
+    }
+
+    private void sortBuffer() {
+        if (normalized != null) {
+            normalized.sort(buffer);
+        } else {
+            Collections.sort(buffer, comparator);
+        }
+    }
+
+    /**
+     * Ends the input and prepares to return the tuples in sorted order.
+     */
+    public void finish() throws DbException {
+        if (runFiles.isEmpty()) {
+            sortBuffer();
+            inMemory = buffer.iterator();
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        buffer = null;
+        while (runFiles.size() > maxFanIn) {
+            mergePass();
+        }
+        merge = new LoserTree(runFiles);
+    }
+
+    /**
+     * Merges the runs maxFanIn at a time into longer runs, replacing the
+     * run files.
+     */
+    private void mergePass() throws DbException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int i = 0; i < runFiles.size(); i += maxFanIn) {
+            List<SpillFile> group = runFiles.subList(i, Math.min(i + maxFanIn, runFiles.size()));
+            SpillFile run = new SpillFile(td, "sortrun");
+            LoserTree tree = new LoserTree(group);
+            while (tree.hasNext()) {
+                run.add(tree.next());
+            }
+            for (SpillFile f : group) {
+                f.delete();
+            }
+            merged.add(run);
+        }
+        runFiles.clear();
+        runFiles.addAll(merged);
+    }
+
+    /**
+     * @return true if there are more sorted tuples to read
+     */
+    public boolean hasNext() {
+        return inMemory != null ? inMemory.hasNext() : merge.hasNext();
+    }
+
+    /**
+     * @return the next tuple in sorted order
+     */
+    public Tuple next() throws DbException {
+        if (inMemory != null) {
+            return inMemory.next();
+        }
+        return merge.next();
+    }
+
+    /**
+     * Starts returning the sorted tuples from the first one again. Only
+     * allowed after {@link #finish}.
+     */
+    public void rewind() throws DbException {
+        if (inMemory != null) {
+            inMemory = buffer.iterator();
+            return;
+        }
+        merge.close();
+        merge = new LoserTree(runFiles);
+    }
+
+    /**
+     * Releases the buffered tuples and deletes the run files.
+     */
+    public void close() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        for (SpillFile run : runFiles) {
+            run.delete();
+        }
+        runFiles.clear();
+        buffer = null;
+        inMemory = null;
+    }
+
+    /**
+     * Merges sorted runs. The leaves of the tree are the runs' current
+     * tuples; each inner node holds the run that lost the comparison played
+     * there, and the overall winner is kept apart. After the winner's run
+     * advances, only the matches on its path to the root are replayed.
+     * Exhausted runs lose to everything, and ties go to the earlier run, so
+     * the merge is stable.
+     */
+    private class LoserTree {
+        private final RunReader[] runs;
+        /** tree[n] is the losing run at inner node n, for n from 1 to k-1. */
+        private final int[] tree;
+        private int winner;
+
+        LoserTree(List<SpillFile> files) throws DbException {
+            int k = files.size();
+            runs = new RunReader[k];
+            for (int i = 0; i < k; i++) {
+                runs[i] = new RunReader(files.get(i));
+                runs[i].advance();
+            }
+            tree = new int[k];
+            // play the initial tournament bottom up; leaf i is node k + i
+            int[] winners = new int[2 * k];
+            for (int i = 0; i < k; i++) {
+                winners[k + i] = i;
+            }
+            for (int n = k - 1; n >= 1; n--) {
+                int a = winners[2 * n], b = winners[2 * n + 1];
+                if (beats(a, b)) {
+                    winners[n] = a;
+                    tree[n] = b;
+                } else {
+                    winners[n] = b;
+                    tree[n] = a;
+                }
+            }
+            winner = k == 1 ? 0 : winners[1];
+        }
+
+        /** @return true if run a's current tuple comes before run b's */
+        private boolean beats(int a, int b) {
+            Tuple ta = runs[a].head, tb = runs[b].head;
+            if (ta == null || tb == null) {
+                return tb == null && (ta != null || a < b);
+            }
+            int c = normalized != null
+                    ? normalized.compare(runs[a].headKey, ta, runs[b].headKey, tb, exact)
+                    : comparator.compare(ta, tb);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        boolean hasNext() {
+            return runs[winner].head != null;
+        }
+
+        Tuple next() throws DbException {
+            Tuple t = runs[winner].head;
+            if (t == null) {
+                throw new NoSuchElementException();
+            }
+            runs[winner].advance();
+            int w = winner;
+            for (int n = (w + runs.length) >> 1; n >= 1; n >>= 1) {
+                if (beats(tree[n], w)) {
+                    int loser = w;
+                    w = tree[n];
+                    tree[n] = loser;
+                }
+            }
+            winner = w;
+            return t;
+        }
+
+        void close() {
+            for (RunReader run : runs) {
+                run.close();
+            }
+        }
+    }
+
+    /** Reads the tuples of one run file in order. */
+    private class RunReader {
+        private final SpillFile.Reader it;
+        Tuple head;
+        /** The normalized key of head, if the comparator has them. */
+        long headKey;
+
+        RunReader(SpillFile run) throws DbException {
+            it = run.iterator();
+            it.open();
+        }
+
+        /**
+         * Reads the next tuple of the run into head.
+         *
+         * @return false, after closing the file and setting head to null, if
+         *         the run is exhausted
+         */
+        boolean advance() throws DbException {
+            if (!it.hasNext()) {
+                head = null;
+                close();
+                return false;
+            }
+            head = it.next();
+            if (normalized != null) {
+                headKey = normalized.normalizedKey(head);
+            }
+            return true;
+        }
+
+        void close() {
+            it.close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * FieldHashTable assigns each distinct key it is given a dense id, 0 for
+ * the first key, 1 for the next and so on. Operators keep whatever they
+ * associate with a key (aggregates, chains of tuples) in their own arrays
+ * indexed by id, so looking up a key allocates nothing.
+ * <p>
+ * Use {@link #create} to get the table specialized for a key type.
+ */
+public interface FieldHashTable extends Serializable {
+
+    /**
+     * @return a new, empty table for keys of the given type
+     */
+    static FieldHashTable create(Type type) {
+        return type == Type.INT_TYPE ? new IntHashTable() : new StringHashTable();
+    }
+
+    /**
+     * @return the id of key, or -1 if it is not in the table
+     */
+    int find(Field key);
+
+    /**
+     * @return the id of key, which is added to the table if it is not in it yet
+     */
+    int insert(Field key);
+
+    /**
+     * @return the key with the given id
+     */
+    Field key(int id);
+
+    /**
+     * @return the number of keys in the table; their ids are 0 to size()-1
+     */
+    int size();
+
+    /**
+     * Removes all keys.
+     */
+    void clear();
+}
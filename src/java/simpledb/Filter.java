@@ -5,12 +5,13 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
   private static final long serialVersionUID = 1L;
 
   private Predicate predicate;
   private OpIterator opIterator;
+  private transient BatchOpIterator batchChild;
 
   /**
    * Constructor accepts a predicate to apply and a child operator to read tuples to filter from.
@@ -38,6 +39,7 @@ public class Filter extends Operator {
       TransactionAbortedException {
     // some code goes here
     opIterator.open();
+    batchChild = BatchAdapter.of(opIterator);
     super.open();
   }
 
@@ -74,6 +76,17 @@ public class Filter extends Operator {
     return null;
   }
 
+  public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    TupleBatch batch;
+    while ((batch = batchChild.nextBatch()) != null) {
+      predicate.filter(batch);
+      if (batch.size() > 0) {
+        return batch;
+      }
+    }
+    return null;
+  }
+
   @Override
   public OpIterator[] getChildren() {
     // some code goes here
@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * A fixed block of off-heap memory carved into page-sized frames. The
+ * {@link BufferPool} lends a frame to each page it reads and takes it back
+ * when the page leaves the pool, so the bytes of cached pages live outside
+ * the Java heap and are never scanned or copied by the garbage collector.
+ *
+ * @Threadsafe
+ */
+public class FrameArena {
+
+    private final int frameSize;
+    private final ByteBuffer[] frames;
+    private final IdentityHashMap<ByteBuffer, Integer> frameIndex;
+    private final ArrayDeque<Integer> free;
+
+    /**
+     * Allocates numFrames frames of frameSize bytes each in a single direct
+     * buffer.
+     *
+     * @param numFrames the number of frames in the arena
+     * @param frameSize the size of each frame in bytes
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        this.frames = new ByteBuffer[numFrames];
+        this.frameIndex = new IdentityHashMap<ByteBuffer, Integer>(numFrames);
+        this.free = new ArrayDeque<Integer>(numFrames);
+        ByteBuffer block = ByteBuffer.allocateDirect(numFrames * frameSize);
+        for (int i = 0; i < numFrames; i++) {
+            block.limit((i + 1) * frameSize).position(i * frameSize);
+            frames[i] = block.slice();
+            frameIndex.put(frames[i], i);
+            free.add(i);
+        }
+    }
+
+    /**
+     * Borrows a frame from the arena.
+     *
+     * @return a cleared frame, or null if every frame is in use or the page
+     *         size has changed since the arena was created
+     */
+    public synchronized ByteBuffer acquire() {
+        if (frameSize != BufferPool.getPageSize() || free.isEmpty()) {
+            return null;
+        }
+        ByteBuffer frame = frames[free.poll()];
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Returns a frame obtained from {@link #acquire} to the arena.
+     *
+     * @param frame the frame to give back
+     * @throws IllegalArgumentException if frame does not belong to this arena
+     */
+    public synchronized void release(ByteBuffer frame) {
+        Integer i = frameIndex.get(frame);
+        if (i == null) {
+            throw new IllegalArgumentException("frame does not belong to this arena");
+        }
+        free.add(i);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a {@link HeapFile} may have an empty
+ * slot, so that an insert can go straight to such a page instead of reading
+ * every page of the file in turn.
+ * <p>
+ * The map keeps one bit per page. A page's bit is cleared when an insert
+ * fills it and set again when a tuple is deleted from it; {@link HeapPage}
+ * reports both. Pages the map has not heard about, such as those of a file
+ * written by {@link HeapFileEncoder}, start out set. A set bit is therefore
+ * only a hint, and callers must check the page itself and call
+ * {@link #setFree(int, boolean)} when the hint was wrong.
+ * <p>
+ * The map is kept in a sidecar file next to the heap file, loaded on first
+ * use and written back by {@link #save}. The sidecar records the number of
+ * pages it describes and is ignored if the heap file has a different number
+ * of pages. Since it is only a hint, losing it is harmless: the sidecar of
+ * a heap file in the temporary directory is deleted when the JVM exits,
+ * along with the heap file itself, and none is written once the heap file
+ * is gone.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Suffix appended to the heap file name to form the sidecar file name. */
+    public static final String SUFFIX = ".fsm";
+
+    private final File sidecar;
+    private final HeapFile heapFile;
+
+    /** Bit i is set if page i may have an empty slot; null until loaded. */
+    private BitSet free;
+    /** Number of pages the map covers; pages at or beyond this are unknown. */
+    private int numPages;
+    private boolean dirty;
+
+    /**
+     * @param heapFile the heap file whose pages this map describes
+     */
+    public FreeSpaceMap(HeapFile heapFile) {
+        this.heapFile = heapFile;
+        this.sidecar = new File(heapFile.getFile().getPath() + SUFFIX);
+    }
+
+    /**
+     * Loads the sidecar the first time the map is used, and extends the map
+     * to cover pages appended to the heap file since.
+     */
+    private void sync() {
+        int filePages = heapFile.numPages();
+        if (free == null) {
+            free = new BitSet();
+            numPages = 0;
+            if (sidecar.exists()) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(sidecar)))) {
+                    int pages = in.readInt();
+                    byte[] bits = new byte[in.readInt()];
+                    in.readFully(bits);
+                    if (pages == filePages) {
+                        free = BitSet.valueOf(bits);
+                        numPages = pages;
+                    }
+                } catch (IOException e) {
+                    // a damaged sidecar is rebuilt as if it were missing
+                    free = new BitSet();
+                    numPages = 0;
+                }
+            }
+        }
+        if (numPages < filePages) {
+            free.set(numPages, filePages);
+            numPages = filePages;
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return the lowest numbered page that may have an empty slot, or -1 if
+     * every page of the file is known to be full
+     */
+    public synchronized int firstFree() {
+        sync();
+        int pgNo = free.nextSetBit(0);
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * Records whether a page has an empty slot.
+     *
+     * @param pgNo    the page number
+     * @param hasFree true if the page has at least one empty slot
+     */
+    public synchronized void setFree(int pgNo, boolean hasFree) {
+        sync();
+        if (free.get(pgNo) != hasFree) {
+            free.set(pgNo, hasFree);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the map to its sidecar file if it changed since it was loaded.
+     */
+    public synchronized void save() throws IOException {
+        if (free == null || !dirty || !heapFile.getFile().exists()) {
+            return;
+        }
+        if (!sidecar.exists() && isTemporary(heapFile.getFile())) {
+            sidecar.deleteOnExit();
+        }
+        byte[] bits = free.toByteArray();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+            out.writeInt(numPages);
+            out.writeInt(bits.length);
+            out.write(bits);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Deletes the sidecar file and forgets the map, which is rebuilt on next
+     * use as if the sidecar had never existed. Used when the heap file is
+     * dropped or replaced.
+     */
+    public synchronized void delete() {
+        free = null;
+        numPages = 0;
+        dirty = false;
+        sidecar.delete();
+    }
+
+    /** @return true if f is in the directory for temporary files */
+    private static boolean isTemporary(File f) {
+        File tmpDir = new File(System.getProperty("java.io.tmpdir")).getAbsoluteFile();
+        return tmpDir.equals(f.getAbsoluteFile().getParentFile());
+    }
+}
@@ -1,11 +1,24 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join: child1 is hashed in memory and probed
+ * with child2. If child1 does not fit in the memory budget, partitions of
+ * both inputs are spilled to temporary files and joined pairwise afterwards,
+ * so each input is read at most twice unless one key is heavily skewed.
+ * <p>
+ * If child2 is a scan of a heap file with several morsels of pages, possibly
+ * under Filters and Projects, and child1 fits in memory, the join runs on
+ * several threads: child1 is hashed into per-partition tables, by workers
+ * that each read morsels of it if it is such a scan too, and the workers of
+ * an {@link Exchange} probe the tables with morsels of child2.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
@@ -26,10 +39,7 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
-        this.pred = p;
-        this.child1 = child1;
-        this.child2 = child2;
-        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this(p, child1, child2, MAP_SIZE);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -50,51 +60,465 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** The default number of child1 tuples held in memory. */
     public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    /** The number of partitions each input is split into when memory runs out. */
+    static final int PARTITIONS = 32;
+
+    /**
+     * The number of times a partition is split again before it is joined
+     * chunk by chunk instead; only keys shared by very many tuples get that far.
+     */
+    static final int MAX_LEVEL = 3;
+
+    private final int maxTuples;
+
+    /**
+     * Constructor that sets the memory budget.
+     *
+     * @param maxTuples
+     *            the number of tuples of child1 to hold in memory before
+     *            partitions are spilled to disk
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxTuples) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.maxTuples = maxTuples;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * The in-memory tuples of one partition. Tuples with the same key are
+     * chained through next, starting from the key's entry in heads.
+     */
+    private static class TupleTable {
+        final FieldHashTable keys;
+        int[] heads = new int[16];
+        Tuple[] tuples = new Tuple[16];
+        int[] next = new int[16];
+        int size;
+
+        TupleTable(Type keyType) {
+            keys = FieldHashTable.create(keyType);
+        }
+
+        void add(Field key, Tuple t) {
+            int numKeys = keys.size();
+            int id = keys.insert(key);
+            if (id == heads.length) {
+                heads = Arrays.copyOf(heads, id * 2);
+            }
+            if (size == tuples.length) {
+                tuples = Arrays.copyOf(tuples, size * 2);
+                next = Arrays.copyOf(next, size * 2);
+            }
+            tuples[size] = t;
+            next[size] = id == numKeys ? -1 : heads[id];
+            heads[id] = size++;
+        }
+
+        /** @return the index of the last tuple with this key, or -1 */
+        int first(Field key) {
+            int id = keys.find(key);
+            return id < 0 ? -1 : heads[id];
+        }
+    }
+
+    /** A pair of spilled partitions still to be joined. */
+    private static class Partition {
+        final SpillFile build, probe;
+        final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+    }
+
+    // hybrid hash join state. Tuples of the build side (child1, or a spilled partition of it) are
+    // hashed into PARTITIONS in-memory tables. When more than maxTuples are held, the largest
+    // table is written to a spill file and later tuples of that partition go straight to the file;
+    // probe tuples of spilled partitions are written to a matching file. Once the probe side is
+    // done, each pair of spilled files is joined the same way, one level deeper.
+    private transient OpIterator buildSrc, probeSrc;
+    private transient Partition current;
+    private transient int level;
+    private transient boolean chunked;
+    private transient TupleTable[] tables;
+    private transient int resident;
+    private transient SpillFile[] buildSpill, probeSpill;
+    private transient ArrayDeque<Partition> pending;
+
+    // the keys of child1, pushed down to the scan below child2 once child1 has been read
+    private transient RuntimeFilter runtimeFilter;
+    private transient SeqScan filteredScan;
+
+    // parallel mode: the tables of child1 are read-only once built, and probeExchange's workers
+    // probe them with child2 and return the joined tuples
+    private int workers = MorselQueue.optInWorkers();
+    private transient Exchange probeExchange;
+
+    /**
+     * Sets the number of threads that join a heap file child2 in parallel.
+     * Defaults to {@link MorselQueue#optInWorkers}, so unless parallelism is
+     * asked for the join runs on the calling thread and returns its tuples
+     * in the same order every time; 1 makes the join run on the calling thread.
+     */
+    public void setParallelism(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * @return the number of threads that join a heap file child2
+     */
+    public int getParallelism() {
+        return workers;
+    }
+
+    static int partition(Field key, int level) {
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h & (PARTITIONS - 1);
+    }
+
+    /**
+     * Starts joining build with probe. Partitions that were split MAX_LEVEL
+     * times already are joined by loading build one chunk at a time and
+     * scanning probe once per chunk.
+     */
+    private void startPass(OpIterator build, OpIterator probe, int level)
+            throws DbException, TransactionAbortedException {
+        this.buildSrc = build;
+        this.probeSrc = probe;
+        this.level = level;
+        this.chunked = level > MAX_LEVEL;
+        tables = new TupleTable[PARTITIONS];
+        buildSpill = new SpillFile[PARTITIONS];
+        probeSpill = new SpillFile[PARTITIONS];
+        if (level == 0) {
+            runtimeFilter = new RuntimeFilter(child1.getTupleDesc().getFieldType(pred.getField1()),
+                    maxTuples);
+        }
+        loadBuild();
+        if (level == 0) {
+            pushRuntimeFilter();
+        }
+    }
+
+    /**
+     * Reads the build input into the hash tables, spilling partitions when
+     * memory runs out. In chunked mode, stops at the memory limit instead.
+     */
+    private void loadBuild() throws DbException, TransactionAbortedException {
+        Type keyType = child1.getTupleDesc().getFieldType(pred.getField1());
+        for (int i = 0; i < PARTITIONS; i++) {
+            tables[i] = new TupleTable(keyType);
+        }
+        resident = 0;
+        while (buildSrc.hasNext()) {
+            t1 = buildSrc.next();
+            Field key = t1.getField(pred.getField1());
+            if (level == 0) {
+                runtimeFilter.add(key);
+            }
+            int p = partition(key, level);
+            if (tables[p] == null) {
+                buildSpill[p].add(t1);
+                continue;
+            }
+            tables[p].add(key, t1);
+            if (++resident >= maxTuples) {
+                if (chunked) {
+                    return;
+                }
+                spillLargest();
+            }
+        }
+    }
+
+    /**
+     * Installs runtimeFilter, which now holds every key of child1, in the
+     * scan below child2, so that probe tuples without a match are dropped
+     * as the scan reads them.
+     */
+    private void pushRuntimeFilter() {
+        if (runtimeFilter.isSelective()) {
+            filteredScan = RuntimeFilter.pushDown(child2, pred.getField2(), runtimeFilter);
+        }
+        if (filteredScan == null) {
+            runtimeFilter = null;
+        }
+    }
+
+    private TupleTable[] newTables() {
+        Type keyType = child1.getTupleDesc().getFieldType(pred.getField1());
+        TupleTable[] t = new TupleTable[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            t[i] = new TupleTable(keyType);
+        }
+        return t;
+    }
+
+    /**
+     * Starts a parallel join if child2 can be probed by several workers and
+     * child1 fits in memory.
+     *
+     * @return false, with child1 rewound if it was read, if the join has to
+     *         run on this thread
+     */
+    private boolean startParallel() throws DbException, TransactionAbortedException {
+        if (workers <= 1 || !Exchange.isParallelizable(child2)) {
+            return false;
+        }
+        final TupleTable[] built = Exchange.isParallelizable(child1) ? buildParallel() : buildSerial();
+        if (built == null) {
+            child1.rewind();
+            return false;
+        }
+        tables = built;
+        int numKeys = 0;
+        for (TupleTable t : built) {
+            numKeys += t.keys.size();
+        }
+        runtimeFilter = new RuntimeFilter(child1.getTupleDesc().getFieldType(pred.getField1()),
+                numKeys);
+        for (TupleTable t : built) {
+            for (int id = 0; id < t.keys.size(); id++) {
+                runtimeFilter.add(t.keys.key(id));
+            }
+        }
+        pushRuntimeFilter();
+        final int field2 = pred.getField2();
+        probeExchange = new Exchange(child2, workers, (t2, out) -> {
+            Field key = t2.getField(field2);
+            TupleTable table = built[partition(key, 0)];
+            for (int m = table.first(key); m >= 0; m = table.next[m]) {
+                out.add(join(table.tuples[m], t2));
+            }
+        }, comboTD);
+        probeExchange.open();
+        return true;
+    }
+
+    /**
+     * Reads child1 into the tables of a parallel join on this thread.
+     *
+     * @return the tables, or null if child1 has more than maxTuples tuples
+     */
+    private TupleTable[] buildSerial() throws DbException, TransactionAbortedException {
+        TupleTable[] built = newTables();
+        int n = 0;
         while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            if (++n > maxTuples) {
+                return null;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            Tuple t = child1.next();
+            Field key = t.getField(pred.getField1());
+            built[partition(key, 0)].add(key, t);
+        }
+        return built;
+    }
+
+    /**
+     * Reads child1 into the tables of a parallel join on several threads.
+     * Each worker reads morsels of child1 into its own list per partition;
+     * then each partition's table is built by one worker from those lists.
+     *
+     * @return the tables, or null if child1 has more than maxTuples tuples
+     */
+    private TupleTable[] buildParallel() throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) Database.getCatalog()
+                .getDatabaseFile(Exchange.scanOf(child1).getTableId());
+        MorselQueue morsels = new MorselQueue(file.numPages(), MorselQueue.DEFAULT_MORSEL_PAGES);
+        int n = Math.min(workers, morsels.numMorsels());
+        final int field1 = pred.getField1();
+        final AtomicInteger total = new AtomicInteger();
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        final ArrayList<Tuple>[][] lists = new ArrayList[n][PARTITIONS];
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < n; i++) {
+            final ArrayList<Tuple>[] mine = lists[i];
+            final OpIterator pipeline = Exchange.copy(child1, morsels);
+            tasks.add(() -> {
+                for (int p = 0; p < PARTITIONS; p++) {
+                    mine[p] = new ArrayList<Tuple>();
+                }
+                pipeline.open();
+                try {
+                    while (pipeline.hasNext() && total.incrementAndGet() <= maxTuples) {
+                        Tuple t = pipeline.next();
+                        mine[partition(t.getField(field1), 0)].add(t);
+                    }
+                } finally {
+                    pipeline.close();
+                }
+                return null;
+            });
+        }
+        MorselQueue.runAll(tasks);
+        if (total.get() > maxTuples) {
+            return null;
         }
-        return cnt > 0;
 
+        final TupleTable[] built = newTables();
+        final AtomicInteger nextPartition = new AtomicInteger();
+        tasks.clear();
+        for (int i = 0; i < n; i++) {
+            tasks.add(() -> {
+                int p;
+                while ((p = nextPartition.getAndIncrement()) < PARTITIONS) {
+                    for (ArrayList<Tuple>[] mine : lists) {
+                        for (Tuple t : mine[p]) {
+                            built[p].add(t.getField(field1), t);
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        MorselQueue.runAll(tasks);
+        return built;
+    }
+
+    /**
+     * Writes the largest in-memory partition to disk.
+     */
+    private void spillLargest() throws DbException {
+        int p = -1;
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (tables[i] != null && (p < 0 || tables[i].size > tables[p].size)) {
+                p = i;
+            }
+        }
+        buildSpill[p] = new SpillFile(child1.getTupleDesc(), "hashjoin");
+        probeSpill[p] = new SpillFile(child2.getTupleDesc(), "hashjoin");
+        for (int i = 0; i < tables[p].size; i++) {
+            buildSpill[p].add(tables[p].tuples[i]);
+        }
+        resident -= tables[p].size;
+        tables[p] = null;
+    }
+
+    /**
+     * Called when the probe input is exhausted: loads the next chunk, or
+     * queues the spilled partitions and starts on the next one.
+     *
+     * @return false if there is nothing left to join
+     */
+    private boolean finishPass() throws DbException, TransactionAbortedException {
+        if (chunked && buildSrc.hasNext()) {
+            probeSrc.rewind();
+            loadBuild();
+            return true;
+        }
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (buildSpill[i] == null) {
+                continue;
+            }
+            if (buildSpill[i].size() > 0 && probeSpill[i].size() > 0) {
+                pending.add(new Partition(buildSpill[i], probeSpill[i], level + 1));
+            } else {
+                buildSpill[i].delete();
+                probeSpill[i].delete();
+            }
+        }
+        endPass();
+        Partition next = pending.poll();
+        if (next == null) {
+            return false;
+        }
+        current = next;
+        OpIterator build = next.build.iterator();
+        OpIterator probe = next.probe.iterator();
+        build.open();
+        probe.open();
+        startPass(build, probe, next.level);
+        return true;
+    }
+
+    /**
+     * Releases the hash tables, and the inputs if they were spill files.
+     */
+    private void endPass() {
+        tables = null;
+        buildSpill = probeSpill = null;
+        match1 = -1;
+        if (current != null) {
+            buildSrc.close();
+            probeSrc.close();
+            current.build.delete();
+            current.probe.delete();
+            current = null;
+        }
+        buildSrc = probeSrc = null;
+    }
+
+    /**
+     * Deletes all spill files and resets the join to its initial state.
+     */
+    private void reset() {
+        if (probeExchange != null) {
+            probeExchange.close();
+            probeExchange = null;
+        }
+        endPass();
+        if (filteredScan != null) {
+            filteredScan.removeRuntimeFilter(runtimeFilter);
+            filteredScan = null;
+        }
+        runtimeFilter = null;
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.build.delete();
+                p.probe.delete();
+            }
+            pending = null;
+        }
+        started = false;
+        spilled = false;
+        probe = null;
+        match = -1;
+        buildBatches = null;
+        buildKeys = null;
+        buildHeads = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        // child1 is read by whichever of fetchNext and nextBatch runs first
+        reset();
+        batchChild1 = BatchAdapter.of(child1);
+        batchChild2 = BatchAdapter.of(child2);
         super.open();
     }
 
     public void close() {
         super.close();
+        reset();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        reset();
         child1.rewind();
         child2.rewind();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /** The table and index of the next build tuple matching t2, or -1. */
+    private transient TupleTable matchTable;
+    private transient int match1 = -1;
+    private transient boolean started;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -115,8 +539,15 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+        t1 = matchTable.tuples[match1];
+        match1 = matchTable.next[match1];
+        return join(t1, t2);
+    }
 
+    /**
+     * @return the concatenation of t1 and t2
+     */
+    private Tuple join(Tuple t1, Tuple t2) {
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
@@ -127,36 +558,182 @@ public class HashEquiJoin extends Operator {
         for (int i = 0; i < td2n; i++)
             t.setField(td1n + i, t2.getField(i));
         return t;
-
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        if (!started) {
+            started = true;
+            pending = new ArrayDeque<Partition>();
+            if (!startParallel()) {
+                startPass(child1, child2, 0);
+            }
         }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+        if (probeExchange != null) {
+            return probeExchange.hasNext() ? probeExchange.next() : null;
+        }
+        if (probeSrc == null) {
+            // everything has been joined already
+            return null;
+        }
+        while (true) {
+            if (match1 >= 0) {
+                return processList();
+            }
+            if (probeSrc.hasNext()) {
+                t2 = probeSrc.next();
+                Field key = t2.getField(pred.getField2());
+                int p = partition(key, level);
+                if (tables[p] == null) {
+                    probeSpill[p].add(t2);
+                    continue;
+                }
+                matchTable = tables[p];
+                match1 = matchTable.first(key);
                 continue;
-            listIt = l.iterator();
+            }
+            // the probe side is done: move on to the next chunk or partition
+            if (!finishPass()) {
+                return null;
+            }
+        }
+    }
 
-            return processList();
+    // batch mode state. Rows of child1 are copied into buildBatches; buildKeys gives each join key
+    // an id, buildHeads maps the id to the index of its last row, and buildChain links each row to
+    // the previous row with the same key. A row's index is its batch number times the batch
+    // capacity plus its row number.
+    private transient BatchOpIterator batchChild1, batchChild2;
+    private transient ArrayList<TupleBatch> buildBatches;
+    private transient FieldHashTable buildKeys;
+    private transient int[] buildHeads;
+    private transient int[] buildChain;
+    private transient int buildRows;
+    private transient boolean spilled;
+    private transient TupleBatch probe, out;
+    private transient int probePos, match = -1;
 
+    /**
+     * @return the id of the join key in a row, inserting it if insert is
+     * true or returning -1 if it is absent otherwise
+     */
+    private int batchKey(TupleBatch batch, int field, int row, boolean insert) {
+        if (buildKeys instanceof IntHashTable) {
+            IntHashTable ints = (IntHashTable) buildKeys;
+            int key = batch.getInt(field, row);
+            return insert ? ints.insert(key) : ints.find(key);
         }
+        Field key = batch.getField(field, row);
+        return insert ? buildKeys.insert(key) : buildKeys.find(key);
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Batch mode version of loadBuild: copies the rows of child1 into the
+     * build batches and indexes them by join key.
+     *
+     * @return false if child1 has more than maxTuples rows
+     */
+    private boolean loadBuildBatches() throws DbException, TransactionAbortedException {
+        buildBatches = new ArrayList<TupleBatch>();
+        buildKeys = FieldHashTable.create(child1.getTupleDesc().getFieldType(pred.getField1()));
+        buildHeads = new int[TupleBatch.DEFAULT_CAPACITY];
+        buildChain = new int[TupleBatch.DEFAULT_CAPACITY];
+        buildRows = 0;
+        int capacity = TupleBatch.DEFAULT_CAPACITY;
+        TupleBatch batch;
+        while ((batch = batchChild1.nextBatch()) != null) {
+            if (buildRows + batch.size() > maxTuples) {
+                return false;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                int idx = buildRows++;
+                if (idx / capacity == buildBatches.size()) {
+                    buildBatches.add(new TupleBatch(child1.getTupleDesc(), capacity));
+                }
+                TupleBatch dst = buildBatches.get(idx / capacity);
+                int row = batch.row(i);
+                dst.addRow(batch, row);
+                if (idx == buildChain.length) {
+                    buildChain = Arrays.copyOf(buildChain, buildChain.length * 2);
+                }
+                int numKeys = buildKeys.size();
+                int id = batchKey(batch, pred.getField1(), row, true);
+                if (id == buildHeads.length) {
+                    buildHeads = Arrays.copyOf(buildHeads, id * 2);
+                }
+                buildChain[idx] = id == numKeys ? -1 : buildHeads[id];
+                buildHeads[id] = idx;
+            }
         }
+        runtimeFilter = new RuntimeFilter(child1.getTupleDesc().getFieldType(pred.getField1()),
+                buildKeys.size());
+        for (int id = 0; id < buildKeys.size(); id++) {
+            if (buildKeys instanceof IntHashTable) {
+                runtimeFilter.add(((IntHashTable) buildKeys).intKey(id));
+            } else {
+                runtimeFilter.add(buildKeys.key(id));
+            }
+        }
+        pushRuntimeFilter();
+        return true;
+    }
 
-        return null;
+    /**
+     * Batch mode version of fetchNext: hashes child1 and probes it with
+     * every batch of child2. If child1 does not fit in memory, rescans it
+     * and runs the hybrid hash join of fetchNext instead.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!started) {
+            started = true;
+            if (!startParallel() && !loadBuildBatches()) {
+                buildBatches = null;
+                buildKeys = null;
+                buildHeads = null;
+                buildChain = null;
+                spilled = true;
+                child1.rewind();
+                pending = new ArrayDeque<Partition>();
+                startPass(child1, child2, 0);
+            }
+        }
+        if (out == null) {
+            out = new TupleBatch(comboTD);
+        }
+        out.clear();
+        if (spilled || probeExchange != null) {
+            // the hybrid hash join and the parallel join produce tuples
+            Tuple t;
+            while (!out.isFull() && (t = fetchNext()) != null) {
+                out.addTuple(t);
+            }
+            return out.size() > 0 ? out : null;
+        }
+        int capacity = TupleBatch.DEFAULT_CAPACITY;
+        while (!out.isFull()) {
+            if (match >= 0) {
+                // emit the next build row matching the current probe row
+                out.addJoined(buildBatches.get(match / capacity), match % capacity,
+                        probe, probe.row(probePos));
+                match = buildChain[match];
+                if (match < 0) {
+                    probePos++;
+                }
+            } else if (probe != null && probePos < probe.size()) {
+                int id = batchKey(probe, pred.getField2(), probe.row(probePos), false);
+                if (id < 0) {
+                    probePos++;
+                } else {
+                    match = buildHeads[id];
+                }
+            } else {
+                probe = batchChild2.nextBatch();
+                probePos = 0;
+                if (probe == null) {
+                    break;
+                }
+            }
+        }
+        return out.size() > 0 ? out : null;
     }
 
     @Override
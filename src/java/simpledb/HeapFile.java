@@ -1,9 +1,8 @@
 package simpledb;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.OpenOption;
-import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
 
 /**
@@ -21,6 +20,22 @@ public class HeapFile implements DbFile {
 
   private TupleDesc td;
 
+  private final DbFileChannel channel;
+
+  private final FreeSpaceMap freeSpaceMap;
+
+  /** Number of pages covered by each memory-mapped window of the file. */
+  static final int PAGES_PER_WINDOW = 256;
+
+  private volatile boolean memoryMapped = false;
+
+  /**
+   * Read-only mappings of consecutive PAGES_PER_WINDOW-page windows of the file, created on
+   * demand while {@link #memoryMapped} is set. The last window may cover fewer pages; it is
+   * remapped once the file grows past it.
+   */
+  private final ArrayList<MappedByteBuffer> windows = new ArrayList<>();
+
 
   /**
    * Constructs a heap file backed by the specified file.
@@ -31,6 +46,8 @@ public class HeapFile implements DbFile {
     // some code goes here
     this.file = f;
     this.td = td;
+    this.channel = new DbFileChannel(f);
+    this.freeSpaceMap = new FreeSpaceMap(this);
     Database.getCatalog().addTable(this);
   }
 
@@ -67,28 +84,111 @@ public class HeapFile implements DbFile {
     return td;
   }
 
+  /**
+   * Turns memory-mapped reads on or off. In mmap mode {@link #readPage} hands each HeapPage a
+   * slice of a read-only mapping of the file rather than a copy of its bytes, which suits tables
+   * that are written once and scanned often. A page copies its bytes onto the heap the first
+   * time it is modified.
+   *
+   * @param memoryMapped true to read pages through mappings of the file
+   */
+  public synchronized void setMemoryMapped(boolean memoryMapped) {
+    this.memoryMapped = memoryMapped;
+    windows.clear();
+  }
+
+  /**
+   * @return true if pages of this file are read through memory mappings
+   */
+  public boolean isMemoryMapped() {
+    return memoryMapped;
+  }
+
+  /**
+   * Returns a slice of the mapping covering the given page, mapping or remapping its window if
+   * needed.
+   *
+   * @return the page bytes, or null if the page lies beyond the end of the file
+   */
+  private synchronized ByteBuffer mappedPage(int pgNo) throws IOException {
+    int pageSize = BufferPool.getPageSize();
+    long windowBytes = (long) PAGES_PER_WINDOW * pageSize;
+    int w = pgNo / PAGES_PER_WINDOW;
+    int offset = (pgNo % PAGES_PER_WINDOW) * pageSize;
+    while (windows.size() <= w) {
+      windows.add(null);
+    }
+    MappedByteBuffer window = windows.get(w);
+    if (window == null || window.capacity() < offset + pageSize) {
+      long start = w * windowBytes;
+      long length = Math.min(windowBytes, channel.size() - start);
+      if (length < offset + pageSize) {
+        return null;
+      }
+      window = channel.map(start, length);
+      windows.set(w, window);
+    }
+    ByteBuffer slice = window.duplicate();
+    slice.position(offset);
+    slice.limit(offset + pageSize);
+    return slice.slice();
+  }
+
   // see DbFile.java for javadocs
   public Page readPage(PageId pid) {
     // some code goes here
+    if (memoryMapped) {
+      try {
+        ByteBuffer mapped = mappedPage(pid.getPageNumber());
+        return mapped == null ? null : newPage((HeapPageId) pid, mapped);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+    byte[] bytes = new byte[BufferPool.getPageSize()];
     try {
-      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-      randomAccessFile.seek(pid.getPageNumber() * BufferPool.getPageSize());
-      byte[] bytes = new byte[BufferPool.getPageSize()];
-      randomAccessFile.readFully(bytes);
-      return new HeapPage((HeapPageId) pid, bytes);
+      if (!channel.read(bytes, (long) pid.getPageNumber() * BufferPool.getPageSize())) {
+        return null;
+      }
+      return newPage((HeapPageId) pid, ByteBuffer.wrap(bytes));
     } catch (IOException e) {
     }
     return null;
   }
 
+  private HeapPage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+    HeapPage page = new HeapPage(pid, data);
+    page.setFreeSpaceMap(freeSpaceMap);
+    return page;
+  }
+
   // see DbFile.java for javadocs
   public void writePage(Page page) throws IOException {
     // some code goes here
     // not necessary for lab1
-    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "wr");
-    randomAccessFile.seek(page.getId().getPageNumber() * BufferPool.getPageSize());
-    randomAccessFile.write(page.getPageData());
-    randomAccessFile.close();
+    long offset = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+    if (page instanceof HeapPage) {
+      // write straight from the page's buffer rather than a copy of it
+      channel.write(((HeapPage) page).pageData(), offset);
+    } else {
+      channel.write(page.getPageData(), offset);
+    }
+  }
+
+  // see DbFile.java for javadocs
+  public void close() throws IOException {
+    freeSpaceMap.save();
+    channel.close();
+  }
+
+  /**
+   * Closes this file and deletes it from disk, along with its free-space map. The table should
+   * already have been removed from the catalog, e.g. by {@link Catalog#removeTable}.
+   */
+  public void drop() throws IOException {
+    freeSpaceMap.delete();
+    channel.close();
+    file.delete();
   }
 
   /**
@@ -107,20 +207,28 @@ public class HeapFile implements DbFile {
     if (t ==null){
       return null;
     }
-    int pageSize = numPages();
-    for (int i = 0; i < pageSize; i++) {
-      HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_ONLY);
-      if(page ==null){
-        continue;
-      }
-      if(page.getNumEmptySlots() >0){
+    // only visit pages the free-space map says may have room; the page itself has the final say
+    int pgNo;
+    while ((pgNo = freeSpaceMap.firstFree()) >= 0) {
+      HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgNo), Permissions.READ_ONLY);
+      if (page != null && page.getNumEmptySlots() > 0) {
         page.insertTuple(t);
         return new ArrayList<>(Collections.singleton(page));
       }
+      freeSpaceMap.setFree(pgNo, false);
     }
 
-    Files.write(file.toPath(),new byte[BufferPool.getPageSize()], StandardOpenOption.APPEND);
-    HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pageSize), Permissions.READ_ONLY);
+    int newPgNo = Math.toIntExact(channel.append(HeapPage.createEmptyPageData()) / BufferPool.getPageSize());
+    if (memoryMapped) {
+      synchronized (this) {
+        // the window holding the new page, if mapped, ends before it
+        int w = newPgNo / PAGES_PER_WINDOW;
+        if (w < windows.size()) {
+          windows.set(w, null);
+        }
+      }
+    }
+    HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), newPgNo), Permissions.READ_ONLY);
     heapPage.insertTuple(t);
     return new ArrayList<>(Collections.singleton(heapPage));
   }
@@ -151,61 +259,98 @@ public class HeapFile implements DbFile {
   // see DbFile.java for javadocs
   public DbFileIterator iterator(TransactionId tid) {
     // some code goes here
+    return iterator(tid, 0, -1);
+  }
 
+  /**
+   * Returns an iterator over the tuples of a range of pages, so that several threads can scan
+   * disjoint parts of the file.
+   *
+   * @param firstPage the number of the first page to read
+   * @param endPage   the number of the page after the last one to read, or -1 to read up to the
+   *                  end of the file as it is when the iterator is opened
+   */
+  public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
     return new DbFileIterator() {
 
-      int pages = numPages();
-      int curPage = 0;
-      HeapPageId curPageId;
-      Iterator<Tuple> iterator ;
+      int pages;
+      int curPage;
+      HeapPage page;
+      int slot;
+      ReadAhead readAhead;
+      List<RuntimeFilter> filters;
 
       @Override
       public void open() throws DbException, TransactionAbortedException {
-        curPage = 0;
-        curPageId = new HeapPageId(getId(), curPage);
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, curPageId, null);
+        pages = endPage < 0 ? numPages() : Math.min(endPage, numPages());
+        curPage = firstPage - 1;
+        page = null;
+        readAhead = new ReadAhead(getId(), pages);
+      }
 
-        if(heapPage !=null){
-          iterator = heapPage.iterator();
+      /**
+       * Moves on to the next page, fetching it through the buffer pool after letting the
+       * read-ahead issue reads for the pages that follow it.
+       *
+       * @return false if there are no more pages
+       */
+      private boolean nextPage() throws DbException, TransactionAbortedException {
+        page = null;
+        while (page == null) {
+          if (readAhead == null || curPage + 1 >= pages) {
+            return false;
+          }
+          curPage++;
+          readAhead.advance(curPage);
+          page = (HeapPage) Database.getBufferPool()
+              .getPage(tid, new HeapPageId(getId(), curPage), Permissions.READ_ONLY);
         }
+        slot = 0;
+        return true;
+      }
+
+      @Override
+      public boolean setRuntimeFilters(List<RuntimeFilter> filters) {
+        this.filters = filters;
+        return true;
       }
 
       @Override
       public boolean hasNext() throws DbException, TransactionAbortedException {
-        if (pages <= 0 || curPage >= pages || curPageId == null) {
-          return false;
-        }
-        if(iterator.hasNext()){
-          return true;
-        }
-        if(curPage + 1 >=pages){
-          return false;
+        while (true) {
+          if (page == null || (slot = page.nextUsedSlot(slot)) >= page.numSlots) {
+            if (!nextPage()) {
+              return false;
+            }
+          } else if (filters == null || filters.isEmpty() || page.mightMatch(slot, filters)) {
+            return true;
+          } else {
+            slot++;
+          }
         }
-        HeapPageId pageId = new HeapPageId(getId(),curPage +1);
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, null);
-        return heapPage.iterator().hasNext();
       }
 
       @Override
       public Tuple next()
           throws DbException, TransactionAbortedException, NoSuchElementException {
-        if (curPageId == null) {
+        if (!hasNext()) {
           throw new NoSuchElementException();
         }
-        if(iterator.hasNext()){
-          return iterator.next();
-        }
-        if(curPage + 1 >=pages){
-          throw new NoSuchElementException();
-        }
-        curPage ++;
-        HeapPageId pageId = new HeapPageId(getId(),curPage);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, null);
-        iterator = page.iterator();
-        if(iterator.hasNext()){
-          return iterator.next();
+        return page.tupleAt(slot++);
+      }
+
+      @Override
+      public boolean fillBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        int before = batch.size();
+        while (!batch.isFull()) {
+          if (page == null || slot >= page.numSlots) {
+            if (!nextPage()) {
+              break;
+            }
+          }
+          slot = page.fillBatch(slot, batch, filters);
         }
-        throw new NoSuchElementException();
+        return batch.size() > before;
       }
 
       @Override
@@ -216,8 +361,11 @@ public class HeapFile implements DbFile {
 
       @Override
       public void close() {
-        curPage = 0;
-        curPageId = null;
+        page = null;
+        if (readAhead != null) {
+          readAhead.close();
+          readAhead = null;
+        }
       }
     };
   }
@@ -2,9 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
-import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and implements the Page interface
@@ -17,12 +15,30 @@ public class HeapPage implements Page {
 
   final HeapPageId pid;
   final TupleDesc td;
-  final byte header[];
-  final Tuple tuples[];
   final int numSlots;
+  private final int headerSize;
+  private final int tupleSize;
+  /** Offset of each field from the start of its slot. */
+  private final int fieldOffsets[];
   private boolean dirty ;
   private  TransactionId transactionId;
 
+  /**
+   * The serialized page, which is the only copy of the header and the tuples: both are read from
+   * it by offset and mutations are written through to it. It is either an on-heap buffer or a frame lent by the
+   * {@link BufferPool}'s {@link FrameArena}, between {@link #moveToFrame} and {@link #releaseFrame},
+   * or a read-only slice of a memory-mapped {@link HeapFile}, until the page is first modified.
+   */
+  private ByteBuffer data;
+  private boolean inFrame;
+
+  /** The free-space map of the file this page was read from, or null. */
+  private FreeSpaceMap freeSpaceMap;
+
+  /**
+   * The before image, or null while it is still identical to the page itself; it is only copied
+   * out on the first modification after {@link #setBeforeImage}.
+   */
   byte[] oldData;
   private final Byte oldDataLock = new Byte((byte) 0);
 
@@ -37,33 +53,40 @@ public class HeapPage implements Page {
    * <p>
    * ceiling(no. tuple slots / 8)
    * <p>
+   * Nothing is decoded here; header bits and fields are read from the page bytes when asked for,
+   * and a {@link Tuple} is only built for a slot when one is requested.
    *
    * @see Database#getCatalog
    * @see Catalog#getTupleDesc
    * @see BufferPool#getPageSize()
    */
   public HeapPage(HeapPageId id, byte[] data) throws IOException {
+    this(id, ByteBuffer.wrap(data.clone()));
+  }
+
+  /**
+   * Create a HeapPage that takes ownership of a buffer holding the page bytes.
+   *
+   * @param id   the id of this page
+   * @param data a buffer of exactly {@link BufferPool#getPageSize()} bytes, either on heap or a
+   *             read-only memory mapping
+   */
+  HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
     this.pid = id;
     this.td = Database.getCatalog().getTupleDesc(id.getTableId());
     this.numSlots = getNumTuples();
-    DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-    // allocate and read the header slots of this page
-    header = new byte[getHeaderSize()];
-    for (int i = 0; i < header.length; i++) {
-      header[i] = dis.readByte();
+    this.headerSize = getHeaderSize();
+    this.tupleSize = td.getSize();
+    this.fieldOffsets = new int[td.numFields()];
+    for (int j = 1; j < fieldOffsets.length; j++) {
+      fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
     }
-
-    tuples = new Tuple[numSlots];
-    try {
-      // allocate and read the actual records of this page
-      for (int i = 0; i < tuples.length; i++) {
-        tuples[i] = readNextTuple(dis, i);
-      }
-    } catch (NoSuchElementException e) {
-      e.printStackTrace();
+    if (data.capacity() != BufferPool.getPageSize()) {
+      throw new IOException("page data is " + data.capacity() + " bytes, expected "
+          + BufferPool.getPageSize());
     }
-    dis.close();
+    this.data = data;
+    this.inFrame = false;
 
     setBeforeImage();
   }
@@ -103,6 +126,9 @@ public class HeapPage implements Page {
       synchronized (oldDataLock) {
         oldDataRef = oldData;
       }
+      if (oldDataRef == null) {
+        return new HeapPage(pid, getPageData());
+      }
       return new HeapPage(pid, oldDataRef);
     } catch (IOException e) {
       e.printStackTrace();
@@ -114,8 +140,30 @@ public class HeapPage implements Page {
 
   public void setBeforeImage() {
     synchronized (oldDataLock) {
-      oldData = getPageData().clone();
+      oldData = null;
+    }
+  }
+
+  /**
+   * Called before every modification: snapshot the before image if the page still matches it, and
+   * copy a page that reads from a read-only mapping onto the heap.
+   */
+  private void prepareWrite() {
+    synchronized (oldDataLock) {
+      if (oldData == null) {
+        oldData = getPageData();
+      }
     }
+    if (data.isReadOnly()) {
+      data = ByteBuffer.wrap(getPageData());
+    }
+  }
+
+  /**
+   * Makes this page report to the given map whenever it fills up or a slot is freed.
+   */
+  void setFreeSpaceMap(FreeSpaceMap freeSpaceMap) {
+    this.freeSpaceMap = freeSpaceMap;
   }
 
   /**
@@ -127,109 +175,186 @@ public class HeapPage implements Page {
   }
 
   /**
-   * Suck up tuples from the source file.
+   * Builds a tuple from the given slot of the page bytes. Every call returns a new Tuple.
+   *
+   * @return the tuple, or null if the slot is empty
    */
-  private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-    // if associated bit is not set, read forward to the next tuple, and
-    // return null.
+  synchronized Tuple tupleAt(int slotId) {
     if (!isSlotUsed(slotId)) {
-      for (int i = 0; i < td.getSize(); i++) {
-        try {
-          dis.readByte();
-        } catch (IOException e) {
-          throw new NoSuchElementException("error reading empty tuple");
-        }
-      }
       return null;
     }
-
-    // read fields in the tuple
     Tuple t = new Tuple(td);
-    RecordId rid = new RecordId(pid, slotId);
-    t.setRecordId(rid);
-    try {
-      for (int j = 0; j < td.numFields(); j++) {
-        Field f = td.getFieldType(j).parse(dis);
-        t.setField(j, f);
-      }
-    } catch (java.text.ParseException e) {
-      e.printStackTrace();
-      throw new NoSuchElementException("parsing error!");
+    t.setRecordId(new RecordId(pid, slotId));
+    int offset = slotOffset(slotId);
+    for (int j = 0; j < fieldOffsets.length; j++) {
+      t.setField(j, td.getFieldType(j).parse(data, offset + fieldOffsets[j]));
     }
-
     return t;
   }
 
   /**
-   * Generates a byte array representing the contents of this page. Used to serialize this page to
-   * disk.
-   * <p>
-   * The invariant here is that it should be possible to pass the byte array generated by
-   * getPageData to the HeapPage constructor and have it produce an identical HeapPage object.
-   *
-   * @return A byte array correspond to the bytes of this page.
-   * @see #HeapPage
+   * @return the first used slot at or after slot, or numSlots if there is none
    */
-  public byte[] getPageData() {
-    int len = BufferPool.getPageSize();
-    ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-    DataOutputStream dos = new DataOutputStream(baos);
-
-    // create the header of the page
-    for (int i = 0; i < header.length; i++) {
-      try {
-        dos.writeByte(header[i]);
-      } catch (IOException e) {
-        // this really shouldn't happen
-        e.printStackTrace();
-      }
+  synchronized int nextUsedSlot(int slot) {
+    while (slot < numSlots && !isSlotUsed(slot)) {
+      slot++;
     }
+    return slot;
+  }
 
-    // create the tuples
-    for (int i = 0; i < tuples.length; i++) {
-
-      // empty slot
-      if (!isSlotUsed(i)) {
-        for (int j = 0; j < td.getSize(); j++) {
-          try {
-            dos.writeByte(0);
-          } catch (IOException e) {
-            e.printStackTrace();
-          }
+  /**
+   * @return true if every filter in filters might match the key it is on in the given used slot
+   */
+  synchronized boolean mightMatch(int slot, List<RuntimeFilter> filters) {
+    for (int i = 0; i < filters.size(); i++) {
+      RuntimeFilter f = filters.get(i);
+      int field = f.getField();
+      boolean match = td.getFieldType(field) == Type.INT_TYPE
+          ? f.mightContain(getIntField(slot, field))
+          : f.mightContain(getField(slot, field));
+      if (!match) {
+        return false;
+      }
+    }
+    return true;
+  }
 
-        }
+  /**
+   * Appends the tuples in the used slots from slot onwards to batch until it is full, decoding
+   * INT_TYPE fields straight into its int vectors. Tuples that a filter in filters rejects are
+   * skipped without being decoded.
+   *
+   * @param filters the runtime filters to apply, or null
+   * @return the first slot not looked at, or numSlots if the page was finished
+   */
+  synchronized int fillBatch(int slot, TupleBatch batch, List<RuntimeFilter> filters) {
+    boolean filter = filters != null && !filters.isEmpty();
+    for (; slot < numSlots && !batch.isFull(); slot++) {
+      if (!isSlotUsed(slot) || (filter && !mightMatch(slot, filters))) {
         continue;
       }
-
-      // non-empty slot
-      for (int j = 0; j < td.numFields(); j++) {
-        Field f = tuples[i].getField(j);
-        try {
-          f.serialize(dos);
-
-        } catch (IOException e) {
-          e.printStackTrace();
+      int row = batch.addRow();
+      int offset = slotOffset(slot);
+      for (int j = 0; j < fieldOffsets.length; j++) {
+        Type type = td.getFieldType(j);
+        if (type == Type.INT_TYPE) {
+          batch.setInt(j, row, data.getInt(offset + fieldOffsets[j]));
+        } else {
+          batch.setField(j, row, type.parse(data, offset + fieldOffsets[j]));
         }
       }
+      batch.setRecordId(row, pid, slot);
     }
+    return slot;
+  }
 
-    // padding
-    int zerolen = BufferPool.getPageSize() - (header.length
-        + td.getSize() * tuples.length); //- numSlots * td.getSize();
-    byte[] zeroes = new byte[zerolen];
-    try {
-      dos.write(zeroes, 0, zerolen);
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Reads a single field of a used slot without building a Tuple.
+   *
+   * @param slotId     a slot for which {@link #isSlotUsed} is true
+   * @param fieldIndex the index of the field in the page's TupleDesc
+   */
+  synchronized Field getField(int slotId, int fieldIndex) {
+    return td.getFieldType(fieldIndex).parse(data, slotOffset(slotId) + fieldOffsets[fieldIndex]);
+  }
+
+  /**
+   * Reads a single INT_TYPE field of a used slot without allocating.
+   *
+   * @param slotId     a slot for which {@link #isSlotUsed} is true
+   * @param fieldIndex the index of an INT_TYPE field in the page's TupleDesc
+   */
+  synchronized int getIntField(int slotId, int fieldIndex) {
+    return data.getInt(slotOffset(slotId) + fieldOffsets[fieldIndex]);
+  }
+
+  /**
+   * @return the offset of the first byte of the given slot in the page
+   */
+  private int slotOffset(int slotId) {
+    return headerSize + slotId * tupleSize;
+  }
+
+  /**
+   * Overwrites a slot of the page bytes with the given tuple, or with zeroes if t is null.
+   */
+  private void writeSlot(int slotId, Tuple t) {
+    int offset = slotOffset(slotId);
+    if (t == null) {
+      for (int j = 0; j < tupleSize; j++) {
+        data.put(offset + j, (byte) 0);
+      }
+      return;
     }
+    for (int j = 0; j < fieldOffsets.length; j++) {
+      td.getFieldType(j).write(t.getField(j), data, offset + fieldOffsets[j]);
+    }
+  }
 
-    try {
-      dos.flush();
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * @return true if the page bytes are held in an ordinary heap buffer, rather than in an arena
+   * frame or a memory mapping
+   */
+  synchronized boolean isOnHeap() {
+    return !data.isDirect();
+  }
+
+  /**
+   * Copy this page into a frame of the buffer pool's arena and keep it there, dropping the
+   * on-heap copy.
+   *
+   * @param frame a cleared buffer of {@link BufferPool#getPageSize()} bytes
+   */
+  synchronized void moveToFrame(ByteBuffer frame) {
+    ByteBuffer src = data.duplicate();
+    src.clear();
+    frame.clear();
+    frame.put(src);
+    frame.clear();
+    data = frame;
+    inFrame = true;
+  }
+
+  /**
+   * If this page lives in a frame of the buffer pool's arena, copy it onto the heap and hand
+   * the frame back. Anyone still holding the page keeps seeing the same contents.
+   *
+   * @return the frame the page occupied, or null if it was already on heap
+   */
+  synchronized ByteBuffer releaseFrame() {
+    if (!inFrame) {
+      return null;
     }
+    ByteBuffer frame = data;
+    data = ByteBuffer.wrap(getPageData());
+    inFrame = false;
+    return frame;
+  }
+
+  /**
+   * Generates a byte array representing the contents of this page. Used to serialize this page to
+   * disk.
+   * <p>
+   * The invariant here is that it should be possible to pass the byte array generated by
+   * getPageData to the HeapPage constructor and have it produce an identical HeapPage object.
+   *
+   * @return A byte array correspond to the bytes of this page.
+   * @see #HeapPage
+   */
+  public synchronized byte[] getPageData() {
+    byte[] bytes = new byte[BufferPool.getPageSize()];
+    pageData().get(bytes);
+    return bytes;
+  }
 
-    return baos.toByteArray();
+  /**
+   * Like {@link #getPageData}, but returns a read-only view of the page bytes instead of a copy.
+   * The view is only stable while the caller keeps other threads from modifying the page.
+   */
+  synchronized ByteBuffer pageData() {
+    ByteBuffer view = data.asReadOnlyBuffer();
+    view.clear();
+    return view;
   }
 
   /**
@@ -251,7 +376,7 @@ public class HeapPage implements Page {
    * @param t The tuple to delete
    * @throws DbException if this tuple is not on this page, or tuple slot is already empty.
    */
-  public void deleteTuple(Tuple t) throws DbException {
+  public synchronized void deleteTuple(Tuple t) throws DbException {
     // some code goes here
     // not necessary for lab1
     if(t ==null){
@@ -262,8 +387,12 @@ public class HeapPage implements Page {
     }
     int slotId = t.getRecordId().getTupleNumber();
     if (isSlotUsed(slotId)){
+      prepareWrite();
       markSlotUsed(slotId, false);
-      tuples[slotId] = null;
+      writeSlot(slotId, null);
+      if (freeSpaceMap != null) {
+        freeSpaceMap.setFree(pid.getPageNumber(), true);
+      }
       return;
     }
     throw new DbException("this tuple is not on this page, or tuple slot is already empty");
@@ -276,7 +405,7 @@ public class HeapPage implements Page {
    * @param t The tuple to add.
    * @throws DbException if the page is full (no empty slots) or tupledesc is mismatch.
    */
-  public void insertTuple(Tuple t) throws DbException {
+  public synchronized void insertTuple(Tuple t) throws DbException {
     // some code goes here
     // not necessary for lab1
     if(t ==null){
@@ -284,9 +413,13 @@ public class HeapPage implements Page {
     }
     for (int i = 0; i < numSlots; i++) {
       if(!isSlotUsed(i)){
+        prepareWrite();
         markSlotUsed(i, true);
         t.setRecordId(new RecordId(pid, i));
-        tuples[i] = t;
+        writeSlot(i, t);
+        if (freeSpaceMap != null && getNumEmptySlots() == 0) {
+          freeSpaceMap.setFree(pid.getPageNumber(), false);
+        }
         return;
       }
     }
@@ -317,26 +450,29 @@ public class HeapPage implements Page {
   /**
    * Returns the number of empty slots on this page.
    */
-  public int getNumEmptySlots() {
+  public synchronized int getNumEmptySlots() {
     // some code goes here
-    int emptySlotNum = 0;
-    for (int i = 0; i < numSlots; i++) {
-      if(!isSlotUsed(i)){
-        emptySlotNum ++;
+    int used = 0;
+    for (int i = 0; i < numSlots / 8; i++) {
+      used += Integer.bitCount(data.get(i) & 0xff);
+    }
+    for (int i = numSlots / 8 * 8; i < numSlots; i++) {
+      if (isSlotUsed(i)) {
+        used++;
       }
     }
-   return emptySlotNum;
+    return numSlots - used;
   }
 
   /**
    * Returns true if associated slot on this page is filled.
    */
-  public boolean isSlotUsed(int i) {
+  public synchronized boolean isSlotUsed(int i) {
     // some code goes here
     if(i >=numSlots){
       return false;
     }
-    byte b = this.header[i/8];
+    byte b = data.get(i/8);
     return ((b >> (i%8)) & 1) == 1;
 
   }
@@ -350,14 +486,14 @@ public class HeapPage implements Page {
     if (i >= this.numSlots) {
       return;
     }
-    byte b = header[i/8];
+    byte b = data.get(i/8);
     if (value){
       b = (byte) ((1 << (i %8)) | b);
     }
     else {
       b = (byte) (~(1 << (i %8)) & b);
     }
-    header[i/8] = b;
+    data.put(i/8, b);
   }
 
   /**
@@ -368,22 +504,29 @@ public class HeapPage implements Page {
   public Iterator<Tuple> iterator() {
     // some code goes here
 
-    class HeapPageIterator<T> implements Iterator<simpledb.Tuple> {
+    class HeapPageIterator implements Iterator<Tuple> {
 
-      private Iterator<Tuple> iterator;
+      private int nextSlot = advance(0);
 
-      public HeapPageIterator(Iterator<Tuple> iterator) {
-        this.iterator = iterator;
+      private int advance(int slot) {
+        while (slot < numSlots && !isSlotUsed(slot)) {
+          slot++;
+        }
+        return slot;
       }
 
       @Override
       public boolean hasNext() {
-        return iterator.hasNext();
+        return nextSlot < numSlots;
       }
 
       @Override
       public Tuple next() {
-        Tuple tuple = iterator.next();
+        if (nextSlot >= numSlots) {
+          throw new NoSuchElementException();
+        }
+        Tuple tuple = tupleAt(nextSlot);
+        nextSlot = advance(nextSlot + 1);
         return tuple;
       }
 
@@ -391,18 +534,7 @@ public class HeapPage implements Page {
       public void remove() {
         throw new UnsupportedOperationException();
       }
-
-      @Override
-      public void forEachRemaining(Consumer<? super Tuple> action) {
-        iterator.forEachRemaining(action);
-      }
     }
-    return new HeapPageIterator<Tuple>(
-        IntStream.range(0, tuples.length).filter(this::isSlotUsed).mapToObj(index -> tuples[index])
-            .collect(
-                Collectors.toList()).iterator());
-
-
+    return new HeapPageIterator();
   }
 }
-
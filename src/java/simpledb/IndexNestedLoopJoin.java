@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins child1 with a table stored in a BTreeFile keyed
+ * on the join field by looking up each tuple of child1 in the index, instead
+ * of scanning the table once per tuple.
+ * <p>
+ * child2 describes the inner table: a SeqScan of the B+ tree file, possibly
+ * under Filters, which are applied to the tuples the lookups return (see
+ * {@link #canProbe}). child2 itself is never opened.
+ * <p>
+ * child1 is read in batches, and each batch is sorted on the join key so
+ * that successive lookups descend to the same or the next leaf pages, which
+ * are then still in the buffer pool. Tuples of child1 sharing a key share
+ * one lookup.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of tuples of child1 sorted together. */
+    public static final int BATCH_SIZE = TupleBatch.DEFAULT_CAPACITY;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final TransactionId tid;
+    private final BTreeFile index;
+    private final ArrayList<Predicate> residual = new ArrayList<Predicate>();
+
+    private transient ArrayList<Tuple> outerBatch;
+    private transient int outerPos;
+    private transient Tuple outer;
+    private transient Field probeKey;
+    private transient ArrayList<Tuple> matches;
+    private transient int matchPos;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The right(inner) relation; must pass {@link #canProbe}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canProbe(child2, p.getField2(), p.getOperator())) {
+            throw new IllegalArgumentException("no B+ tree index on the join field of child2");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        OpIterator it = child2;
+        while (it instanceof Filter) {
+            residual.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        SeqScan scan = (SeqScan) it;
+        this.tid = scan.getTransactionId();
+        this.index = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+    }
+
+    /**
+     * Returns true if it can be the inner side of an IndexNestedLoopJoin on
+     * the given field: it is a SeqScan, possibly under Filters, of a
+     * BTreeFile whose key is that field, and op is a comparison the index can
+     * answer.
+     */
+    public static boolean canProbe(OpIterator it, int field, Predicate.Op op) {
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE) {
+            return false;
+        }
+        while (it instanceof Filter) {
+            it = ((Filter) it).getChildren()[0];
+        }
+        if (!(it instanceof SeqScan)) {
+            return false;
+        }
+        DbFile f;
+        try {
+            f = Database.getCatalog().getDatabaseFile(((SeqScan) it).getTableId());
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    /**
+     * @return the operator op such that inner.key op outer.key holds exactly
+     * when the join predicate outer.key joinOp inner.key does
+     */
+    private static Predicate.Op flip(Predicate.Op joinOp) {
+        switch (joinOp) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return joinOp;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        outerBatch = new ArrayList<Tuple>();
+        outerPos = 0;
+        outer = null;
+        probeKey = null;
+        matches = new ArrayList<Tuple>();
+        matchPos = 0;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        outerBatch = null;
+        matches = null;
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        reset();
+    }
+
+    /**
+     * Reads the next batch of child1 and sorts it on the join key.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean loadOuter() throws DbException, TransactionAbortedException {
+        outerBatch.clear();
+        outerPos = 0;
+        while (outerBatch.size() < BATCH_SIZE && child1.hasNext()) {
+            outerBatch.add(child1.next());
+        }
+        new TupleComparator(pred.getField1(), true).sort(outerBatch);
+        return !outerBatch.isEmpty();
+    }
+
+    /**
+     * Looks up the tuples of the inner table matching key.
+     */
+    private void probe(Field key) throws DbException, TransactionAbortedException {
+        matches.clear();
+        DbFileIterator it = index.indexIterator(tid, new IndexPredicate(flip(pred.getOperator()), key));
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                boolean keep = true;
+                for (Predicate p : residual) {
+                    if (!p.filter(t)) {
+                        keep = false;
+                        break;
+                    }
+                }
+                if (keep) {
+                    matches.add(t);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        probeKey = key;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the next tuple of the join: the current tuple of child1 paired
+     * with each of its matches in the index in turn.
+     *
+     * @return The next matching tuple, or null if there are no more.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && matchPos < matches.size()) {
+                return merge(outer, matches.get(matchPos++));
+            }
+            if (outerPos == outerBatch.size() && !loadOuter()) {
+                return null;
+            }
+            outer = outerBatch.get(outerPos++);
+            Field key = outer.getField(pred.getField1());
+            if (probeKey == null || !probeKey.equals(key)) {
+                probe(key);
+            }
+            matchPos = 0;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * FieldHashTable for INT_TYPE keys, with an open-addressing table of
+ * primitive ints and linear probing. The int methods let callers that hold
+ * unboxed values, like batch operators, skip the IntField altogether.
+ */
+public class IntHashTable implements FieldHashTable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Key of each slot, valid where slotIds is not -1. */
+    private int[] slotKeys;
+    /** Id of the key in each slot, or -1 for an empty slot. */
+    private int[] slotIds;
+    private int mask;
+    /** Key of each id. */
+    private int[] keys;
+    private int size;
+
+    public IntHashTable() {
+        allocate(INITIAL_CAPACITY);
+        keys = new int[INITIAL_CAPACITY / 2];
+    }
+
+    private void allocate(int capacity) {
+        slotKeys = new int[capacity];
+        slotIds = new int[capacity];
+        Arrays.fill(slotIds, -1);
+        mask = capacity - 1;
+    }
+
+    /** Spreads the bits of key so that runs of nearby keys do not cluster. */
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the id of key, or -1 if it is not in the table
+     */
+    public int find(int key) {
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int id = slotIds[slot];
+            if (id < 0 || slotKeys[slot] == key) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return the id of key, which is added to the table if it is not in it yet
+     */
+    public int insert(int key) {
+        int slot = hash(key) & mask;
+        for (; slotIds[slot] >= 0; slot = (slot + 1) & mask) {
+            if (slotKeys[slot] == key) {
+                return slotIds[slot];
+            }
+        }
+        int id = size++;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[id] = key;
+        slotKeys[slot] = key;
+        slotIds[slot] = id;
+        if (size * 2 > slotIds.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        allocate(slotIds.length * 2);
+        for (int id = 0; id < size; id++) {
+            int slot = hash(keys[id]) & mask;
+            while (slotIds[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            slotKeys[slot] = keys[id];
+            slotIds[slot] = id;
+        }
+    }
+
+    /**
+     * @return the key with the given id
+     */
+    public int intKey(int id) {
+        return keys[id];
+    }
+
+    public int find(Field key) {
+        return find(((IntField) key).getValue());
+    }
+
+    public int insert(Field key) {
+        return insert(((IntField) key).getValue());
+    }
+
+    public Field key(int id) {
+        return new IntField(keys[id]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(slotIds, -1);
+            size = 0;
+        }
+    }
+}
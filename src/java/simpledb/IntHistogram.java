@@ -4,24 +4,41 @@ package simpledb;
  */
 public class IntHistogram {
 
+    private final int min;
+    private final int max;
+    /** The width of every bucket, at least one value. */
+    private final double width;
+    private final int[] counts;
+    private int total;
+
     /**
      * Create a new IntHistogram.
-     * 
+     *
      * This IntHistogram should maintain a histogram of integer values that it receives.
      * It should split the histogram into "buckets" buckets.
-     * 
+     *
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
+     *
      * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
+     * constant with respect to the number of values being histogrammed.  For example, you shouldn't
      * simply store every value that you see in a sorted list.
-     * 
+     *
      * @param buckets The number of buckets to split the input value into.
      * @param min The minimum integer value that will ever be passed to this class for histogramming
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        this.min = min;
+        this.max = max;
+        double range = (double) max - min + 1;
+        int n = (int) Math.max(1, Math.min(buckets, range));
+        this.width = range / n;
+        this.counts = new int[n];
+    }
+
+    /** @return the bucket v falls in; v must be within min and max */
+    private int bucket(int v) {
+        return Math.min(counts.length - 1, (int) ((v - (double) min) / width));
     }
 
     /**
@@ -29,44 +46,112 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        if (v < min || v > max) {
+            return;
+        }
+        counts[bucket(v)]++;
+        total++;
+    }
+
+    /** @return the fraction of the values that are greater than v */
+    private double greaterThan(int v) {
+        if (v < min) {
+            return 1.0;
+        }
+        if (v >= max) {
+            return 0.0;
+        }
+        int b = bucket(v);
+        // the part of v's bucket above v, assuming its values are spread
+        // evenly, plus the buckets above it
+        double right = min + (b + 1) * width;
+        double above = counts[b] * ((right - v - 1) / width);
+        for (int i = b + 1; i < counts.length; i++) {
+            above += counts[i];
+        }
+        return above / total;
+    }
+
+    /** @return the fraction of the values that are equal to v */
+    private double equalTo(int v) {
+        if (v < min || v > max) {
+            return 0.0;
+        }
+        return counts[bucket(v)] / Math.max(1.0, width) / total;
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
-
-    	// some code goes here
-        return -1.0;
+        if (total == 0) {
+            return 0.0;
+        }
+        double s;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            s = equalTo(v);
+            break;
+        case NOT_EQUALS:
+            s = 1.0 - equalTo(v);
+            break;
+        case GREATER_THAN:
+            s = greaterThan(v);
+            break;
+        case GREATER_THAN_OR_EQ:
+            s = greaterThan(v) + equalTo(v);
+            break;
+        case LESS_THAN:
+            s = 1.0 - greaterThan(v) - equalTo(v);
+            break;
+        case LESS_THAN_OR_EQ:
+            s = 1.0 - greaterThan(v);
+            break;
+        default:
+            s = 1.0;
+        }
+        return Math.max(0.0, Math.min(1.0, s));
     }
-    
+
     /**
      * @return
      *     the average selectivity of this histogram.
-     *     
+     *
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
      *     implement a more efficient optimization
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        if (total == 0) {
+            return 1.0;
+        }
+        // the selectivity of an equality with a value drawn from the data
+        double s = 0;
+        for (int c : counts) {
+            s += (double) c / total * (c / Math.max(1.0, width) / total);
+        }
+        return s;
     }
-    
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder();
+        sb.append("IntHistogram[").append(min).append(", ").append(max)
+                .append("], ").append(total).append(" values:");
+        for (int i = 0; i < counts.length; i++) {
+            sb.append(' ').append(counts[i]);
+        }
+        return sb.toString();
     }
 }
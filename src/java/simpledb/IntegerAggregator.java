@@ -1,11 +1,6 @@
 package simpledb;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
@@ -18,8 +13,15 @@ public class IntegerAggregator implements Aggregator {
   private Type gbfieldType;
   private int aggregationField;
   private Op op;
-  Map<Field, Integer> integerAggregatorMap = new HashMap<>();
-  Map<Field, Integer> counterMap = new HashMap<>();
+  /** Group ids by group-by value, or null if there is no grouping and everything is group 0. */
+  private FieldHashTable groups;
+  /** Number of groups seen. */
+  private int numGroups;
+  /** Per group id: the running aggregate (the sum for AVG), and the number of values merged. */
+  private long[] values = new long[16];
+  private int[] counts = new int[16];
+  private final TupleDesc resultTd;
+  private final TupleDesc partialTd;
 
   /**
    * Aggregate constructor
@@ -38,6 +40,37 @@ public class IntegerAggregator implements Aggregator {
     this.gbfieldType = gbfieldtype;
     this.aggregationField = afield;
     this.op = what;
+    if (gbfieldtype != null) {
+      groups = FieldHashTable.create(gbfieldtype);
+    }
+    resultTd = resultTupleDesc(gbfieldtype);
+    partialTd = partialTupleDesc(gbfieldtype);
+  }
+
+  /**
+   * @return the TupleDesc of the results of an aggregator grouping on the given type, or on
+   * nothing if it is null
+   */
+  static TupleDesc resultTupleDesc(Type gbfieldtype) {
+    if (gbfieldtype == null) {
+      return new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateVal"});
+    }
+    return new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE},
+        new String[]{"groupVal", "aggregateVal"});
+  }
+
+  /**
+   * @return the TupleDesc of the partial aggregates of an aggregator grouping on the given type,
+   * or on nothing if it is null
+   */
+  static TupleDesc partialTupleDesc(Type gbfieldtype) {
+    Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+    String[] names = new String[]{"valueHigh", "valueLow", "count"};
+    if (gbfieldtype == null) {
+      return new TupleDesc(types, names);
+    }
+    return TupleDesc.merge(new TupleDesc(new Type[]{gbfieldtype}, new String[]{"groupVal"}),
+        new TupleDesc(types, names));
   }
 
   /**
@@ -47,56 +80,107 @@ public class IntegerAggregator implements Aggregator {
    */
   public void mergeTupleIntoGroup(Tuple tup) {
     // some code goes here
-    Field curKeyField;
-    if (gbfieldType == null) {
-      curKeyField = new IntField(0);
+    int group = groups == null ? noGroup() : group(groups.insert(tup.getField(gbfield)));
+    Field field = tup.getField(aggregationField);
+    if (field != null) {
+      merge(group, ((IntField) field).getValue());
+    }
+  }
+
+  /**
+   * Merge the selected rows of a batch into the aggregate, reading the aggregate field and an
+   * integer group-by field from their int vectors.
+   */
+  @Override
+  public void mergeBatchIntoGroup(TupleBatch batch) {
+    if (!batch.isIntColumn(aggregationField)) {
+      Aggregator.super.mergeBatchIntoGroup(batch);
+      return;
+    }
+    int[] values = batch.intColumn(aggregationField);
+    if (groups == null) {
+      int group = noGroup();
+      for (int i = 0; i < batch.size(); i++) {
+        merge(group, values[batch.row(i)]);
+      }
+    } else if (groups instanceof IntHashTable) {
+      IntHashTable intGroups = (IntHashTable) groups;
+      int[] keys = batch.intColumn(gbfield);
+      for (int i = 0; i < batch.size(); i++) {
+        int row = batch.row(i);
+        merge(group(intGroups.insert(keys[row])), values[row]);
+      }
     } else {
-      curKeyField = tup.getField(gbfield);
+      for (int i = 0; i < batch.size(); i++) {
+        int row = batch.row(i);
+        merge(group(groups.insert(batch.getField(gbfield, row))), values[row]);
+      }
     }
-    integerAggregatorMap.putIfAbsent(curKeyField, null);
-    Field field = tup.getField(aggregationField);
-    if (field == null) {
-      if (Op.AVG.equals(op)) {
-        Integer count = counterMap.getOrDefault(curKeyField, 0);
-        counterMap.put(curKeyField, count + 1);
+  }
+
+  /** @return the group id used when there is no grouping */
+  private int noGroup() {
+    return group(0);
+  }
+
+  /** Makes room for the aggregate of group id, which may be new; returns id. */
+  private int group(int id) {
+    if (id == numGroups) {
+      if (id == counts.length) {
+        values = Arrays.copyOf(values, id * 2);
+        counts = Arrays.copyOf(counts, id * 2);
       }
+      values[id] = 0;
+      counts[id] = 0;
+      numGroups++;
+    }
+    return id;
+  }
+
+  private void merge(int group, int curValue) {
+    combine(group, curValue, 1);
+  }
+
+  /**
+   * Merges the aggregate of count values into a group; for a single value, value is the value
+   * itself.
+   */
+  private void combine(int group, long value, int count) {
+    int before = counts[group];
+    counts[group] += count;
+    if (count == 0) {
       return;
     }
-    Integer curValue = ((IntField) field).getValue();
-    Integer aggregateValue = integerAggregatorMap.get(curKeyField);
     switch (op) {
-      case COUNT:
-        if (aggregateValue == null) {
-          aggregateValue = 0;
-        }
-        integerAggregatorMap.put(curKeyField, aggregateValue + 1);
-        break;
       case MAX:
-        if (aggregateValue == null || aggregateValue < curValue) {
-          integerAggregatorMap.put(curKeyField, curValue);
+        if (before == 0 || values[group] < value) {
+          values[group] = value;
         }
         break;
       case MIN:
-        if (aggregateValue == null || aggregateValue > curValue) {
-          integerAggregatorMap.put(curKeyField, curValue);
+        if (before == 0 || values[group] > value) {
+          values[group] = value;
         }
         break;
       case SUM:
-        if (aggregateValue == null) {
-          aggregateValue = 0;
-        }
-        integerAggregatorMap.put(curKeyField, curValue + aggregateValue);
-        break;
       case AVG:
-        Integer count = counterMap.getOrDefault(curKeyField, 0);
-        counterMap.put(curKeyField, count + 1);
-        if (aggregateValue == null) {
-          aggregateValue = 0;
-        }
-        integerAggregatorMap.put(curKeyField, curValue + aggregateValue);
+        values[group] += value;
+        break;
+      default:
         break;
     }
+  }
 
+  /** @return the aggregate value of a group */
+  private int value(int group) {
+    switch (op) {
+      case COUNT:
+        return counts[group];
+      case AVG:
+        return counts[group] == 0 ? 0 : (int) (values[group] / counts[group]);
+      default:
+        return (int) values[group];
+    }
   }
 
   /**
@@ -108,62 +192,57 @@ public class IntegerAggregator implements Aggregator {
    */
   public OpIterator iterator() {
     // some code goes here
+    return new AggregatorIterator(this);
+  }
 
-    TupleDesc td;
-    if (gbfieldType == null) {
-      td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateVal"});
-    } else {
-      td = new TupleDesc(new Type[]{gbfieldType, Type.INT_TYPE},
-          new String[]{"groupVal", "aggregateVal"});
-    }
-    List<Tuple> tupleList = new ArrayList<>();
-    for (Entry<Field, Integer> objectIntegerEntry : integerAggregatorMap.entrySet()) {
-      Tuple tuple = new Tuple(td);
-      if (td.numFields() == 1) {
-        tuple.setField(0, new IntField(objectIntegerEntry.getValue()));
-      } else {
-        tuple.setField(0, objectIntegerEntry.getKey());
-        Integer value = objectIntegerEntry.getValue();
-        if (Op.AVG.equals(op)) {
-          value = value / counterMap.get(objectIntegerEntry.getKey());
-        }
-        tuple.setField(1, new IntField(value));
-      }
-      tupleList.add(tuple);
-    }
-    return new Operator() {
-      private Iterator<Tuple> iterator = tupleList.iterator();
+  public int numGroups() {
+    return numGroups;
+  }
 
-      @Override
-      protected Tuple fetchNext() throws DbException, TransactionAbortedException {
-        if (iterator.hasNext()) {
-          return iterator.next();
-        }
-        return null;
-      }
+  public TupleDesc getResultTupleDesc() {
+    return resultTd;
+  }
 
-      @Override
-      public OpIterator[] getChildren() {
-        return new OpIterator[0];
-      }
+  public Tuple result(int group) {
+    Tuple tuple = new Tuple(resultTd);
+    if (groups == null) {
+      tuple.setField(0, new IntField(value(group)));
+    } else {
+      tuple.setField(0, groups.key(group));
+      tuple.setField(1, new IntField(value(group)));
+    }
+    return tuple;
+  }
 
-      @Override
-      public void setChildren(OpIterator[] children) {
+  public TupleDesc getPartialTupleDesc() {
+    return partialTd;
+  }
 
-      }
+  public Tuple partial(int group) {
+    Tuple tuple = new Tuple(partialTd);
+    int i = 0;
+    if (groups != null) {
+      tuple.setField(i++, groups.key(group));
+    }
+    tuple.setField(i++, new IntField((int) (values[group] >>> 32)));
+    tuple.setField(i++, new IntField((int) values[group]));
+    tuple.setField(i, new IntField(counts[group]));
+    return tuple;
+  }
 
-      @Override
-      public void rewind() throws DbException, TransactionAbortedException {
-        super.close();
-        super.open();
-        iterator = tupleList.iterator();
-      }
+  public void mergePartial(Tuple partial) {
+    int i = 0;
+    int group = groups == null ? noGroup() : group(groups.insert(partial.getField(i++)));
+    long high = ((IntField) partial.getField(i++)).getValue();
+    long low = ((IntField) partial.getField(i++)).getValue();
+    combine(group, (high << 32) | (low & 0xFFFFFFFFL), ((IntField) partial.getField(i)).getValue());
+  }
 
-      @Override
-      public TupleDesc getTupleDesc() {
-        return td;
-      }
-    };
+  public void clear() {
+    if (groups != null) {
+      groups.clear();
+    }
+    numGroups = 0;
   }
 
 }
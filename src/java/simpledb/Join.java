@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * The Join operator implements the relational join operation.
  */
-public class Join extends Operator {
+public class Join extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -14,6 +14,11 @@ public class Join extends Operator {
     private OpIterator child2;
 
     private Tuple leftTuple;
+
+    // batch mode state: the outer batch is joined with each inner batch in turn
+    private transient BatchOpIterator batchChild1, batchChild2;
+    private transient TupleBatch out, outer, inner;
+    private transient int outerPos, innerPos;
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -71,6 +76,9 @@ public class Join extends Operator {
         // some code goes here
         child1.open();
         child2.open();
+        batchChild1 = BatchAdapter.of(child1);
+        batchChild2 = BatchAdapter.of(child2);
+        outer = inner = null;
         super.open();
     }
 
@@ -85,6 +93,7 @@ public class Join extends Operator {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        outer = inner = null;
     }
 
     /**
@@ -138,6 +147,53 @@ public class Join extends Operator {
         return null;
     }
 
+    /**
+     * Batch mode version of fetchNext: a block nested loops join that rewinds
+     * the inner relation once per outer batch rather than once per outer
+     * tuple.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null) {
+            out = new TupleBatch(getTupleDesc());
+        }
+        out.clear();
+        while (!out.isFull()) {
+            if (outer == null) {
+                outer = batchChild1.nextBatch();
+                if (outer == null) {
+                    break;
+                }
+                child2.rewind();
+            }
+            if (inner == null) {
+                inner = batchChild2.nextBatch();
+                if (inner == null) {
+                    outer = null;
+                    continue;
+                }
+                outerPos = 0;
+                innerPos = 0;
+            }
+            while (outerPos < outer.size() && !out.isFull()) {
+                int leftRow = outer.row(outerPos);
+                while (innerPos < inner.size() && !out.isFull()) {
+                    int rightRow = inner.row(innerPos++);
+                    if (joinPredicate.filter(outer, leftRow, inner, rightRow)) {
+                        out.addJoined(outer, leftRow, inner, rightRow);
+                    }
+                }
+                if (innerPos >= inner.size()) {
+                    innerPos = 0;
+                    outerPos++;
+                }
+            }
+            if (outerPos >= outer.size()) {
+                inner = null;
+            }
+        }
+        return out.size() > 0 ? out : null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -9,11 +9,40 @@ import javax.swing.tree.*;
  * The JoinOptimizer class is responsible for ordering a series of joins
  * optimally, and for selecting the best instantiation of a join for a given
  * logical plan.
+ * <p>
+ * Up to {@value #DEFAULT_DP_JOINS} joins, or the number set by the
+ * {@value #DP_JOINS_PROPERTY} system property, are ordered exhaustively by
+ * dynamic programming; more are ordered by a greedy plan improved by
+ * iterated local search.
  */
 public class JoinOptimizer {
+    /** The fraction of the cross product a join on an inequality keeps. */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
+    /** System property holding the most joins ordered by dynamic programming. */
+    public static final String DP_JOINS_PROPERTY = "simpledb.optimizer.dpjoins";
+
+    /** The most joins ordered by dynamic programming unless the property is set. */
+    public static final int DEFAULT_DP_JOINS = 15;
+
+    /** Rounds of perturbation and local search after the greedy plan. */
+    static final int LOCAL_SEARCH_ROUNDS = 8;
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /**
+     * The joins being ordered by {@link #orderJoins}: those of joins that
+     * are not subqueries. Sets of them are bitmasks over their positions.
+     */
+    private Vector<LogicalJoinNode> tableJoins;
+    /** For each of tableJoins, the bitmask of the tables it joins. */
+    private long[] joinTables;
+    /** The bit of each table alias in joinTables. */
+    private HashMap<String, Long> tableBits;
+    /** False to consider left-deep plans only. */
+    private boolean bushy = true;
+
     /**
      * Constructor
      * 
@@ -44,6 +73,20 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, -1);
+    }
+
+    /**
+     * Like {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)},
+     * but also considers looking up the tuples of plan1 in a B+ tree index on
+     * the right-hand table, which is cheaper than reading that table when
+     * plan1 is small.
+     *
+     * @param card1
+     *            The estimated cardinality of plan1, or -1 if unknown
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2, int card1) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -68,12 +111,85 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (card1 >= 0 && !(lj instanceof LogicalSubplanJoinNode)
+                && IndexNestedLoopJoin.canProbe(plan2, t2id, lj.p)) {
+            TableStats s = TableStats.getTableStats(
+                    Database.getCatalog().getTableName(((SeqScan) innerScan(plan2)).getTableId()));
+            if (s != null && indexJoinCost(card1, s.totalTuples(), s.estimateScanCost())
+                    < s.estimateScanCost() + s.totalTuples()) {
+                return new IndexNestedLoopJoin(p, plan1, plan2);
+            }
+        }
+
+        boolean sorted = SortMergeJoin.isSorted(plan1, t1id)
+                && SortMergeJoin.isSorted(plan2, t2id);
+        if (lj.p == Predicate.Op.EQUALS && !sorted) {
+            // hashing reads each input once without sorting either
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else if (SortMergeJoin.supports(lj.p)) {
+            // an equality join on sorted inputs merges them with no sort or
+            // hash table; a range join costs the sorts plus its output
+            // instead of comparing every pair
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
+    /** @return the scan under any Filters of plan */
+    private static OpIterator innerScan(OpIterator plan) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        return plan;
+    }
+
+    /**
+     * Estimate the cost of an {@link IndexNestedLoopJoin}, excluding the
+     * cost of computing its left-hand side. Each of the card1 lookups
+     * descends the tree, about log2(card2) comparisons; because lookups are
+     * made in key order, each leaf page is read from disk at most once.
+     *
+     * @param card1
+     *            Estimated cardinality of the left-hand side
+     * @param card2
+     *            Cardinality of the indexed table
+     * @param cost2
+     *            Cost of one full scan of the indexed table
+     */
+    static double indexJoinCost(int card1, int card2, double cost2) {
+        double pages2 = Math.max(1.0, cost2 / TableStats.IOCOSTPERPAGE);
+        double descent = Math.log(card2 + 1.0) / Math.log(2.0);
+        return Math.min(card1, pages2) * TableStats.IOCOSTPERPAGE + card1 * (descent + 1.0);
+    }
+
+    /**
+     * @return true if the right-hand table of j is a BTreeFile keyed on the
+     *         join field, so j can be computed with an IndexNestedLoopJoin
+     */
+    private boolean hasIndex(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode || j.t2Alias == null
+                || j.p == Predicate.Op.NOT_EQUALS || j.p == Predicate.Op.LIKE) {
+            return false;
+        }
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile)) {
+            return false;
+        }
+        try {
+            return ((BTreeFile) f).keyField() == f.getTupleDesc().fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -107,12 +223,70 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // nested loops: scan the left side once and the right side once
+            // per left tuple, comparing every pair
+            double cost = cost1 + card1 * cost2 + (double) card1 * card2;
+            if (hasIndex(j)) {
+                cost = Math.min(cost, cost1 + indexJoinCost(card1, card2, cost2));
+            }
+            return cost;
+        }
+    }
+
+    /**
+     * Estimate the cost of a join as the operator {@link #instantiateJoin}
+     * picks for it will run it. This is the cost the optimizer orders joins
+     * by, for left-deep and bushy plans alike; {@link #estimateJoinCost(
+     * LogicalJoinNode, int, int, double, double)} costs every join as
+     * nested loops.
+     * <p>
+     * An equality is a hash join, which reads each side once. The other
+     * comparisons are sort-merge joins, which also sort both sides and then
+     * produce every matching pair. Any other predicate is a nested loops
+     * join: a base table on the inner side is scanned once per outer tuple,
+     * while a join on the inner side is materialized by {@link LogicalPlan}
+     * and computed only once. A base table with a B+ tree index on the join
+     * field may be probed instead.
+     *
+     * @param j
+     *            The join being costed
+     * @param card1
+     *            Estimated cardinality of the outer side
+     * @param card2
+     *            Estimated cardinality of the inner side
+     * @param cost1
+     *            Estimated cost of computing the outer side
+     * @param cost2
+     *            Estimated cost of computing the inner side
+     * @param innerIsTable
+     *            true if the inner side is a base table rather than a join
+     * @return An estimate of the cost of the join, including both sides
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIsTable) {
+        if (j instanceof LogicalSubplanJoinNode) {
+            return estimateJoinCost(j, card1, card2, cost1, cost2);
+        }
+        double cost;
+        if (j.p == Predicate.Op.EQUALS) {
+            cost = cost1 + cost2 + card1 + card2;
+        } else if (SortMergeJoin.supports(j.p)) {
+            cost = cost1 + cost2 + sortCost(card1) + sortCost(card2)
+                    + RANGE_JOIN_SELECTIVITY * card1 * card2;
+        } else if (innerIsTable) {
+            cost = cost1 + card1 * cost2 + (double) card1 * card2;
+        } else {
+            cost = cost1 + cost2 + (double) card1 * card2;
         }
+        if (innerIsTable && hasIndex(j)) {
+            cost = Math.min(cost, cost1 + indexJoinCost(card1, card2, cost2));
+        }
+        return cost;
+    }
+
+    /** @return the number of comparisons sorting card tuples takes */
+    private static double sortCost(int card) {
+        return card * Math.log(card + 1.0) / Math.log(2.0);
     }
 
     /**
@@ -155,9 +329,32 @@ public class JoinOptimizer {
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double card;
+        double equal;
+        if (t1pkey && t2pkey) {
+            equal = Math.min(card1, card2);
+        } else if (t1pkey) {
+            // each tuple on the right matches at most one on the left
+            equal = card2;
+        } else if (t2pkey) {
+            equal = card1;
+        } else {
+            equal = Math.max(card1, card2);
+        }
+        switch (joinOp) {
+        case EQUALS:
+        case LIKE:
+            card = equal;
+            break;
+        case NOT_EQUALS:
+            card = (double) card1 * card2 - equal;
+            break;
+        default:
+            // a range join keeps a fixed fraction of the cross product
+            card = RANGE_JOIN_SELECTIVITY * card1 * card2;
+        }
+        card = Math.min(card, Integer.MAX_VALUE);
+        return card < 1 ? 1 : (int) card;
     }
 
     /**
@@ -207,8 +404,10 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed. A join whose tables have both
+     *         been joined to others already joins those two subplans, so
+     *         the plan may be bushy.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -217,11 +416,348 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        //Not necessary for labs 1--3
+        // subqueries join to whatever their table has been joined with, so
+        // they are left at the end in their original order
+        Vector<LogicalJoinNode> subplanJoins = new Vector<LogicalJoinNode>();
+        int numTableJoins = 0;
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode) {
+                subplanJoins.add(j);
+            } else {
+                numTableJoins++;
+            }
+        }
+        PlanCache pc = new PlanCache();
+        CostCard best = planJoins(stats, filterSelectivities,
+                numTableJoins <= dpJoins(), pc);
+        if (best == null) {
+            // no plan joins the tables without a cross product
+            return joins;
+        }
+        Vector<LogicalJoinNode> order = best.plan;
+        order.addAll(subplanJoins);
+        if (explain) {
+            printJoins(order, pc, stats, filterSelectivities);
+        }
+        return order;
+    }
+
+    /**
+     * @param bushy
+     *            false to have orderJoins consider left-deep plans only
+     */
+    public void setBushy(boolean bushy) {
+        this.bushy = bushy;
+    }
 
-        // some code goes here
-        //Replace the following
-        return joins;
+    /**
+     * @return the most joins orderJoins orders by dynamic programming
+     */
+    public static int dpJoins() {
+        return Integer.getInteger(DP_JOINS_PROPERTY, DEFAULT_DP_JOINS);
+    }
+
+    /**
+     * Plans the joins that are not subqueries.
+     *
+     * @param exhaustive
+     *            true to search all left-deep plans by dynamic programming,
+     *            false to search heuristically
+     * @param pc
+     *            filled with the plans of sets of the joins found on the way
+     * @return the plan and its estimated cost and cardinality, or null if
+     *         the joins cannot be ordered
+     */
+    CostCard planJoins(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, boolean exhaustive,
+            PlanCache pc) throws ParsingException {
+        tableJoins = new Vector<LogicalJoinNode>();
+        for (LogicalJoinNode j : joins) {
+            if (!(j instanceof LogicalSubplanJoinNode)) {
+                tableJoins.add(j);
+            }
+        }
+        if (tableJoins.isEmpty() || !indexTables(stats)) {
+            return null;
+        }
+        return exhaustive ? orderJoinsDP(stats, filterSelectivities, pc)
+                : orderJoinsHeuristic(stats, filterSelectivities, pc);
+    }
+
+    /**
+     * Fills in joinTables and tableBits for tableJoins.
+     *
+     * @return false if the joins cannot be ordered by bitmask, because there
+     *         are too many of them or of their tables, or if a table has no
+     *         statistics to estimate costs with
+     */
+    private boolean indexTables(HashMap<String, TableStats> stats) {
+        if (tableJoins.size() >= Long.SIZE) {
+            return false;
+        }
+        tableBits = new HashMap<String, Long>();
+        joinTables = new long[tableJoins.size()];
+        for (int i = 0; i < joinTables.length; i++) {
+            LogicalJoinNode j = tableJoins.get(i);
+            for (String alias : new String[] { j.t1Alias, j.t2Alias }) {
+                Integer tableId = p.getTableId(alias);
+                if (tableId == null || stats.get(Database.getCatalog().getTableName(tableId)) == null) {
+                    return false;
+                }
+                Long bit = tableBits.get(alias);
+                if (bit == null) {
+                    if (tableBits.size() == Long.SIZE) {
+                        return false;
+                    }
+                    bit = 1L << tableBits.size();
+                    tableBits.put(alias, bit);
+                }
+                joinTables[i] |= bit;
+            }
+        }
+        return true;
+    }
+
+    /** @return the bitmask of the tables joined by the joins in joinSet */
+    private long tablesOf(long joinSet) {
+        long tables = 0;
+        for (long rest = joinSet; rest != 0; rest &= rest - 1) {
+            tables |= joinTables[Long.numberOfTrailingZeros(rest)];
+        }
+        return tables;
+    }
+
+    /**
+     * Selinger-style dynamic programming over the sets of tableJoins, in
+     * order of size. Only sets whose joins connect their tables are
+     * enumerated: each is made by adding to a cached set of one join fewer
+     * a join that shares a table with it, and is costed once, trying each
+     * of its joins as the last one. Removing that join splits the rest of
+     * the set into the subplans it joins, so both left-deep and bushy plans
+     * are considered. The cost of a greedy plan for all the joins bounds
+     * the search, since a subplan that costs more cannot be part of a
+     * cheaper plan.
+     *
+     * @param pc
+     *            filled with the best plan for each set that has one
+     * @return the best plan for all of tableJoins, or null if there is none
+     */
+    private CostCard orderJoinsDP(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, PlanCache pc)
+            throws ParsingException {
+        int n = tableJoins.size();
+        long all = (1L << n) - 1;
+        CostCard greedy = orderJoinsGreedy(stats, filterSelectivities, null);
+        double bound = greedy == null ? Double.MAX_VALUE : greedy.cost;
+
+        ArrayList<Long> level = new ArrayList<Long>();
+        level.add(0L);
+        for (int size = 1; size <= n; size++) {
+            HashSet<Long> seen = new HashSet<Long>();
+            ArrayList<Long> next = new ArrayList<Long>();
+            for (long prev : level) {
+                long tables = tablesOf(prev);
+                for (long rest = all & ~prev; rest != 0; rest &= rest - 1) {
+                    int i = Long.numberOfTrailingZeros(rest);
+                    long joinSet = prev | (1L << i);
+                    if ((prev != 0 && (joinTables[i] & tables) == 0) || !seen.add(joinSet)) {
+                        continue;
+                    }
+                    CostCard best = null;
+                    for (long last = joinSet; last != 0; last &= last - 1) {
+                        CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities,
+                                Long.numberOfTrailingZeros(last), joinSet,
+                                best == null ? bound : best.cost, pc);
+                        if (cc != null) {
+                            best = cc;
+                        }
+                    }
+                    if (best != null) {
+                        pc.addPlan(joinSet, best.cost, best.card, best.plan);
+                        next.add(joinSet);
+                    }
+                }
+            }
+            level = next;
+        }
+        if (pc.getOrder(all) == null) {
+            // every complete plan was pruned by the greedy plan's cost, so
+            // that plan is as good as any
+            return greedy;
+        }
+        CostCard cc = new CostCard();
+        cc.cost = pc.getCost(all);
+        cc.card = pc.getCard(all);
+        cc.plan = pc.getOrder(all);
+        return cc;
+    }
+
+    /**
+     * Orders tableJoins greedily: starts with the cheapest single join and
+     * repeatedly adds the join sharing a table with the plan so far that
+     * makes the cheapest larger plan.
+     *
+     * @param order
+     *            if not null, filled with the positions in tableJoins of the
+     *            joins of the plan, in plan order
+     * @return the plan, or null if the joins do not connect their tables
+     */
+    private CostCard orderJoinsGreedy(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, int[] order) throws ParsingException {
+        PlanCache pc = new PlanCache();
+        long all = (1L << tableJoins.size()) - 1;
+        long joinSet = 0;
+        CostCard plan = null;
+        for (int step = 0; joinSet != all; step++) {
+            long tables = tablesOf(joinSet);
+            CostCard best = null;
+            int bestJoin = -1;
+            for (long rest = all & ~joinSet; rest != 0; rest &= rest - 1) {
+                int i = Long.numberOfTrailingZeros(rest);
+                if (joinSet != 0 && (joinTables[i] & tables) == 0) {
+                    continue;
+                }
+                CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, i,
+                        joinSet | (1L << i), best == null ? Double.MAX_VALUE : best.cost, pc);
+                if (cc != null) {
+                    best = cc;
+                    bestJoin = i;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            joinSet |= 1L << bestJoin;
+            pc.addPlan(joinSet, best.cost, best.card, best.plan);
+            plan = best;
+            if (order != null) {
+                order[step] = bestJoin;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Costs the left-deep plan that adds the joins of tableJoins in the
+     * given order, letting each join pick its inner and outer side.
+     *
+     * @param order
+     *            positions in tableJoins
+     * @param bound
+     *            stop and return null once the plan costs this much
+     * @param pc
+     *            filled with the plan of each prefix of order
+     * @return the plan, or null if it costs at least bound or a join does
+     *         not share a table with the joins before it
+     */
+    private CostCard costOrder(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, int[] order,
+            double bound, PlanCache pc) throws ParsingException {
+        long joinSet = 0;
+        CostCard cc = null;
+        for (int i : order) {
+            joinSet |= 1L << i;
+            cc = computeCostAndCardOfSubplan(stats, filterSelectivities, i, joinSet, bound, pc);
+            if (cc == null) {
+                return null;
+            }
+            pc.addPlan(joinSet, cc.cost, cc.card, cc.plan);
+        }
+        return cc;
+    }
+
+    /**
+     * Orders tableJoins by iterated local search: the greedy plan is
+     * improved by moving single joins to other positions in the order
+     * while that makes it cheaper, then repeatedly the best order found is
+     * perturbed by swapping a few random pairs of joins and improved
+     * again. The search is seeded, so a query always gets the same plan.
+     *
+     * @param pc
+     *            filled with the plan of each prefix of the returned order
+     * @return the best plan found, or null if the joins do not connect
+     *         their tables
+     */
+    private CostCard orderJoinsHeuristic(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, PlanCache pc)
+            throws ParsingException {
+        int n = tableJoins.size();
+        int[] best = new int[n];
+        CostCard bestPlan = orderJoinsGreedy(stats, filterSelectivities, best);
+        if (bestPlan == null) {
+            return null;
+        }
+        Random random = new Random(n);
+        for (int round = 0; round <= LOCAL_SEARCH_ROUNDS; round++) {
+            int[] order = best.clone();
+            CostCard plan = bestPlan;
+            if (round > 0) {
+                for (int k = 0; k < 1 + n / 8; k++) {
+                    int a = random.nextInt(n), b = random.nextInt(n);
+                    int t = order[a];
+                    order[a] = order[b];
+                    order[b] = t;
+                }
+                plan = costOrder(stats, filterSelectivities, order, Double.MAX_VALUE, new PlanCache());
+                if (plan == null) {
+                    // the swaps made a cross product
+                    continue;
+                }
+            }
+            plan = improve(stats, filterSelectivities, order, plan);
+            if (plan.cost < bestPlan.cost) {
+                best = order;
+                bestPlan = plan;
+            }
+        }
+        costOrder(stats, filterSelectivities, best, Double.MAX_VALUE, pc);
+        return bestPlan;
+    }
+
+    /**
+     * Hill-climbs from the plan for order: moves a join to another position
+     * whenever that gives a cheaper plan, until no move does.
+     *
+     * @param order
+     *            the order to improve, changed in place
+     * @return the plan for the final order
+     */
+    private CostCard improve(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, int[] order, CostCard plan)
+            throws ParsingException {
+        int n = order.length;
+        int[] moved = new int[n];
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int from = 0; from < n; from++) {
+                for (int to = 0; to < n; to++) {
+                    if (to == from) {
+                        continue;
+                    }
+                    // moved is order with the join at from moved to to
+                    int join = order[from];
+                    for (int i = 0, k = 0; i < n; i++) {
+                        if (i == to) {
+                            moved[i] = join;
+                        } else {
+                            if (k == from) {
+                                k++;
+                            }
+                            moved[i] = order[k++];
+                        }
+                    }
+                    CostCard cc = costOrder(stats, filterSelectivities, moved, plan.cost,
+                            new PlanCache());
+                    if (cc != null) {
+                        System.arraycopy(moved, 0, order, 0, n);
+                        plan = cc;
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return plan;
     }
 
     // ===================== Private Methods =================================
@@ -229,8 +765,11 @@ public class JoinOptimizer {
     /**
      * This is a helper method that computes the cost and cardinality of joining
      * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * all of the subsets of joinSet that connect their tables have already
+     * been computed and stored in PlanCache pc. Without joinToRemove, the
+     * rest of joinSet makes the subplans on either side of it: one of them
+     * is a base table in a left-deep plan, and both are joins in a bushy
+     * one.
      * 
      * @param stats
      *            table stats for all of the tables, referenced by table names
@@ -240,9 +779,10 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      * @param joinToRemove
-     *            the join to remove from joinSet
+     *            the position in tableJoins of the join to remove from joinSet
      * @param joinSet
-     *            the set of joins being considered
+     *            the set of joins being considered, as a bitmask over the
+     *            positions of tableJoins
      * @param bestCostSoFar
      *            the best way to join joinSet so far (minimum of previous
      *            invocations of computeCostAndCardOfSubplan for this joinSet,
@@ -260,132 +800,123 @@ public class JoinOptimizer {
     private CostCard computeCostAndCardOfSubplan(
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
+            int joinToRemove, long joinSet,
             double bestCostSoFar, PlanCache pc) throws ParsingException {
 
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
+        LogicalJoinNode j = tableJoins.get(joinToRemove);
 
         if (this.p.getTableId(j.t1Alias) == null)
             throw new ParsingException("Unknown table " + j.t1Alias);
         if (this.p.getTableId(j.t2Alias) == null)
             throw new ParsingException("Unknown table " + j.t2Alias);
 
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
-            }
-
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+        long news = joinSet & ~(1L << joinToRemove);
+
+        // the joins left once j is removed fall apart into a subtree with
+        // t1 and one with t2, either of which may be just the table itself;
+        // when both are joins the plan is bushy
+        long bit1 = tableBits.get(j.t1Alias), bit2 = tableBits.get(j.t2Alias);
+        long left = componentOf(news, bit1);
+        long right = news & ~left;
+        if (((tablesOf(left) | bit1) & bit2) != 0) {
+            // j closes a cycle: t2 is already joined to t1 without it
+            left = news;
+            right = 0;
+        } else if (componentOf(right, bit2) != right) {
+            // some joins touch neither subtree (cross product)
+            return null;
+        }
+        if (!bushy && left != 0 && right != 0) {
+            return null;
+        }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
-            }
+        CostCard s1 = subplan(stats, filterSelectivities, left, j.t1Alias, pc);
+        CostCard s2 = subplan(stats, filterSelectivities, right, j.t2Alias, pc);
+        // possible that we have not cached an answer, if a subtree was
+        // pruned
+        if (s1 == null || s2 == null) {
+            return null;
         }
+        boolean leftPkey = left == 0 ? isPkey(j.t1Alias, j.f1PureName) : hasPkey(s1.plan);
+        boolean rightPkey = right == 0 ? isPkey(j.t2Alias, j.f2PureName) : hasPkey(s2.plan);
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        // case where s1 is the outer side
+        double cost1 = estimateJoinCost(j, s1.card, s2.card, s1.cost, s2.cost, right == 0);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, s2.card, s1.card, s2.cost, s1.cost, left == 0);
         if (cost2 < cost1) {
             boolean tmp;
+            CostCard tmpPlan;
             j = j2;
             cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
+            tmpPlan = s1;
+            s1 = s2;
+            s2 = tmpPlan;
         }
         if (cost1 >= bestCostSoFar)
             return null;
 
         CostCard cc = new CostCard();
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
+        cc.card = estimateJoinCardinality(j, s1.card, s2.card, leftPkey,
                 rightPkey, stats);
         cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+        // the joins of each subtree, then the join of the two
+        cc.plan = (Vector<LogicalJoinNode>) s1.plan.clone();
+        cc.plan.addAll(s2.plan);
+        cc.plan.addElement(j);
         return cc;
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * @return the joins of joinSet that are connected to the table with bit
+     *         table through joins of joinSet
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private long componentOf(long joinSet, long table) {
+        long component = 0;
+        long tables = table;
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (long rest = joinSet & ~component; rest != 0; rest &= rest - 1) {
+                int i = Long.numberOfTrailingZeros(rest);
+                if ((joinTables[i] & tables) != 0) {
+                    component |= 1L << i;
+                    tables |= joinTables[i];
+                    grew = true;
+                }
+            }
         }
-        return false;
+        return component;
+    }
+
+    /**
+     * @return the cost, cardinality and plan of one side of a join: the
+     *         cached plan for joinSet, or a scan of the table alias if
+     *         joinSet is empty; null if joinSet has no cached plan
+     */
+    private CostCard subplan(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, long joinSet,
+            String alias, PlanCache pc) {
+        CostCard cc = new CostCard();
+        if (joinSet == 0) {
+            TableStats s = stats.get(Database.getCatalog().getTableName(p.getTableId(alias)));
+            cc.cost = s.estimateScanCost();
+            cc.card = s.estimateTableCardinality(filterSelectivities.get(alias));
+            cc.plan = new Vector<LogicalJoinNode>();
+            return cc;
+        }
+        cc.plan = pc.getOrder(joinSet);
+        if (cc.plan == null) {
+            return null;
+        }
+        cc.cost = pc.getCost(joinSet);
+        cc.card = pc.getCard(joinSet);
+        return cc;
     }
 
     /**
@@ -454,13 +985,16 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
+        long pathSoFar = 0;
         boolean neither;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+            if (j instanceof LogicalSubplanJoinNode) {
+                continue;
+            }
+            pathSoFar |= 1L << tableJoins.indexOf(j);
+            System.out.println("PATH SO FAR = " + Long.toBinaryString(pathSoFar));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit implements LIMIT and OFFSET without ORDER BY: it skips the first
+ * offset tuples of its child and returns at most limit of the ones after.
+ * Once it has returned limit tuples it stops reading the child, so the
+ * operators below do no more work than the query needs.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int limit;
+    private final int offset;
+    /** The number of child tuples read, skipped ones included. */
+    private transient int read;
+
+    /**
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param offset
+     *            the number of tuples to skip before the first one returned
+     * @param child
+     *            the tuples to limit
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        read = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        super.open();
+        child.rewind();
+        read = 0;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        while (read < offset && child.hasNext()) {
+            child.next();
+            read++;
+        }
+        if (read - offset >= limit || !child.hasNext()) {
+            return null;
+        }
+        read++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -33,8 +33,10 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private boolean hasOrderBy = false;
+    private final ArrayList<String> oByFields = new ArrayList<String>();
+    private final ArrayList<Boolean> oByAscs = new ArrayList<Boolean>();
+    private int limit = -1, offset = 0;
     private String query;
 //    private Query owner;
 
@@ -203,19 +205,28 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  May be called
+        several times; each field breaks ties of the ones added before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAscs.add(asc);
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause: only return limit rows, after skipping the first offset rows.
+        @param limit the maximum number of rows to return
+        @param offset the number of rows to skip
+    */
+    public void setLimit(int limit, int offset) {
+        this.limit = limit;
+        this.offset = offset;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -344,6 +355,14 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        // estimated cardinality of each subplan, used to choose join algorithms
+        HashMap<String,Integer> cardMap = new HashMap<String,Integer>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s != null)
+                cardMap.put(table.alias, s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -381,9 +400,27 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
+            Integer card1 = cardMap.get(t1name);
+            Integer card2 = isSubqueryJoin ? Integer.valueOf(0) : cardMap.get(t2name);
             OpIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = JoinOptimizer.instantiateJoin(lj,plan1,plan2,card1 == null ? -1 : card1);
+            if (!isSubqueryJoin && equivMap.containsValue(t1name) && equivMap.containsValue(t2name)) {
+                // a join of two independent subplans. A nested loops join
+                // computes the inner one once, alongside the outer one,
+                // rather than once per outer tuple. With several workers, a
+                // hash join computes its probe side while it hashes the
+                // other one; a sort-merge join sorts both sides at once.
+                if (j instanceof Join) {
+                    ((Join) j).setChildren(new OpIterator[] { plan1, new Materialize(plan2) });
+                } else if (j instanceof HashEquiJoin && MorselQueue.defaultWorkers() > 1) {
+                    ((HashEquiJoin) j).setChildren(new OpIterator[] { plan1, new Materialize(plan2, true) });
+                }
+            }
             subplanMap.put(t1name, j);
+            if (card1 != null && card2 != null)
+                cardMap.put(t1name, jo.estimateJoinCardinality(lj, card1, card2, false, false, statsMap));
+            else
+                cardMap.remove(t1name);
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -408,6 +445,13 @@ public class LogicalPlan {
         
         OpIterator node =  (OpIterator)(subplanMap.entrySet().iterator().next().getValue());
 
+        if (joins.size() == 0 && !hasAgg && (limit < 0 || hasOrderBy)) {
+            // scan and filter a lone table on several threads; Aggregate
+            // already reads a scanned table in parallel itself, and a LIMIT
+            // without ORDER BY wants the first rows in scan order
+            node = Exchange.parallelize(node);
+        }
+
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
@@ -475,10 +519,28 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int j = 0; j < oByIndexes.length; j++) {
+                oByIndexes[j] = node.getTupleDesc().fieldNameToIndex(oByFields.get(j));
+                asc[j] = oByAscs.get(j);
+            }
+            if (limit >= 0) {
+                // only limit + offset rows are ever needed, so keep just those while sorting
+                node = new TopN(oByIndexes, asc, limit, offset, node);
+            } else {
+                node = new OrderBy(oByIndexes, asc, node, OrderBy.DEFAULT_SORT_PAGES);
+            }
+        } else if (limit >= 0) {
+            node = new Limit(limit, offset, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        Project project = new Project(outFields, outTypes, node);
+        if (Boolean.getBoolean(BatchOpIterator.BATCH_PROPERTY)) {
+            // pull the whole plan through in batches, and only build Tuples at the top
+            return new Unbatch(project);
+        }
+        return project;
     }
 
     public static void main(String argv[]) {
@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the page whose
+ * K-th most recent reference is the oldest; pages referenced fewer than K
+ * times are preferred, oldest last reference first. A page touched once by a
+ * scan therefore never displaces a page that has been reused.
+ * <p>
+ * Reference history outlives the page for a while, so a page that is evicted
+ * and soon reloaded keeps its earlier references.
+ * <p>
+ * Resident pages are kept in a set ordered by victim preference. A hit does
+ * not take the lock or reorder that set; it only stamps the page with the
+ * time of the hit. Eviction folds the stamp of the page at the front into
+ * its history and moves the page to its new place, until the front page has
+ * no pending hit. Several hits between two looks at a page count as one
+ * reference, much like the paper's correlated references.
+ *
+ * @Threadsafe
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    /** Default number of references tracked per page. */
+    public static final int DEFAULT_K = 2;
+
+    /** A resident page and its reference history. */
+    private static final class Entry {
+        final PageId pid;
+        /** Slot 0 is the most recent reference; 0 means "never". */
+        final long[] history;
+        /** The time of the latest hit not yet in history, or 0. */
+        final AtomicLong pendingHit = new AtomicLong();
+
+        Entry(PageId pid, long[] history) {
+            this.pid = pid;
+            this.history = history;
+        }
+    }
+
+    /** Orders entries by K-th reference, then by last reference. */
+    private final Comparator<Entry> byKthReference = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            int c = Long.compare(a.history[k - 1], b.history[k - 1]);
+            return c != 0 ? c : Long.compare(a.history[0], b.history[0]);
+        }
+    };
+
+    private final int k;
+    private final ConcurrentHashMap<PageId, Entry> resident =
+            new ConcurrentHashMap<PageId, Entry>();
+    /**
+     * Resident pages, next victim first. An entry's history only changes
+     * while it is out of this set.
+     */
+    private final TreeSet<Entry> victims = new TreeSet<Entry>(byKthReference);
+    private final LinkedHashMap<PageId, long[]> retained;
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of pages the buffer pool caches
+     * @param k the number of references remembered for each page
+     */
+    public LruKReplacementPolicy(int capacity, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        final int retainedLimit = capacity;
+        this.retained = new LinkedHashMap<PageId, long[]>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > retainedLimit;
+            }
+        };
+    }
+
+    public LruKReplacementPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        Entry e = resident.get(pid);
+        if (e != null) {
+            victims.remove(e);
+            foldPendingHit(e);
+        } else {
+            long[] history = retained.remove(pid);
+            e = new Entry(pid, history != null ? history : new long[k]);
+            resident.put(pid, e);
+        }
+        reference(e.history, clock.incrementAndGet());
+        victims.add(e);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Entry e = resident.get(pid);
+        if (e != null) {
+            e.pendingHit.set(clock.incrementAndGet());
+        }
+    }
+
+    private void reference(long[] history, long time) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = time;
+    }
+
+    /** Adds e's pending hit, if any, to its history; e must not be in victims. */
+    private void foldPendingHit(Entry e) {
+        long time = e.pendingHit.getAndSet(0);
+        // a hit stamped before a later load is already covered by it
+        if (time > e.history[0]) {
+            reference(e.history, time);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Entry e = resident.remove(pid);
+        if (e != null) {
+            victims.remove(e);
+        }
+    }
+
+    public synchronized PageId evict() {
+        Entry e;
+        while ((e = victims.pollFirst()) != null) {
+            if (e.pendingHit.get() == 0) {
+                resident.remove(e.pid);
+                retained.put(e.pid, e.history);
+                return e.pid;
+            }
+            foldPendingHit(e);
+            victims.add(e);
+        }
+        return null;
+    }
+}
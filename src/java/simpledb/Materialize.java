@@ -0,0 +1,217 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Materialize computes its child once and keeps the tuples, so that
+ * rewinding it replays them instead of running the child again. Up to a
+ * limit the tuples are kept in memory, and the rest in a {@link SpillFile}.
+ * It is put over the inner side of a nested loops {@link Join} of two
+ * subplans that are themselves joins (a bushy plan), which the join would
+ * otherwise recompute for every outer tuple, and over the probe side of
+ * such a {@link HashEquiJoin} when there are several workers, so that it
+ * is computed while the other side is hashed.
+ * <p>
+ * With more than one worker, the child is computed on a worker thread as
+ * soon as Materialize is opened, so it runs at the same time as the other
+ * side of the join, which is independent of it; the first call to next
+ * waits for it to finish. Otherwise it is computed by the first call to
+ * next.
+ */
+public class Materialize extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of tuples held in memory. */
+    public static final int DEFAULT_MAX_TUPLES = HashEquiJoin.MAP_SIZE;
+
+    private OpIterator child;
+    private final boolean background;
+    private final int maxTuples;
+
+    private transient ArrayList<Tuple> tuples;
+    // the tuples after the first maxTuples, if there are more
+    private transient SpillFile spill;
+    private transient SpillFile.Reader spillReader;
+    private transient Future<Void> pending;
+    private transient volatile boolean stopped;
+    private transient int pos;
+
+    /**
+     * Constructor that computes the child on a worker thread if
+     * {@link MorselQueue#defaultWorkers} is more than one.
+     *
+     * @param child
+     *            the plan to compute
+     */
+    public Materialize(OpIterator child) {
+        this(child, MorselQueue.defaultWorkers() > 1);
+    }
+
+    /**
+     * @param child
+     *            the plan to compute
+     * @param background
+     *            true to compute it on a worker thread once opened
+     */
+    public Materialize(OpIterator child, boolean background) {
+        this(child, background, DEFAULT_MAX_TUPLES);
+    }
+
+    /**
+     * @param child
+     *            the plan to compute
+     * @param background
+     *            true to compute it on a worker thread once opened
+     * @param maxTuples
+     *            the number of tuples to hold in memory before writing the
+     *            rest to a temporary file
+     */
+    public Materialize(OpIterator child, boolean background, int maxTuples) {
+        this.child = child;
+        this.background = background;
+        this.maxTuples = maxTuples;
+    }
+
+    /**
+     * @return the name shown for the Materialize in query plans
+     */
+    public String getName() {
+        return background ? "materialize(async)" : "materialize";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        tuples = null;
+        spill = null;
+        spillReader = null;
+        pos = 0;
+        stopped = false;
+        if (background) {
+            pending = MorselQueue.submit(() -> {
+                fill();
+                return null;
+            });
+        }
+        super.open();
+    }
+
+    /** Reads the child to the end, or until closed, into tuples and spill. */
+    private void fill() throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> read = new ArrayList<Tuple>();
+        while (!stopped && child.hasNext()) {
+            Tuple t = child.next();
+            if (read.size() < maxTuples) {
+                read.add(t);
+                continue;
+            }
+            if (spill == null) {
+                spill = new SpillFile(child.getTupleDesc(), "materialize");
+            }
+            spill.add(t);
+        }
+        tuples = read;
+    }
+
+    /**
+     * Waits for the worker computing the child, or computes it on this
+     * thread, unless that has been done already.
+     */
+    private void await() throws DbException, TransactionAbortedException {
+        if (pending == null) {
+            if (tuples == null) {
+                fill();
+            }
+            return;
+        }
+        Future<Void> f = pending;
+        pending = null;
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while materializing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("Materialize worker failed: " + cause);
+        }
+    }
+
+    public void close() {
+        if (pending != null) {
+            // the worker may still be reading the child
+            stopped = true;
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // the tuples are being thrown away anyway
+            }
+            pending = null;
+        }
+        closeSpill();
+        tuples = null;
+        super.close();
+        child.close();
+    }
+
+    private void closeSpill() {
+        if (spillReader != null) {
+            spillReader.close();
+            spillReader = null;
+        }
+        if (spill != null) {
+            spill.delete();
+            spill = null;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the child is not run again
+        pos = 0;
+        if (spillReader != null) {
+            spillReader.close();
+            spillReader = null;
+        }
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        await();
+        if (pos < tuples.size()) {
+            return tuples.get(pos++);
+        }
+        if (spill == null) {
+            return null;
+        }
+        if (spillReader == null) {
+            spillReader = spill.iterator();
+            spillReader.open();
+        }
+        return spillReader.hasNext() ? spillReader.next() : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
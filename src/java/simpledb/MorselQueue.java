@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MorselQueue hands out the pages of a HeapFile in small ranges, morsels,
+ * to the threads of a parallel operator. Each worker keeps taking the next
+ * morsel until there are none left, so faster workers simply process more
+ * of them and no worker is left idle while another has a long tail.
+ * <p>
+ * The number of workers operators use by default is set by the
+ * {@value #WORKERS_PROPERTY} system property, and is the number of
+ * processors otherwise; 1 disables parallel execution.
+ */
+public class MorselQueue {
+
+    /** System property holding the default number of worker threads. */
+    public static final String WORKERS_PROPERTY = "simpledb.workers";
+
+    /** Pages per morsel unless the operator asks for another size. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    // workers may wait on each other, e.g. when both sides of a plan run in
+    // parallel, so threads are created as needed rather than pooled
+    private static final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-worker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final int numPages;
+    private final int morselPages;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param numPages    the number of pages to hand out, starting at page 0
+     * @param morselPages the number of pages per morsel
+     */
+    public MorselQueue(int numPages, int morselPages) {
+        this.numPages = numPages;
+        this.morselPages = morselPages;
+    }
+
+    /**
+     * @return the number of workers parallel operators use by default
+     */
+    public static int defaultWorkers() {
+        return Math.max(1, Integer.getInteger(WORKERS_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @return the number of workers for parallelism that changes the order
+     *         of an operator's output: {@link #defaultWorkers} if the
+     *         {@value #WORKERS_PROPERTY} system property is set, and 1
+     *         otherwise, since a plan may rely on that order
+     */
+    public static int optInWorkers() {
+        return System.getProperty(WORKERS_PROPERTY) == null ? 1 : defaultWorkers();
+    }
+
+    /**
+     * @return the number of morsels in the queue, taken or not
+     */
+    public int numMorsels() {
+        return (numPages + morselPages - 1) / morselPages;
+    }
+
+    /**
+     * Takes the next morsel. Safe to call from any thread.
+     *
+     * @return the first page of the morsel, or -1 if all have been taken
+     */
+    public int take() {
+        int first = next.getAndAdd(morselPages);
+        return first < numPages ? first : -1;
+    }
+
+    /**
+     * @return the page after the last page of the morsel starting at first
+     */
+    public int end(int first) {
+        return Math.min(first + morselPages, numPages);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the morsels of file that it
+     * takes from this queue. Several iterators over one queue together read
+     * every page of the file once. The iterator cannot be rewound.
+     */
+    public DbFileIterator iterator(final HeapFile file, final TransactionId tid) {
+        return new DbFileIterator() {
+
+            private DbFileIterator morsel;
+            private List<RuntimeFilter> filters;
+            private boolean open;
+
+            public void open() {
+                open = true;
+            }
+
+            /** @return false if there are no morsels left to take */
+            private boolean nextMorsel() throws DbException, TransactionAbortedException {
+                int first = open ? take() : -1;
+                if (first < 0) {
+                    return false;
+                }
+                morsel = file.iterator(tid, first, end(first));
+                morsel.open();
+                if (filters != null) {
+                    morsel.setRuntimeFilters(filters);
+                }
+                return true;
+            }
+
+            private void endMorsel() {
+                morsel.close();
+                morsel = null;
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                while (morsel != null || nextMorsel()) {
+                    if (morsel.hasNext()) {
+                        return true;
+                    }
+                    endMorsel();
+                }
+                return false;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return morsel.next();
+            }
+
+            @Override
+            public boolean fillBatch(TupleBatch batch)
+                    throws DbException, TransactionAbortedException {
+                while (morsel != null || nextMorsel()) {
+                    if (morsel.fillBatch(batch)) {
+                        return true;
+                    }
+                    endMorsel();
+                }
+                return false;
+            }
+
+            @Override
+            public boolean setRuntimeFilters(List<RuntimeFilter> filters) {
+                this.filters = filters;
+                if (morsel != null) {
+                    morsel.setRuntimeFilters(filters);
+                }
+                return true;
+            }
+
+            public void rewind() throws DbException {
+                throw new DbException("the morsels of a queue are read only once");
+            }
+
+            public void close() {
+                if (morsel != null) {
+                    endMorsel();
+                }
+                open = false;
+            }
+        };
+    }
+
+    /**
+     * Starts a task on a worker thread without waiting for it.
+     */
+    static Future<Void> submit(Callable<Void> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Runs the tasks on worker threads and waits for all of them to finish.
+     * If a task fails, the first failure is rethrown once the others are
+     * done.
+     */
+    public static void runAll(ArrayList<Callable<Void>> tasks)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        Throwable failure = null;
+        for (Future<Void> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure instanceof DbException) {
+            throw (DbException) failure;
+        }
+        if (failure instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new DbException("worker failed: " + failure);
+        }
+    }
+}
@@ -3,18 +3,27 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or
+ * more fields, each ascending or descending.
+ * <p>
+ * The child is sorted with an {@link ExternalSorter} when the first tuple is
+ * asked for, so inputs larger than the memory budget are sorted in runs on
+ * disk and merged as the output is read.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default number of pages' worth of tuples sorted in memory. */
+    public static final int DEFAULT_SORT_PAGES = 1024;
+
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private int[] orderByFields;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private boolean[] asc;
+    private final int sortPages;
+    private transient ExternalSorter sorter;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,23 +36,75 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, DEFAULT_SORT_PAGES);
+    }
+
+    /**
+     * Constructor that sets the memory budget.
+     *
+     * @param sortPages
+     *            the number of pages' worth of tuples to sort in memory
+     *            before spilling sorted runs to disk
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int sortPages) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, sortPages);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to sort on; later fields break ties of earlier
+     *            ones.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param sortPages
+     *            the number of pages' worth of tuples to sort in memory
+     *            before spilling sorted runs to disk
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int sortPages) {
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = asc.clone();
+        this.sortPages = sortPages;
     }
-    
+
+    /**
+     * @return true if the sort order of the first field is ascending
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
-    
+
+    /**
+     * @return the first field sorted on
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
+    /**
+     * @return the fields sorted on, most significant first
+     */
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for each field sorted on, true if its order is ascending
+     */
+    public boolean[] getAscs()
+    {
+        return this.asc.clone();
+    }
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
@@ -56,21 +117,30 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        // the child is sorted by the first call to fetchNext; drop the spill
+        // files of any earlier sort that was not closed
+        if (sorter != null) {
+            sorter.close();
+            sorter = null;
+        }
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (sorter != null) {
+            sorter.close();
+            sorter = null;
+        }
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        super.close();
+        super.open();
+        if (sorter != null) {
+            sorter.rewind();
+        }
     }
 
     /**
@@ -82,8 +152,14 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+        if (sorter == null) {
+            sorter = new ExternalSorter(td, new TupleComparator(orderByFields, asc), sortPages);
+            while (child.hasNext())
+                sorter.add(child.next());
+            sorter.finish();
+        }
+        if (sorter.hasNext()) {
+            return sorter.next();
         } else
             return null;
     }
@@ -99,25 +175,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -253,18 +255,15 @@ public class Parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -273,12 +272,75 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * A LIMIT clause, "LIMIT n" or "LIMIT n OFFSET m", at the end of a
+     * statement. Zql does not know LIMIT, so the clause is cut out of the
+     * statement text before Zql parses it, and applied to the LogicalPlan
+     * afterwards.
+     */
+    static class LimitClause {
+        private static final Pattern PATTERN = Pattern.compile(
+                "\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?(?=\\s*(;|$))",
+                Pattern.CASE_INSENSITIVE);
+
+        /** The statement without the clause. */
+        final String statement;
+        /** The number of rows to return, or -1 if there was no clause. */
+        final int limit;
+        final int offset;
+
+        private LimitClause(String statement, int limit, int offset) {
+            this.statement = statement;
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        static LimitClause strip(String sql) throws simpledb.ParsingException {
+            Matcher m = PATTERN.matcher(sql);
+            if (!m.find()) {
+                return new LimitClause(sql, -1, 0);
+            }
+            try {
+                int limit = Integer.parseInt(m.group(1));
+                int offset = m.group(2) == null ? 0 : Integer.parseInt(m.group(2));
+                return new LimitClause(sql.substring(0, m.start()) + sql.substring(m.end()),
+                        limit, offset);
+            } catch (NumberFormatException e) {
+                throw new simpledb.ParsingException("LIMIT or OFFSET out of range: " + m.group());
+            }
+        }
+
+        /** Applies the clause, if there was one, to a query's plan. */
+        void apply(LogicalPlan lp) {
+            if (limit >= 0) {
+                lp.setLimit(limit, offset);
+            }
+        }
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1, 0);
+    }
+
+    /**
+     * Plans a query that had a LIMIT clause.
+     *
+     * @param limit
+     *            the maximum number of rows to return, or -1 for all of them
+     * @param offset
+     *            the number of rows to skip before the first one returned
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit, int offset)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0) {
+            lp.setLimit(limit, offset);
+        }
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,12 +527,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        LimitClause limit = LimitClause.strip(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(limit.statement.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                limit.apply(lp);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -492,18 +556,25 @@ public class Parser {
         return curtrans;
     }
 
-    public void processNextStatement(String s) {
+    public void processNextStatement(InputStream is) {
         try {
-            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
-        } catch (UnsupportedEncodingException e) {
+            // read the text so that a LIMIT clause can be cut out before Zql sees it
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                text.write(buf, 0, n);
+            }
+            processNextStatement(text.toString("UTF-8"));
+        } catch (IOException e) {
             e.printStackTrace();
-            throw new RuntimeException(e);
         }
     }
 
-    public void processNextStatement(InputStream is) {
+    public void processNextStatement(String statement) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            LimitClause limit = LimitClause.strip(statement);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(limit.statement.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -525,7 +596,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit.limit, limit.offset);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -106,6 +106,93 @@ public class Predicate implements Serializable {
         return t.getField(field).compare(op,operand);
     }
 
+    /**
+     * Narrows the selection of a batch to the rows that pass this predicate.
+     * A comparison of an INT_TYPE column with an int operand runs directly on
+     * the column's int vector.
+     *
+     * @param batch
+     *            The batch to filter
+     */
+    public void filter(TupleBatch batch) {
+        int[] sel = batch.selection();
+        int size = batch.size();
+        int n = 0;
+        if (!batch.isIntColumn(field) || !(operand instanceof IntField)) {
+            for (int i = 0; i < size; i++) {
+                if (batch.getField(field, sel[i]).compare(op, operand))
+                    sel[n++] = sel[i];
+            }
+            batch.setSize(n);
+            return;
+        }
+        int[] col = batch.intColumn(field);
+        int v = ((IntField) operand).getValue();
+        // one loop per operator keeps the comparison out of the inner loop
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < size; i++) {
+                if (col[sel[i]] == v)
+                    sel[n++] = sel[i];
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < size; i++) {
+                if (col[sel[i]] != v)
+                    sel[n++] = sel[i];
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < size; i++) {
+                if (col[sel[i]] > v)
+                    sel[n++] = sel[i];
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < size; i++) {
+                if (col[sel[i]] >= v)
+                    sel[n++] = sel[i];
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < size; i++) {
+                if (col[sel[i]] < v)
+                    sel[n++] = sel[i];
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < size; i++) {
+                if (col[sel[i]] <= v)
+                    sel[n++] = sel[i];
+            }
+            break;
+        }
+        batch.setSize(n);
+    }
+
+    /**
+     * Applies op to two ints, with the same meaning as IntField.compare.
+     */
+    static boolean compare(Op op, int a, int b) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return a == b;
+        case NOT_EQUALS:
+            return a != b;
+        case GREATER_THAN:
+            return a > b;
+        case GREATER_THAN_OR_EQ:
+            return a >= b;
+        case LESS_THAN:
+            return a < b;
+        case LESS_THAN_OR_EQ:
+            return a <= b;
+        }
+        return false;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -5,12 +5,15 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient BatchOpIterator batchChild;
+    private transient TupleBatch view;
+    private transient int[] viewColumns;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -45,9 +48,17 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the ids of the child's fields that are projected out, in order
+     */
+    public ArrayList<Integer> getOutFieldIds() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
+        batchChild = BatchAdapter.of(child);
         super.open();
     }
 
@@ -80,6 +91,23 @@ public class Project extends Operator {
         return null;
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch = batchChild.nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        if (view == null) {
+            viewColumns = new int[outFieldIds.size()];
+            for (int i = 0; i < viewColumns.length; i++) {
+                viewColumns[i] = outFieldIds.get(i);
+            }
+            view = new TupleBatch(td, batch.capacity(), false);
+        }
+        // no data is copied: the view shares the child's column vectors
+        view.project(batch, viewColumns);
+        return view;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
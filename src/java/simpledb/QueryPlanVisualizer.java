@@ -15,6 +15,7 @@ public class QueryPlanVisualizer {
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -222,8 +223,8 @@ public class QueryPlanVisualizer {
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        sortKeys(children[0].getTupleDesc(), o.getOrderByFields(),
+                                o.getAscs()),o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -238,6 +239,37 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String symbol;
+                if (plan instanceof TopN) {
+                    TopN t = (TopN) plan;
+                    symbol = ORDERBY;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s),%3$s:%4$d,card:%5$d",
+                            ORDERBY,
+                            sortKeys(children[0].getTupleDesc(), t.getOrderByFields(),
+                                    t.getAscs()), LIMIT, t.getLimit(),
+                            t.getEstimatedCardinality());
+                } else {
+                    Limit l = (Limit) plan;
+                    symbol = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                            LIMIT, l.getLimit(), l.getEstimatedCardinality());
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (symbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = symbol.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - symbol.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -261,7 +293,8 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
+            else if (plan instanceof Exchange || plan instanceof Materialize
+                    || plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
                 int card=0;
                 try {
@@ -334,6 +367,19 @@ public class QueryPlanVisualizer {
         return thisNode;
     }
 
+    /** @return the names of the sort fields, with " desc" after descending ones */
+    private static String sortKeys(TupleDesc td, int[] fields, boolean[] asc) {
+        StringBuilder keys = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
+                keys.append(",");
+            keys.append(td.getFieldName(fields[i]));
+            if (!asc[i])
+                keys.append(" desc");
+        }
+        return keys.toString();
+    }
+
     private void printTree(SubTreeDescriptor root, char[] buffer, int width) {
         if (root == null)
             return;
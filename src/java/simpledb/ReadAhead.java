@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReadAhead keeps a window of upcoming pages of a sequential scan loading
+ * into the {@link BufferPool} on background threads, so that reading page N+1
+ * overlaps with processing page N.
+ * <p>
+ * The window adapts to the consumer: whenever the scan reaches a page whose
+ * read has not finished, I/O is the bottleneck and the window doubles; after a
+ * full window of pages that were already loaded, it shrinks by one so a slow
+ * consumer does not tie up buffer pool space. The window never exceeds a
+ * quarter of the buffer pool, so prefetched pages are not evicted before they
+ * are used.
+ * <p>
+ * The largest window is set by the {@value #MAX_WINDOW_PROPERTY} system
+ * property; 0 disables read-ahead.
+ * <p>
+ * Errors from the background reads are not rethrown: the scan fetches every
+ * page itself, and gets the error then if it was not transient. A failed
+ * read does stop the read-ahead for the rest of the scan.
+ */
+public class ReadAhead {
+
+    /** System property holding the largest read-ahead window, in pages. */
+    public static final String MAX_WINDOW_PROPERTY = "simpledb.readahead.pages";
+
+    private static final int DEFAULT_MAX_WINDOW = 16;
+    private static final int INITIAL_WINDOW = 2;
+
+    private static final ExecutorService sharedExecutor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final int tableId;
+    private final int numPages;
+    private final int maxWindow;
+    private final BufferPool bufferPool;
+    private final ExecutorService executor;
+
+    /** Reads issued and not yet consumed, in page order. */
+    private final ArrayDeque<Future<?>> inFlight = new ArrayDeque<Future<?>>();
+    private int window = INITIAL_WINDOW;
+    private int nextToIssue = 0;
+    private int readyStreak = 0;
+    private boolean failed = false;
+
+    /**
+     * @param tableId  the table being scanned
+     * @param numPages the number of pages in the table
+     */
+    public ReadAhead(int tableId, int numPages) {
+        this(tableId, numPages, defaultMaxWindow(), sharedExecutor);
+    }
+
+    /**
+     * @param tableId   the table being scanned
+     * @param numPages  the number of pages in the table
+     * @param maxWindow the largest window, in pages; 0 disables read-ahead
+     * @param executor  runs the reads
+     */
+    ReadAhead(int tableId, int numPages, int maxWindow, ExecutorService executor) {
+        this.tableId = tableId;
+        this.numPages = numPages;
+        this.maxWindow = maxWindow;
+        this.bufferPool = Database.getBufferPool();
+        this.executor = executor;
+    }
+
+    /**
+     * @return the largest window allowed by {@value #MAX_WINDOW_PROPERTY} and
+     *         the size of the buffer pool
+     */
+    static int defaultMaxWindow() {
+        return Math.min(Integer.getInteger(MAX_WINDOW_PROPERTY, DEFAULT_MAX_WINDOW),
+                Database.getBufferPool().getNumPages() / 4);
+    }
+
+    /**
+     * Tell the read-ahead that the scan is about to read the given page. Call
+     * this before fetching each page, in increasing page order.
+     *
+     * @param pgNo the page the scan is moving to
+     */
+    public void advance(int pgNo) {
+        if (maxWindow <= 0 || failed) {
+            return;
+        }
+        if (nextToIssue <= pgNo) {
+            // the scan skipped ahead, or is just starting
+            cancelAll();
+            nextToIssue = pgNo + 1;
+        } else {
+            Future<?> f = inFlight.poll();
+            if (f != null && failedRead(f)) {
+                // later reads would likely fail too
+                failed = true;
+                cancelAll();
+                return;
+            }
+            if (f != null && !f.isDone()) {
+                window = Math.min(maxWindow, window * 2);
+                readyStreak = 0;
+            } else if (++readyStreak >= window) {
+                window = Math.max(1, window - 1);
+                readyStreak = 0;
+            }
+        }
+        while (nextToIssue < numPages && nextToIssue <= pgNo + window) {
+            final HeapPageId pid = new HeapPageId(tableId, nextToIssue++);
+            inFlight.add(executor.submit(() -> {
+                bufferPool.prefetchPage(pid);
+                return null;
+            }));
+        }
+    }
+
+    /** @return true if f is a read that finished by throwing */
+    private static boolean failedRead(Future<?> f) {
+        if (!f.isDone() || f.isCancelled()) {
+            return false;
+        }
+        try {
+            f.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return true if a read failed, after which no more reads are issued
+     *         for this scan
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /** @return the current number of pages kept in flight ahead of the scan */
+    public int getWindow() {
+        return window;
+    }
+
+    /** Stop tracking the scan; reads that have not started are abandoned. */
+    public void close() {
+        cancelAll();
+        nextToIssue = 0;
+        failed = false;
+    }
+
+    private void cancelAll() {
+        for (Future<?> f : inFlight) {
+            f.cancel(false);
+        }
+        inFlight.clear();
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * A ReplacementPolicy decides which cached page {@link BufferPool} gives up
+ * when it needs room for another one. The buffer pool tells the policy about
+ * every page it admits, every hit, and every page it drops for other reasons
+ * (e.g. {@link BufferPool#discardPage}); the policy in turn names a victim
+ * when asked.
+ * <p>
+ * {@link #pageAccessed} is called on the lock-free hit path, possibly from
+ * many threads at once and possibly for a page the policy has already given
+ * up, so implementations must make it cheap, thread safe and tolerant of
+ * unknown page ids. The other methods are only called while the buffer pool
+ * holds its own lock.
+ *
+ * @see ClockReplacementPolicy
+ * @see TwoQueueReplacementPolicy
+ * @see LruKReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that a page has just been brought into the buffer pool.
+     *
+     * @param pid the id of the page that was admitted
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Record a hit on a page that is already cached.
+     *
+     * @param pid the id of the page that was requested
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Forget a page that the buffer pool removed without asking for a victim.
+     *
+     * @param pid the id of the page that is no longer cached
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Choose a page to evict and stop tracking it.
+     *
+     * @return the id of the page to evict, or null if no page is tracked
+     */
+    public PageId evict();
+}
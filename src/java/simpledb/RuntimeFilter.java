@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * RuntimeFilter summarizes the join keys of a hash join's build side: a
+ * Bloom filter over all keys and, for INT_TYPE keys, their minimum and
+ * maximum. Once the build side has been read, the join pushes the filter
+ * down to the SeqScan feeding its probe side with {@link #pushDown}, and
+ * the scan drops tuples whose key cannot have a match before they reach
+ * the join, or, for heap files, before they are even decoded.
+ * <p>
+ * A key that was added is never rejected; a key that was not added is
+ * rejected unless it collides with added keys in all of its bits.
+ */
+public class RuntimeFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bits per expected key; with HASHES probes this gives about 3% false positives. */
+    static final int BITS_PER_KEY = 8;
+
+    static final int HASHES = 3;
+
+    /** Upper bound on the size of a filter, one megabyte. */
+    static final int MAX_BITS = 1 << 23;
+
+    private final Type type;
+    private final long[] bits;
+    private final int mask;
+    private int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+    private int numKeys;
+    /** The index of the key in the tuples of the operator the filter is installed in. */
+    private int field;
+
+    /**
+     * @param type
+     *            the type of the join keys
+     * @param expectedKeys
+     *            the number of distinct keys the filter is sized for; adding
+     *            more keys raises the false positive rate
+     */
+    public RuntimeFilter(Type type, int expectedKeys) {
+        this.type = type;
+        long wanted = Math.max(64L, (long) expectedKeys * BITS_PER_KEY);
+        int numBits = 64;
+        while (numBits < wanted && numBits < MAX_BITS) {
+            numBits <<= 1;
+        }
+        bits = new long[numBits / 64];
+        mask = numBits - 1;
+    }
+
+    /** @return a 64 bit hash of h; the two halves pick the probed bits */
+    private static long mix(int h) {
+        long x = h * 0x9E3779B97F4A7C15L;
+        return x ^ (x >>> 29);
+    }
+
+    private static long hash(Field key) {
+        return key instanceof IntField ? mix(((IntField) key).getValue()) : mix(key.hashCode());
+    }
+
+    private void set(long h) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int b = (h1 + i * h2) & mask;
+            bits[b >>> 6] |= 1L << b;
+        }
+    }
+
+    private boolean test(long h) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int b = (h1 + i * h2) & mask;
+            if ((bits[b >>> 6] & (1L << b)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds an INT_TYPE key.
+     */
+    public void add(int key) {
+        min = Math.min(min, key);
+        max = Math.max(max, key);
+        set(mix(key));
+        numKeys++;
+    }
+
+    /**
+     * Adds a key.
+     */
+    public void add(Field key) {
+        if (key instanceof IntField) {
+            add(((IntField) key).getValue());
+        } else {
+            set(hash(key));
+            numKeys++;
+        }
+    }
+
+    /**
+     * @return false if key was certainly not added
+     */
+    public boolean mightContain(int key) {
+        return key >= min && key <= max && test(mix(key));
+    }
+
+    /**
+     * @return false if key was certainly not added
+     */
+    public boolean mightContain(Field key) {
+        if (key instanceof IntField) {
+            return mightContain(((IntField) key).getValue());
+        }
+        return test(hash(key));
+    }
+
+    /**
+     * @return false if the key field of t was certainly not added
+     */
+    public boolean mightMatch(Tuple t) {
+        return mightContain(t.getField(field));
+    }
+
+    /**
+     * @return true if every filter in filters might match t
+     */
+    static boolean mightMatch(List<RuntimeFilter> filters, Tuple t) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (!filters.get(i).mightMatch(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the rows whose key field was certainly not added from the
+     * selection of batch.
+     */
+    public void filter(TupleBatch batch) {
+        int[] sel = batch.selection();
+        int size = batch.size();
+        int n = 0;
+        if (batch.isIntColumn(field)) {
+            int[] col = batch.intColumn(field);
+            for (int i = 0; i < size; i++) {
+                if (mightContain(col[sel[i]]))
+                    sel[n++] = sel[i];
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (mightContain(batch.getField(field, sel[i])))
+                    sel[n++] = sel[i];
+            }
+        }
+        batch.setSize(n);
+    }
+
+    /**
+     * @return the index of the key in the tuples the filter is applied to
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the type of the keys
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of keys added, counting repeats
+     */
+    public int numKeys() {
+        return numKeys;
+    }
+
+    /**
+     * @return true if the filter rejects enough keys to be worth applying,
+     *         that is if at most half of its bits are set
+     */
+    public boolean isSelective() {
+        int set = 0;
+        for (long word : bits) {
+            set += Long.bitCount(word);
+        }
+        return set * 2 <= bits.length * 64;
+    }
+
+    /**
+     * Installs the filter in the SeqScan that produces field of its output.
+     * The filter is pushed through operators that pass their input's fields
+     * through unchanged (Filter, OrderBy, Unbatch) and into the side of a
+     * join the field comes from. Tuples of the scan are only consumed by
+     * it, so dropping the ones with keys the filter rejects cannot change
+     * the result of the join the filter came from.
+     *
+     * @param it
+     *            the probe side of the join
+     * @param field
+     *            the index of the join key in the tuples of it
+     * @return the scan the filter was installed in, or null if there was no
+     *         scan to push it into
+     */
+    public static SeqScan pushDown(OpIterator it, int field, RuntimeFilter f) {
+        if (it instanceof SeqScan) {
+            SeqScan scan = (SeqScan) it;
+            f.field = field;
+            scan.addRuntimeFilter(f);
+            return scan;
+        }
+        if (it instanceof Filter || it instanceof OrderBy || it instanceof Unbatch) {
+            return pushDown(((Operator) it).getChildren()[0], field, f);
+        }
+        if (it instanceof BatchAdapter) {
+            return pushDown(((BatchAdapter) it).getChild(), field, f);
+        }
+        if (it instanceof Join || it instanceof HashEquiJoin || it instanceof SortMergeJoin
+                || it instanceof IndexNestedLoopJoin) {
+            OpIterator[] children = ((Operator) it).getChildren();
+            int width1 = children[0].getTupleDesc().numFields();
+            if (field < width1) {
+                return pushDown(children[0], field, f);
+            }
+            // the inner side of an index join is looked up, not scanned
+            if (it instanceof IndexNestedLoopJoin) {
+                return null;
+            }
+            return pushDown(children[1], field - width1, f);
+        }
+        return null;
+    }
+}
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -15,7 +15,17 @@ public class SeqScan implements OpIterator {
     private TransactionId transactionId;
     private int tableId;
     private String tableAlias;
+    private transient TupleDesc td;
     private DbFileIterator dbFileIterator;
+    private transient TupleBatch batch;
+    /** Runtime filters pushed down by hash joins above this scan. */
+    private final ArrayList<RuntimeFilter> runtimeFilters = new ArrayList<RuntimeFilter>();
+    /** True if dbFileIterator applies runtimeFilters itself. */
+    private transient boolean fileFilters;
+    /** The next tuple accepted by runtimeFilters, when this scan applies them. */
+    private transient Tuple lookahead;
+    /** The morsels this scan reads, if it is one of several scanning a heap file in parallel. */
+    private transient MorselQueue morsels;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -48,6 +58,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return transactionId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -73,16 +97,56 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.td = null;
+        this.batch = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Makes the scan skip tuples the filter rejects, from now on and after
+     * every rewind, until the filter is removed.
+     */
+    public void addRuntimeFilter(RuntimeFilter filter) {
+        runtimeFilters.add(filter);
+    }
+
+    /**
+     * Stops applying a filter given to {@link #addRuntimeFilter}.
+     */
+    public void removeRuntimeFilter(RuntimeFilter filter) {
+        runtimeFilters.remove(filter);
+    }
+
+    /**
+     * @return the runtime filters the scan currently applies
+     */
+    List<RuntimeFilter> getRuntimeFilters() {
+        return runtimeFilters;
+    }
+
+    /**
+     * Makes the scan, which must be of a heap file, read only the morsels it
+     * takes from the queue, so that several scans sharing the queue divide
+     * the file between them. Such a scan cannot be rewound.
+     */
+    public void setMorsels(MorselQueue morsels) {
+        this.morsels = morsels;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        dbFileIterator = Database.getCatalog().getDatabaseFile(tableId).iterator(transactionId);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (morsels != null) {
+            dbFileIterator = morsels.iterator((HeapFile) file, transactionId);
+        } else {
+            dbFileIterator = file.iterator(transactionId);
+        }
         dbFileIterator.open();
+        fileFilters = dbFileIterator.setRuntimeFilters(runtimeFilters);
+        lookahead = null;
     }
 
     /**
@@ -97,24 +161,73 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return Database.getCatalog().getTupleDesc(tableId);
+        if (td == null) {
+            TupleDesc fileTd = Database.getCatalog().getTupleDesc(tableId);
+            Type[] types = new Type[fileTd.numFields()];
+            String[] names = new String[fileTd.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = fileTd.getFieldType(i);
+                names[i] = tableAlias + "." + fileTd.getFieldName(i);
+            }
+            td = new TupleDesc(types, names);
+        }
+        return td;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return dbFileIterator.hasNext();
+        if (lookahead == null && (fileFilters || runtimeFilters.isEmpty())) {
+            return dbFileIterator.hasNext();
+        }
+        while (lookahead == null && dbFileIterator.hasNext()) {
+            Tuple t = dbFileIterator.next();
+            if (RuntimeFilter.mightMatch(runtimeFilters, t)) {
+                lookahead = t;
+            }
+        }
+        return lookahead != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return dbFileIterator.next();
+        if (lookahead == null && (fileFilters || runtimeFilters.isEmpty())) {
+            return dbFileIterator.next();
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = lookahead;
+        lookahead = null;
+        return t;
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        while (dbFileIterator.fillBatch(batch)) {
+            if (!fileFilters) {
+                for (RuntimeFilter f : runtimeFilters) {
+                    f.filter(batch);
+                }
+            }
+            if (batch.size() > 0) {
+                return batch;
+            }
+            batch.clear();
+        }
+        return null;
     }
 
     public void close() {
         // some code goes here
-        dbFileIterator.close();
-        dbFileIterator = null;
+        if (dbFileIterator != null) {
+            dbFileIterator.close();
+            dbFileIterator = null;
+        }
+        lookahead = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
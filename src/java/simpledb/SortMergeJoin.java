@@ -0,0 +1,356 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * SortMergeJoin joins two inputs sorted on their join fields by reading
+ * each of them once. It supports the EQUALS, LESS_THAN, LESS_THAN_OR_EQ,
+ * GREATER_THAN and GREATER_THAN_OR_EQ predicates. An input that is not
+ * already in ascending order on its join field (see {@link #isSorted}) is
+ * sorted with an {@link ExternalSorter} when the join is opened. If both
+ * inputs need sorting and there is more than one worker, they are sorted at
+ * the same time on worker threads; the order of the output does not change.
+ * <p>
+ * For EQUALS, the tuples of child2 sharing the current key are buffered. For
+ * the other predicates, the tuples matching the current tuple of one input
+ * are a prefix of the other input that only grows, so that prefix is
+ * buffered: for GREATER_THAN, the tuples of child2 smaller than the current
+ * tuple of child1; for LESS_THAN, the tuples of child1 smaller than the
+ * current tuple of child2.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pages of memory used to sort each unsorted input. */
+    public static final int DEFAULT_SORT_PAGES = 1024;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int sortPages;
+
+    private transient ExternalSorter sorter1, sorter2;
+    /** The input read one tuple at a time, and the input whose prefix is buffered. */
+    private transient boolean streamLeft;
+    private transient Tuple current, lookahead;
+    private transient ArrayList<Tuple> buffer;
+    private transient int bufferPos;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_SORT_PAGES);
+    }
+
+    /**
+     * @param sortPages
+     *            the number of pages of memory to sort each unsorted input in
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int sortPages) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("sort-merge join does not support " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.sortPages = sortPages;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if SortMergeJoin can evaluate join predicates with operator op
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the tuples of it are known to be in ascending order on
+     * the given field: it is a B+ tree scan on its key, an ascending OrderBy
+     * or TopN on the field, a Filter or Limit of a sorted input, or a
+     * SortMergeJoin whose output follows that field.
+     */
+    public static boolean isSorted(OpIterator it, int field) {
+        if (it instanceof BTreeScan) {
+            return ((BTreeScan) it).getKeyField() == field;
+        }
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof TopN) {
+            TopN t = (TopN) it;
+            return t.isASC() && t.getOrderByField() == field;
+        }
+        if (it instanceof Filter || it instanceof Limit) {
+            return isSorted(((Operator) it).getChildren()[0], field);
+        }
+        if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            int width1 = j.child1.getTupleDesc().numFields();
+            int key1 = j.pred.getField1();
+            int key2 = width1 + j.pred.getField2();
+            switch (j.pred.getOperator()) {
+            case EQUALS:
+                return field == key1 || field == key2;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return field == key1;
+            default:
+                return field == key2;
+            }
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        start();
+        super.open();
+    }
+
+    /**
+     * Sorts the unsorted inputs and resets the merge state.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        boolean sort1 = !isSorted(child1, pred.getField1());
+        boolean sort2 = !isSorted(child2, pred.getField2());
+        if (sort1 && sort2 && MorselQueue.defaultWorkers() > 1) {
+            sortBoth();
+        } else {
+            sorter1 = sort1 ? sort(child1, pred.getField1()) : null;
+            sorter2 = sort2 ? sort(child2, pred.getField2()) : null;
+        }
+        Predicate.Op op = pred.getOperator();
+        streamLeft = op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+        buffer = new ArrayList<Tuple>();
+        bufferPos = 0;
+        current = null;
+        lookahead = null;
+    }
+
+    /**
+     * Sorts both inputs on two worker threads. The inputs are independent of
+     * each other, as the inner side of a bushy join is of its outer side.
+     */
+    private void sortBoth() throws DbException, TransactionAbortedException {
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        tasks.add(() -> {
+            sorter1 = sort(child1, pred.getField1());
+            return null;
+        });
+        tasks.add(() -> {
+            sorter2 = sort(child2, pred.getField2());
+            return null;
+        });
+        boolean sorted = false;
+        try {
+            MorselQueue.runAll(tasks);
+            sorted = true;
+        } finally {
+            if (!sorted) {
+                // the other input may have been sorted to temporary files
+                closeSorters();
+            }
+        }
+    }
+
+    private ExternalSorter sort(OpIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        ExternalSorter sorter = new ExternalSorter(child.getTupleDesc(),
+                new TupleComparator(field, true), sortPages);
+        while (child.hasNext()) {
+            sorter.add(child.next());
+        }
+        sorter.finish();
+        return sorter;
+    }
+
+    private Tuple next1() throws DbException, TransactionAbortedException {
+        if (sorter1 != null) {
+            return sorter1.hasNext() ? sorter1.next() : null;
+        }
+        return child1.hasNext() ? child1.next() : null;
+    }
+
+    private Tuple next2() throws DbException, TransactionAbortedException {
+        if (sorter2 != null) {
+            return sorter2.hasNext() ? sorter2.next() : null;
+        }
+        return child2.hasNext() ? child2.next() : null;
+    }
+
+    /** The next tuple of the streamed input. */
+    private Tuple nextStreamed() throws DbException, TransactionAbortedException {
+        return streamLeft ? next1() : next2();
+    }
+
+    /** The next tuple of the buffered input. */
+    private Tuple nextBuffered() throws DbException, TransactionAbortedException {
+        return streamLeft ? next2() : next1();
+    }
+
+    private Field key1(Tuple t) {
+        return t.getField(pred.getField1());
+    }
+
+    private Field key2(Tuple t) {
+        return t.getField(pred.getField2());
+    }
+
+    /**
+     * Reads the tuples of the buffered input matching the new streamed tuple
+     * into the buffer.
+     */
+    private void advanceBuffer() throws DbException, TransactionAbortedException {
+        if (lookahead == null && buffer.isEmpty()) {
+            lookahead = nextBuffered();
+        }
+        switch (pred.getOperator()) {
+        case EQUALS:
+            Field key = key1(current);
+            if (!buffer.isEmpty() && key2(buffer.get(0)).equals(key)) {
+                return;
+            }
+            buffer.clear();
+            while (lookahead != null && key2(lookahead).compare(Predicate.Op.LESS_THAN, key)) {
+                lookahead = next2();
+            }
+            while (lookahead != null && key2(lookahead).equals(key)) {
+                buffer.add(lookahead);
+                lookahead = next2();
+            }
+            return;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            // buffer the tuples of child2 whose key is below (or equal to) the current child1 key
+            while (lookahead != null && pred.filter(current, lookahead)) {
+                buffer.add(lookahead);
+                lookahead = next2();
+            }
+            return;
+        default:
+            // buffer the tuples of child1 whose key is below (or equal to) the current child2 key
+            while (lookahead != null && pred.filter(lookahead, current)) {
+                buffer.add(lookahead);
+                lookahead = next1();
+            }
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the next tuple of the join: the current streamed tuple paired
+     * with each buffered tuple in turn, then the next streamed tuple.
+     *
+     * @return The next matching tuple, or null if there are no more.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (current != null && bufferPos < buffer.size()) {
+                Tuple other = buffer.get(bufferPos++);
+                return streamLeft ? merge(current, other) : merge(other, current);
+            }
+            current = nextStreamed();
+            if (current == null) {
+                return null;
+            }
+            advanceBuffer();
+            bufferPos = 0;
+        }
+    }
+
+    private void closeSorters() {
+        if (sorter1 != null) {
+            sorter1.close();
+            sorter1 = null;
+        }
+        if (sorter2 != null) {
+            sorter2.close();
+            sorter2 = null;
+        }
+    }
+
+    public void close() {
+        super.close();
+        closeSorters();
+        buffer = null;
+        current = null;
+        lookahead = null;
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeSorters();
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
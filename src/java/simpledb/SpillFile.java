@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples, used by operators that run out of
+ * memory. Tuples are appended with {@link #add} and read back in the same
+ * order with the OpIterator returned by {@link #iterator}, which may be
+ * opened any number of times. The file is created on the first add and
+ * removed by {@link #delete}.
+ * <p>
+ * Tuples read back carry no RecordId.
+ */
+public class SpillFile {
+
+    /** Bytes buffered by each writer and reader. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final TupleDesc td;
+    private final String prefix;
+    private File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /**
+     * @param td     the schema of the tuples
+     * @param prefix the name prefix of the temporary file
+     */
+    public SpillFile(TupleDesc td, String prefix) {
+        this.td = td;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return the schema of the tuples in this file
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends a tuple to the file.
+     */
+    public void add(Tuple t) throws DbException {
+        try {
+            if (out == null) {
+                if (file == null) {
+                    file = File.createTempFile(prefix, ".tmp");
+                    file.deleteOnExit();
+                }
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file, true), BUFFER_SIZE));
+            }
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * Flushes the tuples added so far to disk.
+     */
+    private void flush() throws DbException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Returns an iterator over the tuples added so far. Further adds are
+     * allowed but are only seen by iterators opened after them.
+     */
+    public Reader iterator() {
+        return new Reader();
+    }
+
+    /**
+     * Removes the file. The SpillFile is empty afterwards.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        size = 0;
+    }
+
+    /** Reads the tuples of a SpillFile in the order they were added. */
+    public class Reader implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private int count;
+        private int read;
+
+        public void open() throws DbException {
+            flush();
+            count = size;
+            read = 0;
+            if (count == 0) {
+                return;
+            }
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            } catch (FileNotFoundException e) {
+                throw new DbException("spill file disappeared: " + file);
+            }
+        }
+
+        public boolean hasNext() {
+            return read < count;
+        }
+
+        public Tuple next() throws DbException {
+            if (read >= count) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            if (++read == count) {
+                close();
+            }
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                in = null;
+            }
+        }
+    }
+}
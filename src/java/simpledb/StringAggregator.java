@@ -1,11 +1,6 @@
 package simpledb;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -17,7 +12,14 @@ public class StringAggregator implements Aggregator {
   private Type gbfieldType;
   private int aggregationField;
   private Op op;
-  Map<Field, Integer> integerAggregatorMap = new HashMap<>();
+  /** Group ids by group-by value, or null if there is no grouping and everything is group 0. */
+  private FieldHashTable groups;
+  /** Number of groups seen. */
+  private int numGroups;
+  /** Per group id: the number of values merged. */
+  private int[] counts = new int[16];
+  private final TupleDesc resultTd;
+  private final TupleDesc partialTd;
 
   /**
    * Aggregate constructor
@@ -40,6 +42,11 @@ public class StringAggregator implements Aggregator {
     this.gbfieldType = gbfieldtype;
     this.aggregationField = afield;
     this.op = what;
+    if (gbfieldtype != null) {
+      groups = FieldHashTable.create(gbfieldtype);
+    }
+    resultTd = IntegerAggregator.resultTupleDesc(gbfieldtype);
+    partialTd = IntegerAggregator.partialTupleDesc(gbfieldtype);
   }
 
   /**
@@ -49,23 +56,22 @@ public class StringAggregator implements Aggregator {
    */
   public void mergeTupleIntoGroup(Tuple tup) {
     // some code goes here
-    Field curKeyField;
-    if (gbfieldType == null) {
-      curKeyField = new IntField(0);
-    } else {
-      curKeyField = tup.getField(gbfield);
-    }
-    integerAggregatorMap.putIfAbsent(curKeyField, null);
-    Field field = tup.getField(aggregationField);
-    if (field == null) {
-      return;
-    }
-    Integer aggregateValue = integerAggregatorMap.get(curKeyField);
-    if(aggregateValue == null){
-      aggregateValue = 0;
+    int group = groups == null ? group(0) : group(groups.insert(tup.getField(gbfield)));
+    if (tup.getField(aggregationField) != null) {
+      counts[group]++;
     }
-    integerAggregatorMap.put(curKeyField, aggregateValue + 1);
+  }
 
+  /** Makes room for the count of group id, which may be new; returns id. */
+  private int group(int id) {
+    if (id == numGroups) {
+      if (id == counts.length) {
+        counts = Arrays.copyOf(counts, id * 2);
+      }
+      counts[id] = 0;
+      numGroups++;
+    }
+    return id;
   }
 
   /**
@@ -77,57 +83,54 @@ public class StringAggregator implements Aggregator {
    */
   public OpIterator iterator() {
     // some code goes here
-    TupleDesc td;
-    if (gbfieldType == null) {
-      td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateVal"});
+    return new AggregatorIterator(this);
+  }
+
+  public int numGroups() {
+    return numGroups;
+  }
+
+  public TupleDesc getResultTupleDesc() {
+    return resultTd;
+  }
+
+  public Tuple result(int group) {
+    Tuple tuple = new Tuple(resultTd);
+    if (groups == null) {
+      tuple.setField(0, new IntField(counts[group]));
     } else {
-      td = new TupleDesc(new Type[]{gbfieldType, Type.INT_TYPE},
-          new String[]{"groupVal", "aggregateVal"});
+      tuple.setField(0, groups.key(group));
+      tuple.setField(1, new IntField(counts[group]));
     }
-    List<Tuple> tupleList = new ArrayList<>();
-    for (Entry<Field, Integer> objectIntegerEntry : integerAggregatorMap.entrySet()) {
-      Tuple tuple = new Tuple(td);
-      if (td.numFields() == 1) {
-        tuple.setField(0, new IntField(objectIntegerEntry.getValue()));
-      } else {
-        tuple.setField(0, objectIntegerEntry.getKey());
-        Integer value = objectIntegerEntry.getValue();
-        tuple.setField(1, new IntField(value));
-      }
-      tupleList.add(tuple);
-    }
-    return new Operator() {
-      private Iterator<Tuple> iterator = tupleList.iterator();
-      @Override
-      protected Tuple fetchNext() throws DbException, TransactionAbortedException {
-        if(iterator.hasNext()){
-          return iterator.next();
-        }
-        return  null;
-      }
-
-      @Override
-      public OpIterator[] getChildren() {
-        return new OpIterator[0];
-      }
+    return tuple;
+  }
 
-      @Override
-      public void setChildren(OpIterator[] children) {
+  public TupleDesc getPartialTupleDesc() {
+    return partialTd;
+  }
 
-      }
+  public Tuple partial(int group) {
+    Tuple tuple = new Tuple(partialTd);
+    int i = 0;
+    if (groups != null) {
+      tuple.setField(i++, groups.key(group));
+    }
+    tuple.setField(i++, new IntField(0));
+    tuple.setField(i++, new IntField(0));
+    tuple.setField(i, new IntField(counts[group]));
+    return tuple;
+  }
 
-      @Override
-      public void rewind() throws DbException, TransactionAbortedException {
-        super.close();
-        super.open();
-        iterator = tupleList.iterator();
-      }
+  public void mergePartial(Tuple partial) {
+    int group = groups == null ? group(0) : group(groups.insert(partial.getField(0)));
+    counts[group] += ((IntField) partial.getField(partialTd.numFields() - 1)).getValue();
+  }
 
-      @Override
-      public TupleDesc getTupleDesc() {
-        return td;
-      }
-    };
+  public void clear() {
+    if (groups != null) {
+      groups.clear();
+    }
+    numGroups = 0;
   }
 
 }
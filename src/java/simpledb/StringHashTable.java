@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * FieldHashTable for STRING_TYPE keys. The characters of all keys are
+ * copied into one array, and lookups hash and compare the characters of the
+ * probe string in place, so neither inserting an existing key nor finding
+ * one allocates. Keys are equal exactly when their StringFields are.
+ */
+public class StringHashTable implements FieldHashTable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Id of the key in each slot, or -1 for an empty slot. */
+    private int[] slotIds;
+    private int mask;
+    /** Characters of all keys, back to back. */
+    private char[] chars;
+    private int used;
+    /** Offset in chars, length and hash of each id's key. */
+    private int[] offsets, lengths, hashes;
+    private int size;
+
+    public StringHashTable() {
+        allocate(INITIAL_CAPACITY);
+        offsets = new int[INITIAL_CAPACITY / 2];
+        lengths = new int[INITIAL_CAPACITY / 2];
+        hashes = new int[INITIAL_CAPACITY / 2];
+        chars = new char[INITIAL_CAPACITY * 4];
+    }
+
+    private void allocate(int capacity) {
+        slotIds = new int[capacity];
+        Arrays.fill(slotIds, -1);
+        mask = capacity - 1;
+    }
+
+    /** FNV-1a over the characters of s, which on pages are single bytes. */
+    private static int hash(String s) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean matches(int id, int h, String s) {
+        if (hashes[id] != h || lengths[id] != s.length()) {
+            return false;
+        }
+        int off = offsets[id];
+        for (int i = 0; i < s.length(); i++) {
+            if (chars[off + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the id of s, or -1 if it is not in the table
+     */
+    public int find(String s) {
+        int h = hash(s);
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int id = slotIds[slot];
+            if (id < 0 || matches(id, h, s)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return the id of s, which is added to the table if it is not in it yet
+     */
+    public int insert(String s) {
+        int h = hash(s);
+        int slot = h & mask;
+        for (; slotIds[slot] >= 0; slot = (slot + 1) & mask) {
+            if (matches(slotIds[slot], h, s)) {
+                return slotIds[slot];
+            }
+        }
+        int id = size++;
+        if (id == offsets.length) {
+            offsets = Arrays.copyOf(offsets, id * 2);
+            lengths = Arrays.copyOf(lengths, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        if (used + s.length() > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, used + s.length()));
+        }
+        s.getChars(0, s.length(), chars, used);
+        offsets[id] = used;
+        lengths[id] = s.length();
+        hashes[id] = h;
+        used += s.length();
+        slotIds[slot] = id;
+        if (size * 2 > slotIds.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        allocate(slotIds.length * 2);
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slotIds[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            slotIds[slot] = id;
+        }
+    }
+
+    public int find(Field key) {
+        return find(((StringField) key).getValue());
+    }
+
+    public int insert(Field key) {
+        return insert(((StringField) key).getValue());
+    }
+
+    public Field key(int id) {
+        return new StringField(new String(chars, offsets[id], lengths[id]), Type.STRING_LEN);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(slotIds, -1);
+            size = 0;
+            used = 0;
+        }
+    }
+}
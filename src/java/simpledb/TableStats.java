@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -66,6 +68,13 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+    private final int numPages;
+    private int numTuples;
+    private final TupleDesc td;
+    /** For each field, its histogram: an IntHistogram or a StringHistogram. */
+    private final Object[] histograms;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -77,14 +86,71 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.ioCostPerPage = ioCostPerPage;
+        this.td = file.getTupleDesc();
+        if (file instanceof HeapFile) {
+            numPages = ((HeapFile) file).numPages();
+        } else if (file instanceof BTreeFile) {
+            numPages = ((BTreeFile) file).numPages();
+        } else {
+            numPages = 0;
+        }
+        histograms = new Object[td.numFields()];
+
+        // one pass finds the range of each int field, which the int
+        // histograms need up front, and a second fills the histograms
+        int[] mins = new int[td.numFields()];
+        int[] maxs = new int[td.numFields()];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                numTuples++;
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        int v = ((IntField) t.getField(i)).getValue();
+                        mins[i] = Math.min(mins[i], v);
+                        maxs[i] = Math.max(maxs[i], v);
+                    }
+                }
+            }
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    histograms[i] = numTuples == 0 ? new IntHistogram(1, 0, 0)
+                            : new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]);
+                } else {
+                    histograms[i] = new StringHistogram(NUM_HIST_BINS);
+                }
+            }
+            it.rewind();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < td.numFields(); i++) {
+                    Field f = t.getField(i);
+                    if (f instanceof IntField) {
+                        ((IntHistogram) histograms[i]).addValue(((IntField) f).getValue());
+                    } else {
+                        ((StringHistogram) histograms[i]).addValue(((StringField) f).getValue());
+                    }
+                }
+            }
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+        } finally {
+            it.close();
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
@@ -100,8 +166,7 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
     }
 
     /**
@@ -114,8 +179,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -129,8 +193,14 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        if (op != Predicate.Op.EQUALS && op != Predicate.Op.NOT_EQUALS) {
+            // a range predicate against an unknown value
+            return 1.0 / 3;
+        }
+        double eq = histograms[field] instanceof IntHistogram
+                ? ((IntHistogram) histograms[field]).avgSelectivity()
+                : ((StringHistogram) histograms[field]).avgSelectivity();
+        return op == Predicate.Op.EQUALS ? eq : 1.0 - eq;
     }
 
     /**
@@ -147,16 +217,19 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+        if (constant instanceof IntField) {
+            return ((IntHistogram) histograms[field]).estimateSelectivity(op,
+                    ((IntField) constant).getValue());
+        }
+        return ((StringHistogram) histograms[field]).estimateSelectivity(op,
+                ((StringField) constant).getValue());
     }
 
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
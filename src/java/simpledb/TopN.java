@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY with LIMIT and OFFSET: it returns at most limit
+ * tuples of its child in sorted order, after skipping the first offset.
+ * <p>
+ * Only the best limit + offset tuples seen so far are kept, in a heap whose
+ * top is the worst of them, so memory does not grow with the input and each
+ * tuple that does not make the cut costs one comparison. If TopN sorts on a
+ * single field and the child is already in that order, it does not sort at
+ * all and stops reading the child once it has returned enough tuples.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int limit;
+    private final int offset;
+
+    private transient boolean streaming;
+    /** The tuples to return, in order, once the child has been read. */
+    private transient Tuple[] top;
+    /** The index of the next tuple of top, or the number of child tuples read when streaming. */
+    private transient int pos;
+
+    /**
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param offset
+     *            the number of tuples to skip before the first one returned
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, int offset, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, offset, child);
+    }
+
+    /**
+     * Constructor for sorting on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to sort on; later fields break ties of earlier
+     *            ones.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, int offset, OpIterator child) {
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public boolean isASC() {
+        return asc[0];
+    }
+
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    public boolean[] getAscs() {
+        return asc.clone();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        // a child sorted on the first field alone may have ties in any order
+        streaming = orderByFields.length == 1 && asc[0]
+                && SortMergeJoin.isSorted(child, orderByFields[0]);
+        top = null;
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        super.open();
+        if (streaming) {
+            child.rewind();
+        }
+        pos = 0;
+    }
+
+    /**
+     * Reads the whole child, keeping the best limit + offset tuples, and
+     * sorts those.
+     */
+    private void selectTop() throws DbException, TransactionAbortedException {
+        int n = (int) Math.min(Integer.MAX_VALUE - 8, (long) limit + offset);
+        TupleComparator order = new TupleComparator(orderByFields, asc);
+        // the heap's top is the tuple that would be dropped next
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.min(n, 1024) + 1,
+                Collections.reverseOrder(order));
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < n) {
+                heap.add(t);
+            } else if (n > 0 && order.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            }
+        }
+        ArrayList<Tuple> all = new ArrayList<Tuple>(heap);
+        order.sort(all);
+        top = all.subList(Math.min(offset, all.size()), all.size()).toArray(new Tuple[0]);
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (streaming) {
+            while (pos < offset && child.hasNext()) {
+                child.next();
+                pos++;
+            }
+            if (pos - offset >= limit || !child.hasNext()) {
+                return null;
+            }
+            pos++;
+            return child.next();
+        }
+        if (top == null) {
+            selectTop();
+        }
+        return pos < top.length ? top[pos++] : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,294 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to a fixed number of rows in columnar form, for
+ * operators running in batch mode (see {@link BatchOpIterator}). INT_TYPE
+ * columns are stored as int vectors; other columns as arrays of Fields.
+ * <p>
+ * A selection vector lists the rows that are still live, in order, so an
+ * operator like {@link Filter} can drop rows without moving any data. Row
+ * numbers passed to the accessors are physical row numbers, normally taken
+ * from the selection vector with {@link #row}.
+ * <p>
+ * A row read from a heap page remembers its page and slot, so tuples built
+ * from it carry the same RecordId a tuple-mode scan would give them.
+ */
+public class TupleBatch {
+
+    /** Number of rows in a batch unless the producer asks for another size. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private int capacity;
+    private int[][] ints;
+    private Field[][] fields;
+    private PageId[] pageIds;
+    private int[] slots;
+    private int[] sel;
+    private int numRows;
+    private int size;
+
+    /**
+     * Creates an empty batch with room for {@link #DEFAULT_CAPACITY} rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td       the schema of the rows
+     * @param capacity the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this(td, capacity, true);
+    }
+
+    /**
+     * @param allocate false to create a batch without column storage, which
+     *                 can only be used as a view; see {@link #project}
+     */
+    TupleBatch(TupleDesc td, int capacity, boolean allocate) {
+        this.td = td;
+        this.capacity = capacity;
+        this.sel = new int[capacity];
+        if (!allocate) {
+            return;
+        }
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                fields[i] = new Field[capacity];
+            }
+        }
+        this.pageIds = new PageId[capacity];
+        this.slots = new int[capacity];
+    }
+
+    /**
+     * Makes this batch a view of some columns of src, sharing src's column
+     * data and copying its selection vector. The view is only valid until
+     * src changes.
+     *
+     * @param src     the batch to view
+     * @param columns for each column of this batch, the column of src it shows
+     */
+    void project(TupleBatch src, int[] columns) {
+        if (ints == null || ints.length != columns.length) {
+            ints = new int[columns.length][];
+            fields = new Field[columns.length][];
+        }
+        for (int i = 0; i < columns.length; i++) {
+            ints[i] = src.ints[columns[i]];
+            fields[i] = src.fields[columns[i]];
+        }
+        pageIds = src.pageIds;
+        slots = src.slots;
+        if (sel.length < src.capacity) {
+            sel = new int[src.capacity];
+        }
+        capacity = src.capacity;
+        numRows = src.numRows;
+        size = src.size;
+        System.arraycopy(src.sel, 0, sel, 0, size);
+    }
+
+    /**
+     * @return the schema of the rows in this batch
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the maximum number of rows in this batch
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return numRows == capacity;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the physical row number of the i'th selected row
+     */
+    public int row(int i) {
+        return sel[i];
+    }
+
+    /**
+     * Returns the selection vector, whose first {@link #size()} entries are
+     * the selected rows. A consumer may overwrite it with a subsequence of
+     * itself and call {@link #setSize} to narrow the selection.
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Keeps only the first n entries of the selection vector.
+     */
+    public void setSize(int n) {
+        size = n;
+    }
+
+    /**
+     * Removes all rows.
+     */
+    public void clear() {
+        numRows = 0;
+        size = 0;
+    }
+
+    /**
+     * @return true if column i is stored as an int vector
+     */
+    public boolean isIntColumn(int i) {
+        return ints[i] != null;
+    }
+
+    /**
+     * @return the int vector of an INT_TYPE column, indexed by row number
+     */
+    public int[] intColumn(int i) {
+        return ints[i];
+    }
+
+    /**
+     * @return the value of an INT_TYPE column in the given row
+     */
+    public int getInt(int column, int row) {
+        return ints[column][row];
+    }
+
+    /**
+     * @return the value of a column in the given row; INT_TYPE values are
+     * boxed into a new IntField
+     */
+    public Field getField(int column, int row) {
+        if (ints[column] != null) {
+            return new IntField(ints[column][row]);
+        }
+        return fields[column][row];
+    }
+
+    /**
+     * @return the RecordId of the tuple in the given row, or null if the row
+     * did not come from a heap page
+     */
+    public RecordId getRecordId(int row) {
+        return pageIds[row] == null ? null : new RecordId(pageIds[row], slots[row]);
+    }
+
+    /**
+     * Builds a Tuple from the given row.
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(getRecordId(row));
+        for (int i = 0; i < td.numFields(); i++) {
+            t.setField(i, getField(i, row));
+        }
+        return t;
+    }
+
+    /**
+     * Appends an empty, selected row whose columns the caller then fills in
+     * with {@link #setInt} and {@link #setField}.
+     *
+     * @return the physical row number of the new row
+     */
+    public int addRow() {
+        int row = numRows++;
+        pageIds[row] = null;
+        sel[size++] = row;
+        return row;
+    }
+
+    /**
+     * Sets an INT_TYPE column of a row added with {@link #addRow()}.
+     */
+    public void setInt(int column, int row, int value) {
+        ints[column][row] = value;
+    }
+
+    /**
+     * Sets a column of a row added with {@link #addRow()}.
+     */
+    public void setField(int column, int row, Field f) {
+        if (ints[column] != null) {
+            ints[column][row] = ((IntField) f).getValue();
+        } else {
+            fields[column][row] = f;
+        }
+    }
+
+    /**
+     * Records the page and slot a row was read from.
+     */
+    public void setRecordId(int row, PageId pid, int slot) {
+        pageIds[row] = pid;
+        slots[row] = slot;
+    }
+
+    /**
+     * Appends a copy of a tuple.
+     */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < td.numFields(); i++) {
+            setField(i, row, t.getField(i));
+        }
+        RecordId rid = t.getRecordId();
+        if (rid != null) {
+            setRecordId(row, rid.getPageId(), rid.getTupleNumber());
+        }
+    }
+
+    /**
+     * Appends a copy of a row of another batch with the same schema.
+     */
+    public void addRow(TupleBatch src, int srcRow) {
+        int row = addRow();
+        copyColumns(src, srcRow, row, 0);
+        pageIds[row] = src.pageIds[srcRow];
+        slots[row] = src.slots[srcRow];
+    }
+
+    /**
+     * Appends the concatenation of a row of left and a row of right, as
+     * produced by a join.
+     */
+    public void addJoined(TupleBatch left, int leftRow, TupleBatch right, int rightRow) {
+        int row = addRow();
+        copyColumns(left, leftRow, row, 0);
+        copyColumns(right, rightRow, row, left.ints.length);
+    }
+
+    private void copyColumns(TupleBatch src, int srcRow, int row, int firstColumn) {
+        for (int i = 0; i < src.ints.length; i++) {
+            int c = firstColumn + i;
+            if (src.ints[i] != null) {
+                ints[c][row] = src.ints[i][srcRow];
+            } else {
+                fields[c][row] = src.fields[i][srcRow];
+            }
+        }
+    }
+}
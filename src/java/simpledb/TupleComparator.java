@@ -0,0 +1,202 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TupleComparator orders tuples on one or more key fields, each ascending or
+ * descending; later keys break ties of earlier ones. Keys are compared by
+ * value, with IntField and StringField handled directly rather than through
+ * the generic Field.compare, which takes two calls to order a pair.
+ * <p>
+ * The comparator can also reduce the leading keys of a tuple to a
+ * normalized key: a long whose unsigned order agrees with the tuple order,
+ * so that most comparisons during a sort are a single comparison of two
+ * longs, and only tuples whose normalized keys are equal are compared field
+ * by field. An INT_TYPE key takes 32 bits, with the sign bit flipped; a
+ * STRING_TYPE key takes the remaining bits, one byte per character, and
+ * ends the normalized key. Descending keys have their bits inverted.
+ */
+public class TupleComparator implements Comparator<Tuple> {
+
+    private final int[] fields;
+    private final boolean[] asc;
+
+    /**
+     * @param field
+     *            the field to sort on
+     * @param asc
+     *            true if the sort order is ascending
+     */
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * @param fields
+     *            the fields to sort on, most significant first
+     * @param asc
+     *            for each field, true if its sort order is ascending
+     */
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length) {
+            throw new IllegalArgumentException("need one sort order per key field");
+        }
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+    }
+
+    /**
+     * @return the key fields, most significant first
+     */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * @return for each key field, true if its sort order is ascending
+     */
+    public boolean[] getAsc() {
+        return asc.clone();
+    }
+
+    private static int compareFields(Field f1, Field f2) {
+        if (f1 instanceof IntField) {
+            return Integer.compare(((IntField) f1).getValue(), ((IntField) f2).getValue());
+        }
+        return ((StringField) f1).getValue().compareTo(((StringField) f2).getValue());
+    }
+
+    public int compare(Tuple t1, Tuple t2) {
+        for (int i = 0; i < fields.length; i++) {
+            int c = compareFields(t1.getField(fields[i]), t2.getField(fields[i]));
+            if (c != 0) {
+                return asc[i] ? c : -c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the normalized key of t: if the normalized key of t1 is below
+     *         that of t2 as an unsigned long, compare(t1, t2) < 0
+     */
+    public long normalizedKey(Tuple t) {
+        long key = 0;
+        int bits = 64;
+        for (int i = 0; i < fields.length; i++) {
+            Field f = t.getField(fields[i]);
+            if (f instanceof IntField) {
+                if (bits < 32) {
+                    break;
+                }
+                long u = (((IntField) f).getValue() ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+                if (!asc[i]) {
+                    u ^= 0xFFFFFFFFL;
+                }
+                bits -= 32;
+                key |= u << bits;
+            } else {
+                // a character of 255 or more becomes 255 and ends the
+                // prefix, since what follows it no longer decides the order
+                String s = ((StringField) f).getValue();
+                long prefix = 0;
+                boolean ended = false;
+                for (int j = 0; j < bits / 8; j++) {
+                    int c = ended || j >= s.length() ? 0 : Math.min(s.charAt(j), 255);
+                    ended |= c == 255;
+                    prefix = (prefix << 8) | c;
+                }
+                if (!asc[i]) {
+                    prefix = bits == 64 ? ~prefix : prefix ^ ((1L << bits) - 1);
+                }
+                key |= prefix;
+                break;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return true if tuples of type td with equal normalized keys are also
+     *         equal by compare, that is if all keys are INT_TYPE and there
+     *         are at most two of them
+     */
+    public boolean isNormalizedKeyExact(TupleDesc td) {
+        if (fields.length > 2) {
+            return false;
+        }
+        for (int field : fields) {
+            if (td.getFieldType(field) != Type.INT_TYPE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two tuples given their normalized keys, comparing fields
+     * only if the keys are equal and not exact.
+     */
+    int compare(long key1, Tuple t1, long key2, Tuple t2, boolean exact) {
+        int c = Long.compareUnsigned(key1, key2);
+        if (c != 0 || exact) {
+            return c;
+        }
+        return compare(t1, t2);
+    }
+
+    /** A tuple and its normalized key. */
+    private static final class Keyed {
+        final long key;
+        final Tuple tuple;
+
+        Keyed(long key, Tuple tuple) {
+            this.key = key;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * Sorts tuples stably in this order, like Collections.sort but
+     * comparing normalized keys. With a single INT_TYPE key, the keys and
+     * positions are packed into a long[] and sorted as primitives.
+     */
+    public void sort(List<Tuple> tuples) {
+        int n = tuples.size();
+        if (n < 2) {
+            return;
+        }
+        Tuple[] in = tuples.toArray(new Tuple[n]);
+        Tuple[] out = new Tuple[n];
+        TupleDesc td = in[0].getTupleDesc();
+        if (fields.length == 1 && td.getFieldType(fields[0]) == Type.INT_TYPE) {
+            // the key is in the high half and the position in the low half,
+            // which keeps equal keys in input order
+            long[] packed = new long[n];
+            for (int i = 0; i < n; i++) {
+                packed[i] = (normalizedKey(in[i]) | i) ^ Long.MIN_VALUE;
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < n; i++) {
+                out[i] = in[(int) packed[i]];
+            }
+        } else {
+            final boolean exact = isNormalizedKeyExact(td);
+            Keyed[] keyed = new Keyed[n];
+            for (int i = 0; i < n; i++) {
+                keyed[i] = new Keyed(normalizedKey(in[i]), in[i]);
+            }
+            Arrays.sort(keyed, new Comparator<Keyed>() {
+                public int compare(Keyed a, Keyed b) {
+                    return TupleComparator.this.compare(a.key, a.tuple, b.key, b.tuple, exact);
+                }
+            });
+            for (int i = 0; i < n; i++) {
+                out[i] = keyed[i].tuple;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            tuples.set(i, out[i]);
+        }
+    }
+}
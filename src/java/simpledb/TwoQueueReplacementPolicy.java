@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Newly loaded pages enter a FIFO queue,
+ * A1in, and are not promoted by hits there, so a sequential scan only ever
+ * churns A1in. Pages evicted from A1in leave their id in a ghost queue, A1out;
+ * a page that is reloaded while its id is still in A1out has proven it is
+ * reused and goes straight to Am, which holds the hot working set.
+ * <p>
+ * As in {@link ClockReplacementPolicy}, a hit only sets the page's reference
+ * bit, without taking the lock. Am is approximately LRU: eviction moves a
+ * page whose bit is set to the back of Am, clearing the bit, and takes the
+ * first page at the front whose bit is clear.
+ *
+ * @Threadsafe
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    private final int kIn;
+    private final int kOut;
+    /** The reference bits of the pages in A1in and Am. */
+    private final ConcurrentHashMap<PageId, AtomicBoolean> referenced =
+            new ConcurrentHashMap<PageId, AtomicBoolean>();
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<PageId>();
+    private final LinkedHashMap<PageId, Boolean> a1out;
+
+    /**
+     * @param capacity the maximum number of pages the buffer pool caches
+     */
+    public TwoQueueReplacementPolicy(int capacity) {
+        this.kIn = Math.max(1, capacity / 4);
+        this.kOut = Math.max(1, capacity / 2);
+        this.a1out = new LinkedHashMap<PageId, Boolean>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+                return size() > kOut;
+            }
+        };
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (referenced.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (a1out.remove(pid) != null) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+        referenced.put(pid, new AtomicBoolean());
+    }
+
+    public void pageAccessed(PageId pid) {
+        AtomicBoolean bit = referenced.get(pid);
+        if (bit != null) {
+            // ignored while the page is in A1in
+            bit.lazySet(true);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (referenced.remove(pid) != null) {
+            a1in.remove(pid);
+            am.remove(pid);
+        }
+    }
+
+    public synchronized PageId evict() {
+        if (a1in.size() > kIn || (am.isEmpty() && !a1in.isEmpty())) {
+            Iterator<PageId> it = a1in.iterator();
+            PageId victim = it.next();
+            it.remove();
+            referenced.remove(victim);
+            a1out.put(victim, Boolean.TRUE);
+            return victim;
+        }
+        // the sweep clears every bit it passes, so it ends within two passes
+        while (!am.isEmpty()) {
+            Iterator<PageId> it = am.iterator();
+            PageId pid = it.next();
+            it.remove();
+            if (referenced.get(pid).getAndSet(false)) {
+                am.add(pid);
+            } else {
+                referenced.remove(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+}
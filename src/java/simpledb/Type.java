@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf, int offset) {
+            buf.putInt(offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,31 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf, int offset) {
+            // same layout as StringField.serialize: length, low byte of each char, zero padding
+            String s = ((StringField) f).getValue();
+            int strLen = Math.min(s.length(), STRING_LEN);
+            buf.putInt(offset, strLen);
+            int i = 0;
+            for (; i < strLen; i++) {
+                buf.put(offset + 4 + i, (byte) s.charAt(i));
+            }
+            for (; i < STRING_LEN; i++) {
+                buf.put(offset + 4 + i, (byte) 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +96,23 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents
+   *   are read in place from buf, starting at the given absolute offset.
+   *   Does not move the position of buf.
+   * @param buf the buffer holding the serialized field
+   * @param offset the offset of the first byte of the field in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Writes a field of this type into buf at the given absolute offset, in
+   *   the same format as {@link Field#serialize}. Does not move the position
+   *   of buf.
+   * @param f the field to write; must be of this type
+   * @param buf the buffer to write into
+   * @param offset the offset of the first byte of the field in buf
+   */
+    public abstract void write(Field f, ByteBuffer buf, int offset);
+
 }
@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * Unbatch runs its child in batch mode and hands the rows on one Tuple at a
+ * time, so that a tuple-mode operator, or the caller of a query, can consume
+ * a batched subtree.
+ */
+public class Unbatch extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchOpIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    /**
+     * @param child the operator to run in batch mode; tuple-mode operators are
+     *              wrapped in a {@link BatchAdapter}
+     */
+    public Unbatch(OpIterator child) {
+        this.child = BatchAdapter.of(child);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.size()) {
+            batch = child.nextBatch();
+            if (batch == null) {
+                return null;
+            }
+            pos = 0;
+        }
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = BatchAdapter.of(children[0]);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+    private File file;
+    private DbFileChannel channel;
+
+    @Before public void createChannel() throws Exception {
+        file = File.createTempFile("channel", ".dat");
+        file.deleteOnExit();
+        channel = new DbFileChannel(file);
+    }
+
+    @After public void closeChannel() throws Exception {
+        channel.close();
+        file.delete();
+    }
+
+    private static byte[] page(int value) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    /**
+     * Unit test for DbFileChannel.read() and DbFileChannel.write()
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        // writing past the end extends the file
+        channel.write(page(2), 2 * pageSize);
+        channel.write(ByteBuffer.wrap(page(1)), pageSize);
+        assertEquals(3 * pageSize, channel.size());
+
+        byte[] dst = new byte[pageSize];
+        assertTrue(channel.read(dst, pageSize));
+        assertArrayEquals(page(1), dst);
+        assertTrue(channel.read(dst, 2 * pageSize));
+        assertArrayEquals(page(2), dst);
+
+        // a direct source is written as is
+        ByteBuffer direct = ByteBuffer.allocateDirect(pageSize);
+        direct.put(page(3)).flip();
+        channel.write(direct, 0);
+        assertEquals(0, direct.position());
+        assertTrue(channel.read(dst, 0));
+        assertArrayEquals(page(3), dst);
+
+        // reads of other sizes, and reads past the end
+        byte[] small = new byte[10];
+        assertTrue(channel.read(small, pageSize + 5));
+        assertArrayEquals(Arrays.copyOf(page(1), 10), small);
+        assertFalse(channel.read(dst, 3 * pageSize - 1));
+    }
+
+    /**
+     * Unit test for DbFileChannel.append()
+     */
+    @Test public void append() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        assertEquals(0, channel.append(page(1)));
+        assertEquals(pageSize, channel.append(page(2)));
+        assertEquals(2 * pageSize, channel.size());
+        byte[] dst = new byte[pageSize];
+        assertTrue(channel.read(dst, pageSize));
+        assertArrayEquals(page(2), dst);
+    }
+
+    /**
+     * Unit test for the direct buffers DbFileChannel keeps for reuse: only
+     * page-sized buffers are pooled, and no more than MAX_POOLED_BUFFERS.
+     */
+    @Test public void bufferPoolCap() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer odd = DbFileChannel.borrowBuffer(10);
+        assertFalse(odd.isDirect());
+        assertTrue(DbFileChannel.borrowBuffer(pageSize).isDirect());
+
+        for (int i = 0; i < DbFileChannel.MAX_POOLED_BUFFERS + 10; i++) {
+            DbFileChannel.returnBuffer(ByteBuffer.allocateDirect(pageSize));
+        }
+        assertEquals(DbFileChannel.MAX_POOLED_BUFFERS, DbFileChannel.pooledBuffers());
+        DbFileChannel.returnBuffer(odd);
+        assertEquals(DbFileChannel.MAX_POOLED_BUFFERS, DbFileChannel.pooledBuffers());
+
+        // a borrowed buffer comes out of the pool cleared
+        ByteBuffer buf = DbFileChannel.borrowBuffer(pageSize);
+        assertEquals(DbFileChannel.MAX_POOLED_BUFFERS - 1, DbFileChannel.pooledBuffers());
+        assertEquals(0, buf.position());
+        assertEquals(pageSize, buf.limit());
+        DbFileChannel.returnBuffer(buf);
+    }
+
+    /**
+     * Unit test for DbFileChannel.close(): the file is reopened on next use.
+     */
+    @Test public void closeAndReopen() throws Exception {
+        channel.append(page(1));
+        channel.close();
+        // closing twice is harmless
+        channel.close();
+
+        byte[] dst = new byte[BufferPool.getPageSize()];
+        assertTrue(channel.read(dst, 0));
+        assertArrayEquals(page(1), dst);
+        channel.close();
+        assertEquals(BufferPool.getPageSize(), channel.append(page(2)));
+        assertEquals(2 * BufferPool.getPageSize(), channel.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FieldHashTableTest extends SimpleDbTestBase {
+
+    /**
+     * Inserts random keys, with many repeats, into table and checks the ids
+     * against a HashMap.
+     */
+    private void checkAgainstHashMap(FieldHashTable table, Field[] keys) {
+        HashMap<Field, Integer> expected = new HashMap<Field, Integer>();
+        for (Field key : keys) {
+            Integer id = expected.get(key);
+            if (id == null) {
+                assertEquals(-1, table.find(key));
+                id = expected.size();
+                expected.put(key, id);
+            }
+            assertEquals(id.intValue(), table.insert(key));
+        }
+        assertEquals(expected.size(), table.size());
+        for (Field key : expected.keySet()) {
+            int id = table.find(key);
+            assertEquals(expected.get(key).intValue(), id);
+            assertEquals(key, table.key(id));
+        }
+    }
+
+    /**
+     * Unit test for IntHashTable.insert() and IntHashTable.find()
+     */
+    @Test public void intKeys() {
+        Random r = new Random(1);
+        Field[] keys = new Field[50000];
+        for (int i = 0; i < keys.length; i++) {
+            // include negative keys and keys that differ only in high bits
+            keys[i] = new IntField(r.nextBoolean() ? r.nextInt(10000) - 5000 : r.nextInt(2000) << 20);
+        }
+        FieldHashTable table = FieldHashTable.create(Type.INT_TYPE);
+        assertTrue(table instanceof IntHashTable);
+        checkAgainstHashMap(table, keys);
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.find(keys[0]));
+        assertEquals(0, ((IntHashTable) table).insert(7));
+        assertEquals(7, ((IntHashTable) table).intKey(0));
+    }
+
+    /**
+     * Unit test for StringHashTable.insert() and StringHashTable.find()
+     */
+    @Test public void stringKeys() {
+        Random r = new Random(2);
+        Field[] keys = new Field[20000];
+        for (int i = 0; i < keys.length; i++) {
+            int n = r.nextInt(3000);
+            // keys that are prefixes of each other, and the empty string
+            keys[i] = new StringField(n == 0 ? "" : "k" + n, Type.STRING_LEN);
+        }
+        FieldHashTable table = FieldHashTable.create(Type.STRING_TYPE);
+        assertTrue(table instanceof StringHashTable);
+        checkAgainstHashMap(table, keys);
+
+        table.clear();
+        assertEquals(-1, table.find(keys[0]));
+        checkAgainstHashMap(table, keys);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FieldHashTableTest.class);
+    }
+}
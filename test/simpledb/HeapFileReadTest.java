@@ -3,6 +3,8 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -121,6 +123,89 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.setMemoryMapped(): scans through the mapping
+     * see the same tuples, and the mapping grows with the file.
+     */
+    @Test
+    public void memoryMappedScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile mapped = SystemTestUtil.createRandomHeapFile(2, 520, null, tuples);
+        mapped.setMemoryMapped(true);
+        assertTrue(mapped.isMemoryMapped());
+        SystemTestUtil.matchTuples(mapped, tid, tuples);
+
+        HeapPage page = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 1));
+        assertFalse(page.isOnHeap());
+
+        // fill the last page and spill onto new ones, which must be mapped
+        // from beyond the end of the original mapping
+        int numPages = mapped.numPages();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            mapped.insertTuple(tid, t);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        assertTrue(mapped.numPages() > numPages);
+        SystemTestUtil.matchTuples(mapped, tid, tuples);
+    }
+
+    /**
+     * Unit test for HeapFile.iterator(): runs of empty pages, including at
+     * the start and end of the file, are stepped over.
+     */
+    @Test
+    public void skipsEmptyPages() throws Exception {
+        File f = File.createTempFile("sparse", ".dat");
+        f.deleteOnExit();
+        boolean[] full = { false, true, false, false, false, true, false, false };
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        // pages are built against hf, which has the same schema
+        FileOutputStream out = new FileOutputStream(f);
+        for (int i = 0; i < full.length; i++) {
+            HeapPage page = new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData());
+            if (full[i]) {
+                page.insertTuple(Utility.getHeapTuple(new int[] { i, -i }));
+                tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+            }
+            out.write(page.getPageData());
+        }
+        out.close();
+        HeapFile sparse = new HeapFile(f, td);
+        Database.getCatalog().addTable(sparse, "sparse");
+        assertEquals(full.length, sparse.numPages());
+        SystemTestUtil.matchTuples(sparse, tid, tuples);
+
+        DbFileIterator it = sparse.iterator(tid);
+        it.open();
+        assertTrue(it.hasNext());
+        it.next();
+        assertTrue(it.hasNext());
+        it.next();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for BufferPool.getPage(): once the pool is full, each page
+     * read in takes the arena frame of the page it evicts.
+     */
+    @Test
+    public void pagesStayInFramesAfterTurnover() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        assertTrue(big.numPages() > 8);
+        BufferPool pool = Database.resetBufferPool(4);
+        try {
+            for (int i = 0; i < big.numPages(); i++) {
+                HeapPage page = (HeapPage) pool.getPage(tid,
+                        new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+                assertFalse(page.isOnHeap());
+            }
+        } finally {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.File;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,45 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.addTuple() reusing a slot freed by deleteTuple()
+     */
+    @Test public void addTupleReusesFreedSlot() throws Exception {
+        Tuple first = null;
+        for (int i = 0; i < 2 * 504; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i == 0)
+                first = t;
+        }
+        assertEquals(2, empty.numPages());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(2, empty.numPages());
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+    }
+
+    /**
+     * Unit test for HeapFile.drop(): the free-space map sidecar goes with
+     * the file, and closing a dropped file does not write a new one.
+     */
+    @Test public void dropDeletesFreeSpaceMap() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        File sidecar = new File(empty.getFile().getPath() + FreeSpaceMap.SUFFIX);
+        empty.close();
+        assertTrue(sidecar.exists());
+
+        empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertSame(empty, Database.getCatalog().removeTable(empty.getId()));
+        empty.drop();
+        assertFalse(sidecar.exists());
+        assertFalse(empty.getFile().exists());
+        empty.close();
+        assertFalse(sidecar.exists());
+    }
+
     /**
      * JUnit suite target
      */
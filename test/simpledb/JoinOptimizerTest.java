@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Vector;
 
 import org.junit.Assert;
@@ -621,4 +622,260 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Order a 12-way star join, where every set of joins connects its
+     * tables, to confirm that the dynamic program only builds plans without
+     * cross products and finishes quickly.
+     */
+    @Test(timeout = 10000)
+    public void starOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        final int IO_COST = 103;
+        final int DIMENSIONS = 12;
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        TransactionId tid = new TransactionId();
+
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, 20000, 100, null, null, "c");
+        Database.getCatalog().addTable(fact, "fact");
+        stats.put("fact", new TableStats(fact.getId(), IO_COST));
+        filterSelectivities.put("fact", 1.0);
+        StringBuilder query = new StringBuilder("SELECT COUNT(fact.c0) FROM fact");
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < DIMENSIONS; i++) {
+            String name = "dim" + i;
+            HeapFile dim = SystemTestUtil.createRandomHeapFile(2, 10 * (i + 1), 100, null, null, "c");
+            Database.getCatalog().addTable(dim, name);
+            stats.put(name, new TableStats(dim.getId(), IO_COST));
+            filterSelectivities.put(name, 1.0);
+            nodes.add(new LogicalJoinNode("fact", name, "c" + (i % 2), "c0",
+                    Predicate.Op.EQUALS));
+            query.append(", ").append(name);
+            where.append(i == 0 ? " WHERE " : " AND ").append("fact.c").append(i % 2)
+                    .append(" = ").append(name).append(".c0");
+        }
+        Collections.shuffle(nodes);
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                query.toString() + where.toString() + ";"), nodes);
+
+        long start = System.currentTimeMillis();
+        Vector<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue("ordering took " + elapsed + " ms", elapsed < 5000);
+
+        assertLeftDeep(nodes, result, DIMENSIONS + 1);
+    }
+
+    /**
+     * Checks that result orders nodes so that every join after the first
+     * joins one table already in the plan, and that it joins all the tables.
+     */
+    private static void assertLeftDeep(Vector<LogicalJoinNode> nodes,
+            Vector<LogicalJoinNode> result, int tables) {
+        Assert.assertEquals(nodes.size(), result.size());
+        HashSet<String> joined = new HashSet<String>();
+        joined.add(result.get(0).t1Alias);
+        joined.add(result.get(0).t2Alias);
+        for (LogicalJoinNode n : result.subList(1, result.size())) {
+            Assert.assertTrue(joined.contains(n.t1Alias) != joined.contains(n.t2Alias));
+            joined.add(n.t1Alias);
+            joined.add(n.t2Alias);
+        }
+        Assert.assertEquals(tables, joined.size());
+    }
+
+    /**
+     * Checks that result orders nodes so that every join joins two subplans
+     * without tables in common, which may both be joins, and that it joins
+     * all the tables.
+     */
+    private static void assertJoinsAll(Vector<LogicalJoinNode> nodes,
+            Vector<LogicalJoinNode> result, int tables) {
+        Assert.assertEquals(nodes.size(), result.size());
+        // the subplan each table is in, named after one of its tables
+        HashMap<String, String> subplans = new HashMap<String, String>();
+        for (LogicalJoinNode n : result) {
+            String s1 = subplans.containsKey(n.t1Alias) ? subplans.get(n.t1Alias) : n.t1Alias;
+            String s2 = subplans.containsKey(n.t2Alias) ? subplans.get(n.t2Alias) : n.t2Alias;
+            Assert.assertFalse(s1.equals(s2));
+            subplans.put(n.t1Alias, s1);
+            subplans.put(n.t2Alias, s2);
+            for (java.util.Map.Entry<String, String> e : subplans.entrySet()) {
+                if (e.getValue().equals(s2)) {
+                    e.setValue(s1);
+                }
+            }
+        }
+        Assert.assertEquals(tables, subplans.size());
+        Assert.assertEquals(1, new HashSet<String>(subplans.values()).size());
+    }
+
+    /** @return true if a join of plan joins two subplans that are both joins */
+    private static boolean isBushy(Vector<LogicalJoinNode> plan) {
+        HashSet<String> joined = new HashSet<String>();
+        for (LogicalJoinNode n : plan) {
+            if (!joined.isEmpty() && !joined.contains(n.t1Alias) && !joined.contains(n.t2Alias)) {
+                // a join that starts a second subplan
+                return true;
+            }
+            joined.add(n.t1Alias);
+            joined.add(n.t2Alias);
+        }
+        return false;
+    }
+
+    /**
+     * Creates a snowflake schema: a fact table joined to dims dimension
+     * tables of different sizes, each joined to a smaller table of its own.
+     *
+     * @return the query joining all the tables, whose joins are added to
+     *         nodes in shuffled order
+     */
+    private static String createSnowflake(int dims, HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, Vector<LogicalJoinNode> nodes)
+            throws IOException, DbException, TransactionAbortedException {
+        final int IO_COST = 103;
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, null, "c");
+        Database.getCatalog().addTable(fact, "fact");
+        stats.put("fact", new TableStats(fact.getId(), IO_COST));
+        filterSelectivities.put("fact", 1.0);
+        StringBuilder from = new StringBuilder("fact");
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < dims; i++) {
+            String dim = "dim" + i, sub = "sub" + i;
+            HeapFile d = SystemTestUtil.createRandomHeapFile(2, 200 * (i % 5 + 1), 1000, null, null, "c");
+            HeapFile s = SystemTestUtil.createRandomHeapFile(2, 20 * (i % 3 + 1), 1000, null, null, "c");
+            Database.getCatalog().addTable(d, dim);
+            Database.getCatalog().addTable(s, sub);
+            stats.put(dim, new TableStats(d.getId(), IO_COST));
+            stats.put(sub, new TableStats(s.getId(), IO_COST));
+            // selective filters on some dimensions make their order matter
+            filterSelectivities.put(dim, i % 2 == 0 ? 0.1 : 1.0);
+            filterSelectivities.put(sub, 1.0);
+            nodes.add(new LogicalJoinNode("fact", dim, "c" + (i % 2), "c0", Predicate.Op.EQUALS));
+            nodes.add(new LogicalJoinNode(dim, sub, "c1", "c0", Predicate.Op.EQUALS));
+            from.append(", ").append(dim).append(", ").append(sub);
+            where.append(i == 0 ? " WHERE " : " AND ").append("fact.c").append(i % 2)
+                    .append(" = ").append(dim).append(".c0 AND ").append(dim)
+                    .append(".c1 = ").append(sub).append(".c0");
+        }
+        Collections.shuffle(nodes);
+        return "SELECT COUNT(fact.c0) FROM " + from + where + ";";
+    }
+
+    /**
+     * The heuristic search finds a plan close in cost to the best left-deep
+     * one the dynamic program finds, on a query small enough for both.
+     */
+    @Test
+    public void heuristicOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        String query = createSnowflake(5, stats, filterSelectivities, nodes);
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), query), nodes);
+
+        j.setBushy(false);
+        CostCard dp = j.planJoins(stats, filterSelectivities, true, new PlanCache());
+        CostCard heuristic = j.planJoins(stats, filterSelectivities, false, new PlanCache());
+        assertLeftDeep(nodes, dp.plan, 11);
+        assertLeftDeep(nodes, heuristic.plan, 11);
+        Assert.assertTrue("heuristic cost " + heuristic.cost + ", best " + dp.cost,
+                heuristic.cost <= dp.cost * 1.2);
+    }
+
+    /**
+     * A query with more joins than {@link JoinOptimizer#dpJoins()} is
+     * ordered heuristically, and quickly.
+     */
+    @Test(timeout = 30000)
+    public void manyTablesOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        String query = createSnowflake(12, stats, filterSelectivities, nodes);
+        Assert.assertTrue(nodes.size() > JoinOptimizer.dpJoins());
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), query), nodes);
+
+        long start = System.currentTimeMillis();
+        Vector<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue("ordering took " + elapsed + " ms", elapsed < 10000);
+        assertLeftDeep(nodes, result, 25);
+    }
+
+    /**
+     * On a snowflake schema, joining each dimension to its own small table
+     * before joining it to the fact table is cheaper than any left-deep
+     * plan.
+     */
+    @Test
+    public void bushyOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        String query = createSnowflake(4, stats, filterSelectivities, nodes);
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), query), nodes);
+
+        j.setBushy(false);
+        CostCard leftDeep = j.planJoins(stats, filterSelectivities, true, new PlanCache());
+        Assert.assertFalse(isBushy(leftDeep.plan));
+        j.setBushy(true);
+        CostCard bushy = j.planJoins(stats, filterSelectivities, true, new PlanCache());
+        Assert.assertTrue(isBushy(bushy.plan));
+        assertJoinsAll(nodes, bushy.plan, 9);
+        Assert.assertTrue("bushy cost " + bushy.cost + ", left-deep " + leftDeep.cost,
+                bushy.cost < leftDeep.cost);
+        assertJoinsAll(nodes, j.orderJoins(stats, filterSelectivities, false), 9);
+    }
+
+    /**
+     * On a chain of three tables and a much larger one, joining the large
+     * table to its neighbour on its own, as the only bushy plan must, makes
+     * a large intermediate result. Bushy and left-deep steps are costed
+     * alike, so the left-deep plan wins.
+     */
+    @Test
+    public void leftDeepBeatsBushyTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        final int IO_COST = 103;
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        int[] rows = { 1000, 1000, 1000, 20000 };
+        for (int i = 0; i < rows.length; i++) {
+            String name = "chain" + i;
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows[i], 1000, null, null, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), IO_COST));
+            filterSelectivities.put(name, 1.0);
+            if (i > 0) {
+                nodes.add(new LogicalJoinNode("chain" + (i - 1), name, "c1", "c0",
+                        Predicate.Op.EQUALS));
+            }
+        }
+        String query = "SELECT COUNT(chain0.c0) FROM chain0, chain1, chain2, chain3"
+                + " WHERE chain0.c1 = chain1.c0 AND chain1.c1 = chain2.c0"
+                + " AND chain2.c1 = chain3.c0;";
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), query), nodes);
+
+        j.setBushy(false);
+        CostCard leftDeep = j.planJoins(stats, filterSelectivities, true, new PlanCache());
+        j.setBushy(true);
+        CostCard best = j.planJoins(stats, filterSelectivities, true, new PlanCache());
+        Assert.assertFalse(isBushy(best.plan));
+        assertLeftDeep(nodes, best.plan, 4);
+        Assert.assertEquals(leftDeep.cost, best.cost, 1e-6);
+    }
 }
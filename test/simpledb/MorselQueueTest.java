@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MorselQueueTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for MorselQueue.take() from several threads at once
+     */
+    @Test public void everyPageOnce() throws Exception {
+        final MorselQueue morsels = new MorselQueue(1000, 7);
+        assertEquals(143, morsels.numMorsels());
+        final AtomicIntegerArray seen = new AtomicIntegerArray(1000);
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(() -> {
+                int first;
+                while ((first = morsels.take()) >= 0) {
+                    for (int p = first; p < morsels.end(first); p++) {
+                        seen.incrementAndGet(p);
+                    }
+                }
+                return null;
+            });
+        }
+        MorselQueue.runAll(tasks);
+        for (int p = 0; p < 1000; p++) {
+            assertEquals(1, seen.get(p));
+        }
+        assertEquals(-1, morsels.take());
+    }
+
+    /**
+     * Unit test for MorselQueue.runAll() when a task fails
+     */
+    @Test public void failure() throws Exception {
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        tasks.add(() -> null);
+        tasks.add(() -> {
+            throw new DbException("morsel failed");
+        });
+        try {
+            MorselQueue.runAll(tasks);
+            fail("expected DbException");
+        } catch (DbException e) {
+            assertEquals("morsel failed", e.getMessage());
+        }
+    }
+
+    /**
+     * Unit test for MorselQueue.iterator(): iterators over one queue, read
+     * in turns, together return every tuple of the file once
+     */
+    @Test public void iteratorsShareFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        TransactionId tid = new TransactionId();
+        MorselQueue morsels = new MorselQueue(file.numPages(), 1);
+        DbFileIterator[] its = { morsels.iterator(file, tid), morsels.iterator(file, tid) };
+        ArrayList<ArrayList<Integer>> seen = new ArrayList<ArrayList<Integer>>();
+        TupleBatch batch = new TupleBatch(file.getTupleDesc());
+        its[0].open();
+        its[1].open();
+        for (int turn = 0; its[0].hasNext() || its[1].hasNext(); turn++) {
+            if (turn % 2 == 0) {
+                if (its[0].hasNext())
+                    seen.add(SystemTestUtil.tupleToList(its[0].next()));
+            } else if (its[1].fillBatch(batch)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    seen.add(SystemTestUtil.tupleToList(batch.getTuple(batch.row(i))));
+                }
+                batch.clear();
+            }
+        }
+        its[0].close();
+        its[1].close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(seen, (a, b) -> a.toString().compareTo(b.toString()));
+        Collections.sort(tuples, (a, b) -> a.toString().compareTo(b.toString()));
+        assertEquals(tuples, seen);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MorselQueueTest.class);
+    }
+}
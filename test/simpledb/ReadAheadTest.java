@@ -0,0 +1,173 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /** Holds submitted reads until told to run them. */
+    private static class StepExecutor extends AbstractExecutorService {
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        int submitted = 0;
+
+        public void execute(Runnable r) {
+            queued.add(r);
+            submitted++;
+        }
+
+        /** Runs every queued read, completing its future. */
+        void runAll() {
+            for (Runnable r : queued) {
+                r.run();
+            }
+            queued.clear();
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<Runnable>(queued);
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    private HeapFile hf;
+    private StepExecutor executor;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 20 * 504, null, null);
+        executor = new StepExecutor();
+    }
+
+    /**
+     * Unit test for ReadAhead.advance(): reaching a page that is still being
+     * read doubles the window, up to the largest window.
+     */
+    @Test public void growsOnMiss() {
+        ReadAhead ra = new ReadAhead(hf.getId(), hf.numPages(), 8, executor);
+        ra.advance(0);
+        assertEquals(2, ra.getWindow());
+        assertEquals(2, executor.submitted);
+        ra.advance(1);
+        assertEquals(4, ra.getWindow());
+        // pages 1 to 5 have been issued
+        assertEquals(5, executor.submitted);
+        ra.advance(2);
+        assertEquals(8, ra.getWindow());
+        ra.advance(3);
+        assertEquals(8, ra.getWindow());
+        ra.close();
+    }
+
+    /**
+     * Unit test for ReadAhead.advance(): after a full window of pages that
+     * were already read, the window shrinks by one.
+     */
+    @Test public void shrinksAfterReadyStreak() {
+        ReadAhead ra = new ReadAhead(hf.getId(), hf.numPages(), 4, executor);
+        ra.advance(0);
+        ra.advance(1);
+        assertEquals(4, ra.getWindow());
+        for (int pg = 2; pg < 5; pg++) {
+            executor.runAll();
+            ra.advance(pg);
+            assertEquals(4, ra.getWindow());
+        }
+        executor.runAll();
+        ra.advance(5);
+        assertEquals(3, ra.getWindow());
+        executor.runAll();
+        ra.close();
+    }
+
+    /**
+     * Unit test for ReadAhead.defaultMaxWindow(): the property sets the
+     * largest window, which is still capped at a quarter of the buffer pool.
+     */
+    @Test public void maxWindowProperty() {
+        String old = System.getProperty(ReadAhead.MAX_WINDOW_PROPERTY);
+        try {
+            Database.resetBufferPool(40);
+            System.setProperty(ReadAhead.MAX_WINDOW_PROPERTY, "3");
+            assertEquals(3, ReadAhead.defaultMaxWindow());
+            System.setProperty(ReadAhead.MAX_WINDOW_PROPERTY, "1000");
+            assertEquals(10, ReadAhead.defaultMaxWindow());
+            System.setProperty(ReadAhead.MAX_WINDOW_PROPERTY, "0");
+            assertEquals(0, ReadAhead.defaultMaxWindow());
+        } finally {
+            if (old == null) {
+                System.clearProperty(ReadAhead.MAX_WINDOW_PROPERTY);
+            } else {
+                System.setProperty(ReadAhead.MAX_WINDOW_PROPERTY, old);
+            }
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    /**
+     * Unit test for ReadAhead.advance(): a largest window of 0 issues no
+     * reads.
+     */
+    @Test public void zeroDisables() {
+        ReadAhead ra = new ReadAhead(hf.getId(), hf.numPages(), 0, executor);
+        for (int pg = 0; pg < hf.numPages(); pg++) {
+            ra.advance(pg);
+        }
+        assertEquals(0, executor.submitted);
+        ra.close();
+    }
+
+    /**
+     * Unit test for ReadAhead.advance(): a failed read stops the read-ahead
+     * for the rest of the scan, and close resets it.
+     */
+    @Test public void stopsAfterFailure() {
+        // no such table, so every read fails
+        ReadAhead ra = new ReadAhead(hf.getId() + 1, 20, 4, executor);
+        ra.advance(0);
+        executor.runAll();
+        ra.advance(1);
+        assertTrue(ra.hasFailed());
+        int submitted = executor.submitted;
+        ra.advance(2);
+        assertEquals(submitted, executor.submitted);
+
+        ra.close();
+        assertFalse(ra.hasFailed());
+        ra.advance(0);
+        assertTrue(executor.submitted > submitted);
+        ra.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static HeapPageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Load hot pages, evict and reload them so they look reused, then stream
+     * cold pages through the policy the way a sequential scan would. Returns
+     * how many of the hot pages survived.
+     */
+    private static int hotPagesAfterScan(ReplacementPolicy policy, int capacity) {
+        Set<PageId> cached = new HashSet<PageId>();
+        int hot = capacity / 2;
+        for (int i = 0; i < hot; i++) {
+            policy.pageLoaded(pid(i));
+        }
+        for (int i = 0; i < hot; i++) {
+            policy.evict();
+        }
+        for (int i = 0; i < hot; i++) {
+            policy.pageLoaded(pid(i));
+            policy.pageAccessed(pid(i));
+            cached.add(pid(i));
+        }
+        for (int i = 1000; i < 1000 + 10 * capacity; i++) {
+            if (cached.size() >= capacity) {
+                PageId victim = policy.evict();
+                assertTrue(cached.remove(victim));
+            }
+            policy.pageLoaded(pid(i));
+            cached.add(pid(i));
+            // scanned pages are only ever touched once
+        }
+        int survivors = 0;
+        for (int i = 0; i < hot; i++) {
+            if (cached.contains(pid(i))) {
+                survivors++;
+            }
+        }
+        return survivors;
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy.evict(): a page whose reference
+     * bit is set gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy policy = new ClockReplacementPolicy(3);
+        policy.pageLoaded(pid(0));
+        policy.pageLoaded(pid(1));
+        policy.pageLoaded(pid(2));
+        // the first sweep clears every bit and returns frame 0
+        assertEquals(pid(0), policy.evict());
+        policy.pageLoaded(pid(3));
+        policy.pageAccessed(pid(1));
+        assertEquals(pid(2), policy.evict());
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy.evict() and
+     * LruKReplacementPolicy.evict(): a hit, which is only recorded, still
+     * saves its page from being the next victim.
+     */
+    @Test public void hitsReorderAtEviction() {
+        ReplacementPolicy lru = new LruKReplacementPolicy(3, 1);
+        lru.pageLoaded(pid(0));
+        lru.pageLoaded(pid(1));
+        lru.pageLoaded(pid(2));
+        lru.pageAccessed(pid(0));
+        assertEquals(pid(1), lru.evict());
+        assertEquals(pid(2), lru.evict());
+        assertEquals(pid(0), lru.evict());
+
+        ReplacementPolicy twoQ = new TwoQueueReplacementPolicy(8);
+        for (int i = 0; i < 2; i++) {
+            twoQ.pageLoaded(pid(i));
+        }
+        for (int i = 0; i < 2; i++) {
+            twoQ.evict();
+        }
+        // reloaded from A1out, so both go to Am
+        twoQ.pageLoaded(pid(0));
+        twoQ.pageLoaded(pid(1));
+        twoQ.pageAccessed(pid(0));
+        assertEquals(pid(1), twoQ.evict());
+        assertEquals(pid(0), twoQ.evict());
+    }
+
+    /**
+     * Unit test for ReplacementPolicy.pageRemoved()
+     */
+    @Test public void removedPagesAreNotVictims() {
+        for (String name : new String[] { "clock", "2q", "lru-k" }) {
+            ReplacementPolicy policy = BufferPool.newReplacementPolicy(name, 4);
+            policy.pageLoaded(pid(0));
+            policy.pageLoaded(pid(1));
+            policy.pageRemoved(pid(0));
+            policy.pageAccessed(pid(7)); // unknown ids are ignored
+            assertEquals(name, pid(1), policy.evict());
+            assertNull(name, policy.evict());
+        }
+    }
+
+    /**
+     * A long scan must not flush the reused pages out of 2Q or LRU-K.
+     */
+    @Test public void scanResistance() {
+        int capacity = 16;
+        assertEquals(capacity / 2, hotPagesAfterScan(new TwoQueueReplacementPolicy(capacity), capacity));
+        assertEquals(capacity / 2, hotPagesAfterScan(new LruKReplacementPolicy(capacity), capacity));
+    }
+
+    /**
+     * Unit test for BufferPool.newReplacementPolicy()
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPolicy() {
+        BufferPool.newReplacementPolicy("fifo", 4);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class RuntimeFilterTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for RuntimeFilter.mightContain() with INT_TYPE keys
+     */
+    @Test public void intKeys() {
+        Random r = new Random(1);
+        RuntimeFilter f = new RuntimeFilter(Type.INT_TYPE, 1000);
+        int[] keys = new int[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = r.nextInt(1 << 20) * 2;
+            f.add(keys[i]);
+        }
+        for (int key : keys) {
+            assertTrue(f.mightContain(key));
+            assertTrue(f.mightContain(new IntField(key)));
+        }
+        // odd keys were never added; a few pass as false positives
+        int passed = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (f.mightContain(r.nextInt(1 << 20) * 2 + 1)) {
+                passed++;
+            }
+        }
+        assertTrue(passed < 1000);
+        assertTrue(f.isSelective());
+
+        // keys outside of the added range are always rejected
+        assertFalse(f.mightContain(-1));
+        assertFalse(f.mightContain(1 << 22));
+        assertFalse(new RuntimeFilter(Type.INT_TYPE, 10).mightContain(0));
+    }
+
+    /**
+     * Unit test for RuntimeFilter.mightContain() with STRING_TYPE keys
+     */
+    @Test public void stringKeys() {
+        RuntimeFilter f = new RuntimeFilter(Type.STRING_TYPE, 500);
+        for (int i = 0; i < 500; i++) {
+            f.add(new StringField("k" + i, Type.STRING_LEN));
+        }
+        int passed = 0;
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(f.mightContain(new StringField("k" + (i % 500), Type.STRING_LEN)));
+            if (f.mightContain(new StringField("x" + i, Type.STRING_LEN))) {
+                passed++;
+            }
+        }
+        assertTrue(passed < 500);
+        assertEquals(500, f.numKeys());
+    }
+
+    private int count(OpIterator it, boolean batch) throws Exception {
+        int n = 0;
+        it.open();
+        if (batch) {
+            TupleBatch b;
+            while ((b = ((BatchOpIterator) it).nextBatch()) != null) {
+                n += b.size();
+            }
+        } else {
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Unit test for RuntimeFilter.pushDown() and SeqScan.addRuntimeFilter()
+     */
+    @Test public void pushDown() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples);
+        RuntimeFilter f = new RuntimeFilter(Type.INT_TYPE, 10);
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 10) {
+                expected++;
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            f.add(i);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId());
+        OpIterator other = new SeqScan(tid, table.getId());
+        // field 3 of the join is field 1 of its right child
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), other,
+                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), scan));
+        assertSame(scan, RuntimeFilter.pushDown(join, 3, f));
+        assertEquals(1, f.getField());
+        ArrayList<Integer> projected = new ArrayList<Integer>();
+        projected.add(1);
+        assertNull(RuntimeFilter.pushDown(new Project(projected, new Type[]{Type.INT_TYPE}, scan), 0, f));
+
+        // the min/max range alone leaves only keys 0 to 9
+        assertEquals(expected, count(scan, false));
+        assertEquals(expected, count(scan, true));
+        scan.removeRuntimeFilter(f);
+        assertEquals(tuples.size(), count(scan, false));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RuntimeFilterTest.class);
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleComparatorTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    private static final String[] WORDS = { "", "a", "ab", "abc", "abcdefgh",
+            "abcdefghi", "abcdefghj", "b", "ba", "Āx", "ā" };
+
+    /** Tuples with few distinct values, so that every key has ties. */
+    private static ArrayList<Tuple> randomTuples(int n, long seed) {
+        Random r = new Random(seed);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(TD);
+            int[] ints = { Integer.MIN_VALUE, -7, -1, 0, 1, 7, Integer.MAX_VALUE };
+            t.setField(0, new IntField(ints[r.nextInt(ints.length)]));
+            t.setField(1, new StringField(WORDS[r.nextInt(WORDS.length)], Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt(5) - 2));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /** The order by Field.compare, which TupleComparator must agree with. */
+    private static int reference(Tuple t1, Tuple t2, int[] fields, boolean[] asc) {
+        for (int i = 0; i < fields.length; i++) {
+            Field f1 = t1.getField(fields[i]), f2 = t2.getField(fields[i]);
+            if (!f1.compare(Predicate.Op.EQUALS, f2)) {
+                int c = f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : 1;
+                return asc[i] ? c : -c;
+            }
+        }
+        return 0;
+    }
+
+    private static final int[][] KEYS = { { 0 }, { 1 }, { 0, 2 }, { 2, 1 }, { 1, 0, 2 }, { 0, 2, 1 } };
+
+    /**
+     * Unit test for TupleComparator.compare() and
+     * TupleComparator.normalizedKey(): keys that differ order tuples the way
+     * compare does, for every combination of key fields and directions.
+     */
+    @Test public void normalizedKeysAgreeWithCompare() {
+        ArrayList<Tuple> tuples = randomTuples(200, 1);
+        for (int[] fields : KEYS) {
+            for (int dirs = 0; dirs < 1 << fields.length; dirs++) {
+                boolean[] asc = new boolean[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    asc[i] = (dirs & (1 << i)) == 0;
+                }
+                TupleComparator c = new TupleComparator(fields, asc);
+                boolean exact = c.isNormalizedKeyExact(TD);
+                for (Tuple t1 : tuples) {
+                    for (Tuple t2 : tuples) {
+                        int expected = Integer.signum(reference(t1, t2, fields, asc));
+                        assertEquals(expected, Integer.signum(c.compare(t1, t2)));
+                        int keys = Long.compareUnsigned(c.normalizedKey(t1), c.normalizedKey(t2));
+                        if (keys != 0 || exact) {
+                            assertEquals(expected, Integer.signum(keys));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Unit test for TupleComparator.isNormalizedKeyExact() */
+    @Test public void exactKeys() {
+        assertTrue(new TupleComparator(0, false).isNormalizedKeyExact(TD));
+        assertTrue(new TupleComparator(new int[] { 2, 0 }, new boolean[] { true, false })
+                .isNormalizedKeyExact(TD));
+        assertFalse(new TupleComparator(1, true).isNormalizedKeyExact(TD));
+        assertFalse(new TupleComparator(new int[] { 0, 2, 0 }, new boolean[] { true, true, true })
+                .isNormalizedKeyExact(TD));
+    }
+
+    /** Unit test for TupleComparator.sort(): same result as a stable Collections.sort. */
+    @Test public void sortIsStable() {
+        ArrayList<Tuple> tuples = randomTuples(5000, 2);
+        for (int[] fields : KEYS) {
+            final int[] f = fields;
+            final boolean[] asc = new boolean[fields.length];
+            asc[0] = false;
+            for (int i = 1; i < asc.length; i++) {
+                asc[i] = true;
+            }
+            ArrayList<Tuple> expected = new ArrayList<Tuple>(tuples);
+            Collections.sort(expected, new Comparator<Tuple>() {
+                public int compare(Tuple t1, Tuple t2) {
+                    return reference(t1, t2, f, asc);
+                }
+            });
+            ArrayList<Tuple> sorted = new ArrayList<Tuple>(tuples);
+            new TupleComparator(fields, asc).sort(sorted);
+            for (int i = 0; i < expected.size(); i++) {
+                // the same tuple objects, so ties kept their input order
+                assertTrue(expected.get(i) == sorted.get(i));
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleComparatorTest.class);
+    }
+}
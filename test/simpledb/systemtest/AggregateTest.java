@@ -9,6 +9,8 @@ import simpledb.*;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertTrue;
+
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
@@ -113,6 +115,67 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /**
+     * A memory budget of 100 groups against 4000 groups makes the aggregate
+     * spill partial aggregates, and split some partitions a second time.
+     */
+    @Test public void testSpill() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 20000, 4000, null, createdTuples);
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op operation : new Aggregator.Op[]{Aggregator.Op.AVG, Aggregator.Op.MIN}) {
+            ArrayList<ArrayList<Integer>> expected = aggregate(createdTuples, operation, 1, 0);
+            Aggregate ag = new Aggregate(new SeqScan(tid, table.getId()), 1, 0, operation, 100);
+            ag.setParallelism(1);
+            SystemTestUtil.matchTuples(ag, expected);
+            ag = new Aggregate(new SeqScan(tid, table.getId()), 1, 0, operation, 100);
+            ag.setParallelism(1);
+            SystemTestUtil.matchTuples(new Unbatch(ag), expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Four workers aggregate a filtered heap file of several morsels, with a
+     * budget small enough that they have to merge and spill as they go.
+     */
+    @Test public void testParallel() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 30000, 2000, null, createdTuples);
+        assertTrue(table.numPages() > 2 * MorselQueue.DEFAULT_MORSEL_PAGES);
+        ArrayList<ArrayList<Integer>> filtered = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : createdTuples) {
+            if (t.get(2) < 1500) {
+                filtered.add(t);
+            }
+        }
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op operation : Aggregator.Op.values()) {
+            if (operation == Aggregator.Op.SUM_COUNT) {
+                break;
+            }
+            for (int maxGroups : new int[]{Aggregate.MAX_GROUPS, 300}) {
+                OpIterator scan = new Filter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(1500)),
+                        new SeqScan(tid, table.getId()));
+                Aggregate ag = new Aggregate(scan, 1, 0, operation, maxGroups);
+                ag.setParallelism(4);
+                SystemTestUtil.matchTuples(ag, aggregate(filtered, operation, 1, 0));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Input sorted on the group-by field is aggregated one group at a time. */
+    @Test public void testSortedInput() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+        TransactionId tid = new TransactionId();
+        OpIterator sorted = new OrderBy(0, true, new SeqScan(tid, table.getId()));
+        Aggregate ag = new Aggregate(sorted, 1, 0, Aggregator.Op.SUM, 1);
+        SystemTestUtil.matchTuples(ag, aggregate(createdTuples, Aggregator.Op.SUM, 1, 0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
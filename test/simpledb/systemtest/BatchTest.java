@@ -0,0 +1,115 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs operators in batch mode through {@link Unbatch} and checks they return
+ * the same rows as the equivalent computation done by hand.
+ */
+public class BatchTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 64;
+
+    private HeapFile createTable(int columns, ArrayList<ArrayList<Integer>> tuples)
+            throws IOException, DbException, TransactionAbortedException {
+        return SystemTestUtil.createRandomHeapFile(columns, ROWS, MAX_VALUE, null, tuples);
+    }
+
+    /** SeqScan batches carry the same RecordIds as tuple-mode scans. */
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = createTable(2, tuples);
+        TransactionId tid = new TransactionId();
+
+        SystemTestUtil.matchTuples(new Unbatch(new SeqScan(tid, table.getId())), tuples);
+
+        OpIterator scan = new Unbatch(new SeqScan(tid, table.getId()));
+        scan.open();
+        Tuple t = scan.next();
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        scan.close();
+    }
+
+    @Test public void filterAndProject() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = createTable(3, tuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < MAX_VALUE / 4) {
+                ArrayList<Integer> p = new ArrayList<Integer>();
+                p.add(t.get(2));
+                p.add(t.get(0));
+                expected.add(p);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 4)),
+                new SeqScan(tid, table.getId()));
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        Project project = new Project(fields, new Type[]{Type.INT_TYPE, Type.INT_TYPE}, filter);
+        SystemTestUtil.matchTuples(new Unbatch(project), expected);
+    }
+
+    @Test public void joins() throws Exception {
+        ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> right = new ArrayList<ArrayList<Integer>>();
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 200, MAX_VALUE, null, left);
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 300, MAX_VALUE, null, right);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> l : left) {
+            for (ArrayList<Integer> r : right) {
+                if (l.get(0).equals(r.get(1))) {
+                    ArrayList<Integer> joined = new ArrayList<Integer>(l);
+                    joined.addAll(r);
+                    expected.add(joined);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        SystemTestUtil.matchTuples(new Unbatch(new HashEquiJoin(p,
+                new SeqScan(tid, t1.getId()), new SeqScan(tid, t2.getId()))), expected);
+        SystemTestUtil.matchTuples(new Unbatch(new Join(p,
+                new SeqScan(tid, t1.getId()), new SeqScan(tid, t2.getId()))), expected);
+    }
+
+    @Test public void groupedSum() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = createTable(2, tuples);
+        HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            Integer sum = sums.get(t.get(0));
+            sums.put(t.get(0), (sum == null ? 0 : sum) + t.get(1));
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Integer group : sums.keySet()) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(group);
+            row.add(sums.get(group));
+            expected.add(row);
+        }
+
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, table.getId()), 1, 0, Aggregator.Op.SUM);
+        SystemTestUtil.matchTuples(new Unbatch(agg), expected);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchTest.class);
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** Loads a heap file from a scan of another and checks its contents. */
+    @Test public void loadHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(3, 2000, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        HeapFile loaded = BulkLoader.loadHeapFile(
+                new SeqScan(tid, source.getId()), tempFile(), "loaded", "");
+
+        assertEquals(loaded.getId(), Database.getCatalog().getTableId("loaded"));
+        int perPage = BufferPool.getPageSize() * 8 / (loaded.getTupleDesc().getSize() * 8 + 1);
+        assertEquals((2000 + perPage - 1) / perPage, loaded.numPages());
+        SystemTestUtil.matchTuples(loaded, tuples);
+    }
+
+    /**
+     * Reloads a table whose free-space map has changed: the old table must
+     * not leave its map behind to describe the new file.
+     */
+    @Test public void replaceHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(3, 2000, null, tuples);
+        TransactionId tid = new TransactionId();
+        File file = tempFile();
+        File sidecar = new File(file.getPath() + FreeSpaceMap.SUFFIX);
+        sidecar.deleteOnExit();
+
+        HeapFile old = BulkLoader.loadHeapFile(new SeqScan(tid, source.getId()), file, "t", "");
+        Database.getBufferPool().insertTuple(tid, old.getId(), Utility.getHeapTuple(new int[] { 1, 2, 3 }));
+
+        HeapFile loaded = BulkLoader.loadHeapFile(new SeqScan(tid, source.getId()), file, "t", "");
+        assertFalse(sidecar.exists());
+        assertSame(loaded, Database.getCatalog().getDatabaseFile(loaded.getId()));
+        SystemTestUtil.matchTuples(loaded, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Loads a B+ tree with a sort budget small enough to spill runs, then
+     * walks the leaves and checks the keys are in order and every leaf has
+     * an internal parent.
+     */
+    @Test public void loadBTreeFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int rows = 20000;
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, rows, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        BTreeFile bf = BulkLoader.loadBTreeFile(
+                new SeqScan(tid, source.getId()), tempFile(), 0, "tree", "", 4);
+        assertEquals(bf.getId(), Database.getCatalog().getTableId("tree"));
+
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+        assertEquals(BTreePageId.INTERNAL, rootPtr.getRootId().pgcateg());
+        assertEquals(bf.numPages(), rootPtr.getRootId().getPageNumber());
+
+        BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.LEAF);
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (pid != null) {
+            BTreeLeafPage leaf = (BTreeLeafPage) bf.readPage(pid);
+            assertEquals(BTreePageId.INTERNAL, leaf.getParentId().pgcateg());
+            Iterator<Tuple> it = leaf.iterator();
+            while (it.hasNext()) {
+                int key = ((IntField) it.next().getField(0)).getValue();
+                assertTrue(key >= last);
+                last = key;
+                count++;
+            }
+            pid = leaf.getRightSiblingId();
+        }
+        assertEquals(rows, count);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests Materialize, and that the parser plans and runs bushy joins of a
+ * snowflake schema.
+ */
+public class BushyJoinTest extends SimpleDbTestBase {
+    private static final int DIMENSIONS = 2;
+    private static final int MAX_VALUE = 500;
+
+    private final ArrayList<ArrayList<Integer>> fact = new ArrayList<ArrayList<Integer>>();
+    private final ArrayList<ArrayList<ArrayList<Integer>>> dims = new ArrayList<ArrayList<ArrayList<Integer>>>();
+    private final ArrayList<ArrayList<ArrayList<Integer>>> subs = new ArrayList<ArrayList<ArrayList<Integer>>>();
+    private final HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+
+    private void addTable(String name, int rows, ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, MAX_VALUE, null, tuples, "c");
+        Database.getCatalog().addTable(f, name);
+        TableStats s = new TableStats(f.getId(), 1000);
+        TableStats.setTableStats(name, s);
+        stats.put(name, s);
+    }
+
+    /**
+     * A fact table whose field i joins field 0 of dimension table dimi,
+     * whose field 1 joins field 0 of the small table subi.
+     */
+    @Before public void setUp() throws Exception {
+        addTable("fact", 5000, fact);
+        for (int i = 0; i < DIMENSIONS; i++) {
+            dims.add(new ArrayList<ArrayList<Integer>>());
+            subs.add(new ArrayList<ArrayList<Integer>>());
+            addTable("dim" + i, 500, dims.get(i));
+            addTable("sub" + i, 50, subs.get(i));
+        }
+    }
+
+    private static final String QUERY = "SELECT COUNT(fact.c0) FROM fact, dim0, sub0, dim1, sub1"
+            + " WHERE fact.c0 = dim0.c0 AND dim0.c1 = sub0.c0"
+            + " AND fact.c1 = dim1.c0 AND dim1.c1 = sub1.c0;";
+
+    /** @return the number of rows QUERY joins */
+    private int expectedCount() {
+        // for each dimension, the number of joined rows per value of the
+        // fact table's field
+        ArrayList<HashMap<Integer, Integer>> matches = new ArrayList<HashMap<Integer, Integer>>();
+        for (int i = 0; i < DIMENSIONS; i++) {
+            HashMap<Integer, Integer> subCounts = new HashMap<Integer, Integer>();
+            for (ArrayList<Integer> t : subs.get(i)) {
+                subCounts.merge(t.get(0), 1, Integer::sum);
+            }
+            HashMap<Integer, Integer> m = new HashMap<Integer, Integer>();
+            for (ArrayList<Integer> t : dims.get(i)) {
+                Integer n = subCounts.get(t.get(1));
+                if (n != null) {
+                    m.merge(t.get(0), n, Integer::sum);
+                }
+            }
+            matches.add(m);
+        }
+        int count = 0;
+        for (ArrayList<Integer> t : fact) {
+            int n = 1;
+            for (int i = 0; i < DIMENSIONS; i++) {
+                Integer m = matches.get(i).get(t.get(i));
+                n *= m == null ? 0 : m;
+            }
+            count += n;
+        }
+        return count;
+    }
+
+    private static boolean isJoin(OpIterator it) {
+        return it instanceof Join || it instanceof HashEquiJoin || it instanceof SortMergeJoin;
+    }
+
+    /** @return true if the plan rooted at it contains an operator of class c */
+    private static boolean contains(OpIterator it, Class<?> c) {
+        if (c.isInstance(it)) {
+            return true;
+        }
+        if (it instanceof Operator) {
+            for (OpIterator child : ((Operator) it).getChildren()) {
+                if (child != null && contains(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @return true if the plan rooted at it joins two joins */
+    private static boolean isBushy(OpIterator it) {
+        if (!(it instanceof Operator)) {
+            return false;
+        }
+        OpIterator[] children = ((Operator) it).getChildren();
+        if (isJoin(it) && containsJoin(children[0]) && containsJoin(children[1])) {
+            return true;
+        }
+        for (OpIterator child : children) {
+            if (child != null && isBushy(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsJoin(OpIterator it) {
+        return contains(it, Join.class) || contains(it, HashEquiJoin.class)
+                || contains(it, SortMergeJoin.class);
+    }
+
+    /**
+     * Plans QUERY with the given number of workers, checks that the plan is
+     * bushy and runs it. Its joins are hash joins, which read their probe
+     * side once, so it is materialized only to compute it on a worker.
+     */
+    private void runQuery(String workers) throws Exception {
+        String old = System.getProperty(MorselQueue.WORKERS_PROPERTY);
+        try {
+            System.setProperty(MorselQueue.WORKERS_PROPERTY, workers);
+            runQuery(Integer.parseInt(workers) > 1);
+        } finally {
+            if (old == null) {
+                System.clearProperty(MorselQueue.WORKERS_PROPERTY);
+            } else {
+                System.setProperty(MorselQueue.WORKERS_PROPERTY, old);
+            }
+        }
+    }
+
+    private void runQuery(boolean parallel) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid, QUERY)
+                .physicalPlan(tid, stats, false);
+        assertTrue(isBushy(plan));
+        assertEquals(parallel, contains(plan, Materialize.class));
+        plan.open();
+        assertTrue(plan.hasNext());
+        assertEquals(expectedCount(), ((IntField) plan.next().getField(0)).getValue());
+        assertFalse(plan.hasNext());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Unit test for Materialize: rewinding replays the child's tuples. */
+    @Test public void materialize() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (boolean background : new boolean[] { false, true }) {
+            // all in memory, and mostly in a temporary file
+            for (int maxTuples : new int[] { Materialize.DEFAULT_MAX_TUPLES, 100 }) {
+                Materialize m = new Materialize(
+                        new SeqScan(tid, Database.getCatalog().getTableId("dim0")), background,
+                        maxTuples);
+                m.open();
+                SystemTestUtil.matchTuples(m, dims.get(0));
+                m.rewind();
+                SystemTestUtil.matchTuples(m, dims.get(0));
+                m.close();
+
+                // closing before reading stops the child
+                m.open();
+                m.close();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The snowflake query is planned bushy and gives the right answer. */
+    @Test public void bushyPlan() throws Exception {
+        runQuery("1");
+    }
+
+    /** The same, with the probe subplans computed on worker threads. */
+    @Test public void parallelBushyPlan() throws Exception {
+        runQuery("4");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BushyJoinTest.class);
+    }
+}
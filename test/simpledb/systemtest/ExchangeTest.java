@@ -0,0 +1,159 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs scans, Filters and Projects on several threads through Exchange.
+ */
+public class ExchangeTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int WORKERS = 4;
+
+    private final ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, 30000, 1000, null, tuples);
+        assertTrue(table.numPages() > 2 * MorselQueue.DEFAULT_MORSEL_PAGES);
+    }
+
+    /** Counts the tuples of it by value. */
+    private static HashMap<ArrayList<Integer>, Integer> count(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        HashMap<ArrayList<Integer>, Integer> counts = new HashMap<ArrayList<Integer>, Integer>();
+        while (it.hasNext()) {
+            counts.merge(SystemTestUtil.tupleToList(it.next()), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static HashMap<ArrayList<Integer>, Integer> count(ArrayList<ArrayList<Integer>> tuples) {
+        HashMap<ArrayList<Integer>, Integer> counts = new HashMap<ArrayList<Integer>, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            counts.merge(t, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /** The tuples with field 1 below 500, projected onto fields 2 and 0. */
+    private ArrayList<ArrayList<Integer>> filteredAndProjected() {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 500) {
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+            }
+        }
+        return expected;
+    }
+
+    private OpIterator pipeline(TransactionId tid) {
+        OpIterator filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)),
+                new SeqScan(tid, table.getId()));
+        return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter);
+    }
+
+    /** Unit test for Exchange: every tuple of the pipeline comes out once. */
+    @Test public void gather() throws Exception {
+        TransactionId tid = new TransactionId();
+        Exchange exchange = new Exchange(new SeqScan(tid, table.getId()), WORKERS);
+        exchange.open();
+        assertEquals(count(tuples), count(exchange));
+        exchange.close();
+
+        exchange = new Exchange(pipeline(tid), WORKERS);
+        assertEquals(pipeline(tid).getTupleDesc(), exchange.getTupleDesc());
+        exchange.open();
+        assertEquals(count(filteredAndProjected()), count(exchange));
+        exchange.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Closing early stops the workers, and rewinding restarts them. */
+    @Test public void closeEarlyAndRewind() throws Exception {
+        TransactionId tid = new TransactionId();
+        Exchange exchange = new Exchange(pipeline(tid), WORKERS);
+        exchange.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(exchange.hasNext());
+            exchange.next();
+        }
+        exchange.rewind();
+        assertEquals(count(filteredAndProjected()), count(exchange));
+        exchange.rewind();
+        exchange.next();
+        exchange.close();
+
+        exchange.open();
+        assertEquals(count(filteredAndProjected()), count(exchange));
+        exchange.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Partial aggregation runs in the workers when Aggregate reads an Exchange. */
+    @Test public void aggregateOverExchange() throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        OpIterator filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)),
+                new SeqScan(tid, table.getId()));
+        Aggregate ag = new Aggregate(new Exchange(filter, WORKERS), 2, 0, Aggregator.Op.COUNT);
+        ag.setParallelism(WORKERS);
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 500) {
+                counts.merge(t.get(0), 1, Integer::sum);
+            }
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Integer group : counts.keySet()) {
+            expected.add(new ArrayList<Integer>(Arrays.asList(group, counts.get(group))));
+        }
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Unit test for Exchange.parallelize() */
+    @Test public void parallelize() throws Exception {
+        String old = System.getProperty(MorselQueue.WORKERS_PROPERTY);
+        try {
+            TransactionId tid = new TransactionId();
+            OpIterator it = pipeline(tid);
+            // parallel scans are off unless asked for
+            System.clearProperty(MorselQueue.WORKERS_PROPERTY);
+            assertSame(it, Exchange.parallelize(it));
+            System.setProperty(MorselQueue.WORKERS_PROPERTY, "1");
+            assertSame(it, Exchange.parallelize(it));
+
+            System.setProperty(MorselQueue.WORKERS_PROPERTY, Integer.toString(WORKERS));
+            assertTrue(Exchange.parallelize(it) instanceof Exchange);
+            HeapFile small = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, null);
+            OpIterator smallScan = new SeqScan(tid, small.getId());
+            assertSame(smallScan, Exchange.parallelize(smallScan));
+            // only Filters and Projects can run in the workers
+            OpIterator sorted = new OrderBy(0, true, new SeqScan(tid, table.getId()));
+            assertSame(sorted, Exchange.parallelize(sorted));
+        } finally {
+            if (old == null) {
+                System.clearProperty(MorselQueue.WORKERS_PROPERTY);
+            } else {
+                System.setProperty(MorselQueue.WORKERS_PROPERTY, old);
+            }
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
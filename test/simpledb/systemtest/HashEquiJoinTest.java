@@ -0,0 +1,262 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs HashEquiJoin with memory budgets small enough to make it spill
+ * partitions to disk.
+ */
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private final ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+    private final ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile table1, table2;
+
+    private void createTables(int rows1, int max1, int rows2, int max2)
+            throws IOException, DbException, TransactionAbortedException {
+        table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, rows1, max1, null, t1Tuples);
+        table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, rows2, max2, null, t2Tuples);
+    }
+
+    private ArrayList<ArrayList<Integer>> expectedResults() {
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> byKey =
+                new HashMap<Integer, ArrayList<ArrayList<Integer>>>();
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            ArrayList<ArrayList<Integer>> list = byKey.get(t1.get(0));
+            if (list == null) {
+                list = new ArrayList<ArrayList<Integer>>();
+                byKey.put(t1.get(0), list);
+            }
+            list.add(t1);
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t2 : t2Tuples) {
+            ArrayList<ArrayList<Integer>> list = byKey.get(t2.get(0));
+            if (list == null) {
+                continue;
+            }
+            for (ArrayList<Integer> t1 : list) {
+                ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                out.addAll(t2);
+                expected.add(out);
+            }
+        }
+        return expected;
+    }
+
+    private HashEquiJoin join(TransactionId tid, int maxTuples) {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        return new HashEquiJoin(p, new SeqScan(tid, table1.getId()),
+                new SeqScan(tid, table2.getId()), maxTuples);
+    }
+
+    /** The build side is twenty times the budget. */
+    @Test public void spill() throws Exception {
+        createTables(2000, 500, 2000, 500);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(join(tid, 100), expectedResults());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Every build tuple has the same key, so splitting partitions never
+     * helps and the join has to fall back to loading chunks.
+     */
+    @Test public void skewedKey() throws Exception {
+        HashMap<Integer, Integer> columnSpecification = new HashMap<Integer, Integer>();
+        columnSpecification.put(0, 7);
+        table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 300, columnSpecification, t1Tuples);
+        table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 40, 10, null, t2Tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(join(tid, 50), expectedResults());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Rewinding after a spilled join produces the same result again. */
+    @Test public void rewind() throws Exception {
+        createTables(1000, 200, 1000, 200);
+        int expected = expectedResults().size();
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = join(tid, 64);
+        join.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            while (join.hasNext()) {
+                join.next();
+                count++;
+            }
+            assertEquals(expected, count);
+            join.rewind();
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Batch mode switches to the partitioned join when the build side is too big. */
+    @Test public void batchSpill() throws Exception {
+        createTables(2000, 500, 2000, 500);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new Unbatch(join(tid, 100)), expectedResults());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Few probe tuples have a match, so most are dropped by the runtime
+     * filter pushed into the probe scan, through a Filter over it.
+     */
+    @Test public void runtimeFilter() throws Exception {
+        createTables(200, 100, 3000, 5000);
+        ArrayList<ArrayList<Integer>> expected = expectedResults();
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        for (boolean batch : new boolean[]{false, true}) {
+            OpIterator probe = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                    new SeqScan(tid, table2.getId()));
+            OpIterator join = new HashEquiJoin(p, new SeqScan(tid, table1.getId()), probe);
+            SystemTestUtil.matchTuples(batch ? new Unbatch(join) : join, expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Reads it to the end and checks that it returns expected, in any order. */
+    private static void matchCounts(OpIterator it, ArrayList<ArrayList<Integer>> expected)
+            throws DbException, TransactionAbortedException {
+        HashMap<ArrayList<Integer>, Integer> counts = new HashMap<ArrayList<Integer>, Integer>();
+        for (ArrayList<Integer> t : expected) {
+            counts.merge(t, 1, Integer::sum);
+        }
+        it.open();
+        while (it.hasNext()) {
+            ArrayList<Integer> t = SystemTestUtil.tupleToList(it.next());
+            Integer n = counts.get(t);
+            assertNotNull("unexpected tuple " + t, n);
+            if (n == 1) {
+                counts.remove(t);
+            } else {
+                counts.put(t, n - 1);
+            }
+        }
+        it.close();
+        assertTrue(counts.size() + " expected tuples missing", counts.isEmpty());
+    }
+
+    /**
+     * Both inputs span several morsels, so child1 is hashed and child2
+     * probed by several workers; with a small budget the join falls back to
+     * the hybrid hash join.
+     */
+    @Test public void parallel() throws Exception {
+        createTables(20000, 20000, 30000, 20000);
+        assertTrue(table1.numPages() > MorselQueue.DEFAULT_MORSEL_PAGES);
+        assertTrue(table2.numPages() > MorselQueue.DEFAULT_MORSEL_PAGES);
+        ArrayList<ArrayList<Integer>> expected = expectedResults();
+        TransactionId tid = new TransactionId();
+        for (int maxTuples : new int[]{HashEquiJoin.MAP_SIZE * 2, 5000}) {
+            for (boolean batch : new boolean[]{false, true}) {
+                HashEquiJoin join = join(tid, maxTuples);
+                join.setParallelism(4);
+                assertEquals(TupleDesc.merge(table1.getTupleDesc(), table2.getTupleDesc()),
+                        join.getTupleDesc());
+                matchCounts(batch ? new Unbatch(join) : join, expected);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A small child1 is hashed on this thread and a filtered child2 probed
+     * in parallel, also after a rewind.
+     */
+    @Test public void parallelProbe() throws Exception {
+        createTables(500, 2000, 30000, 2000);
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : expectedResults()) {
+            if (t.get(3) < 1000) {
+                expected.add(t);
+            }
+        }
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator probe = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1000)),
+                new SeqScan(tid, table2.getId()));
+        HashEquiJoin join = new HashEquiJoin(p, new OrderBy(1, true, new SeqScan(tid, table1.getId())),
+                probe);
+        join.setParallelism(4);
+        matchCounts(join, expected);
+
+        join.open();
+        for (int i = 0; i < 10 && join.hasNext(); i++) {
+            join.next();
+        }
+        join.rewind();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        assertEquals(expected.size(), n);
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the tuples of it, in the order it returns them */
+    private static ArrayList<Tuple> drain(OpIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Unless the workers property is set, a join of inputs large enough to
+     * run in parallel stays on the calling thread, and keeps its order.
+     */
+    @Test public void serialByDefault() throws Exception {
+        createTables(20000, 20000, 30000, 20000);
+        assertTrue(table2.numPages() > MorselQueue.DEFAULT_MORSEL_PAGES);
+        TransactionId tid = new TransactionId();
+        String old = System.getProperty(MorselQueue.WORKERS_PROPERTY);
+        try {
+            System.clearProperty(MorselQueue.WORKERS_PROPERTY);
+            HashEquiJoin join = join(tid, HashEquiJoin.MAP_SIZE * 2);
+            assertEquals(1, join.getParallelism());
+            HashEquiJoin serial = join(tid, HashEquiJoin.MAP_SIZE * 2);
+            serial.setParallelism(1);
+            ArrayList<Tuple> expected = drain(serial);
+            ArrayList<Tuple> actual = drain(join);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).toString(), actual.get(i).toString());
+            }
+
+            System.setProperty(MorselQueue.WORKERS_PROPERTY, "4");
+            assertEquals(4, join(tid, HashEquiJoin.MAP_SIZE * 2).getParallelism());
+        } finally {
+            if (old == null) {
+                System.clearProperty(MorselQueue.WORKERS_PROPERTY);
+            } else {
+                System.setProperty(MorselQueue.WORKERS_PROPERTY, old);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private final ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+    private final ArrayList<ArrayList<Integer>> innerTuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile outer;
+    private BTreeFile inner;
+
+    /** Creates an outer heap file and an inner B+ tree keyed on its second field. */
+    private void createTables(int outerRows, int innerRows, int maxValue)
+            throws IOException, DbException, TransactionAbortedException {
+        outer = SystemTestUtil.createRandomHeapFile(COLUMNS, outerRows, maxValue, null, outerTuples);
+        inner = BTreeUtility.createRandomBTreeFile(COLUMNS, innerRows, maxValue, null, innerTuples, 1);
+    }
+
+    private ArrayList<ArrayList<Integer>> expectedResults(Predicate.Op op, Predicate innerFilter) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : outerTuples) {
+            for (ArrayList<Integer> t2 : innerTuples) {
+                if (innerFilter != null && !new IntField(t2.get(innerFilter.getField()))
+                        .compare(innerFilter.getOp(), innerFilter.getOperand())) {
+                    continue;
+                }
+                if (new IntField(t1.get(0)).compare(op, new IntField(t2.get(1)))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+        return expected;
+    }
+
+    private void validateJoin(Predicate.Op op, Predicate innerFilter) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator scan = new SeqScan(tid, inner.getId());
+        if (innerFilter != null) {
+            scan = new Filter(innerFilter, scan);
+        }
+        JoinPredicate p = new JoinPredicate(0, op, 1);
+        assertTrue(IndexNestedLoopJoin.canProbe(scan, 1, op));
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId()), scan);
+        SystemTestUtil.matchTuples(join, expectedResults(op, innerFilter));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Outer keys repeat, and are spread over several sorted batches. */
+    @Test public void equals() throws Exception {
+        createTables(3000, 5000, 2000);
+        validateJoin(Predicate.Op.EQUALS, null);
+    }
+
+    /** Filters over the inner scan are applied to the looked up tuples. */
+    @Test public void innerFilter() throws Exception {
+        createTables(1000, 5000, 2000);
+        validateJoin(Predicate.Op.EQUALS, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1000)));
+    }
+
+    @Test public void rangeJoins() throws Exception {
+        createTables(40, 600, 100);
+        validateJoin(Predicate.Op.LESS_THAN, null);
+        validateJoin(Predicate.Op.GREATER_THAN_OR_EQ, null);
+    }
+
+    /** Only B+ trees keyed on the join field can be probed. */
+    @Test public void canProbe() throws Exception {
+        createTables(10, 10, 10);
+        TransactionId tid = new TransactionId();
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, outer.getId()), 0, Predicate.Op.EQUALS));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, inner.getId()), 0, Predicate.Op.EQUALS));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, inner.getId()), 1, Predicate.Op.NOT_EQUALS));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
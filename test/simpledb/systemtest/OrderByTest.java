@@ -0,0 +1,140 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs OrderBy with memory budgets small enough to make it sort in runs
+ * and merge them, in several passes.
+ */
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+
+    private final ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile table;
+
+    private void createTable(int rows, int maxValue)
+            throws IOException, DbException, TransactionAbortedException {
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, maxValue, null, tuples);
+    }
+
+    /** @return the tuples of the table, stably sorted on field */
+    private ArrayList<ArrayList<Integer>> sorted(final int field, final boolean asc) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        Collections.sort(expected, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                return asc ? a.get(field).compareTo(b.get(field)) : b.get(field).compareTo(a.get(field));
+            }
+        });
+        return expected;
+    }
+
+    /** Reads it to the end and checks that the sort field is in order. */
+    private ArrayList<ArrayList<Integer>> readSorted(OpIterator it, int field, boolean asc)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext()) {
+            ArrayList<Integer> t = SystemTestUtil.tupleToList(it.next());
+            if (!result.isEmpty()) {
+                int prev = result.get(result.size() - 1).get(field);
+                assertTrue(asc ? prev <= t.get(field) : prev >= t.get(field));
+            }
+            result.add(t);
+        }
+        return result;
+    }
+
+    private void validateSort(int field, boolean asc, int sortPages) throws Exception {
+        TransactionId tid = new TransactionId();
+        OrderBy orderBy = new OrderBy(field, asc, new SeqScan(tid, table.getId()), sortPages);
+        ArrayList<ArrayList<Integer>> expected = sorted(field, asc);
+        orderBy.open();
+        ArrayList<ArrayList<Integer>> result = readSorted(orderBy, field, asc);
+        assertEquals(expected.size(), result.size());
+        SystemTestUtil.matchTuples(orderBy, expected);
+        orderBy.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Everything fits in memory. */
+    @Test public void inMemory() throws Exception {
+        createTable(2000, 1000);
+        validateSort(0, true, OrderBy.DEFAULT_SORT_PAGES);
+        validateSort(1, false, OrderBy.DEFAULT_SORT_PAGES);
+    }
+
+    /**
+     * With a budget of one page, runs hold a few hundred tuples and only two
+     * can be merged at once, so the runs are merged over several passes.
+     */
+    @Test public void multiPassMerge() throws Exception {
+        createTable(5000, 1000);
+        validateSort(0, true, 1);
+        validateSort(2, false, 1);
+    }
+
+    /**
+     * Sorts on all columns, mixing directions, in memory and in runs; the
+     * output order is then fully determined.
+     */
+    @Test public void multipleKeys() throws Exception {
+        createTable(4000, 20);
+        final int[] fields = { 1, 0, 2 };
+        final boolean[] asc = { false, true, false };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        Collections.sort(expected, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < fields.length; i++) {
+                    int c = a.get(fields[i]).compareTo(b.get(fields[i]));
+                    if (c != 0) {
+                        return asc[i] ? c : -c;
+                    }
+                }
+                return 0;
+            }
+        });
+        for (int sortPages : new int[] { OrderBy.DEFAULT_SORT_PAGES, 1 }) {
+            TransactionId tid = new TransactionId();
+            OrderBy orderBy = new OrderBy(fields, asc, new SeqScan(tid, table.getId()), sortPages);
+            orderBy.open();
+            ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+            while (orderBy.hasNext()) {
+                result.add(SystemTestUtil.tupleToList(orderBy.next()));
+            }
+            assertEquals(expected, result);
+            orderBy.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Rewinding and reopening return the same tuples again. */
+    @Test public void rewindAndReopen() throws Exception {
+        createTable(3000, 100);
+        TransactionId tid = new TransactionId();
+        OrderBy orderBy = new OrderBy(1, true, new SeqScan(tid, table.getId()), 2);
+        for (int open = 0; open < 2; open++) {
+            orderBy.open();
+            for (int pass = 0; pass < 2; pass++) {
+                assertEquals(tuples.size(), readSorted(orderBy, 1, true).size());
+                orderBy.rewind();
+            }
+            orderBy.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
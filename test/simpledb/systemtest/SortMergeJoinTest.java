@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private final ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+    private final ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile table1, table2;
+
+    private void createTables(int rows1, int rows2, int maxValue)
+            throws IOException, DbException, TransactionAbortedException {
+        table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, rows1, maxValue, null, t1Tuples);
+        table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, rows2, maxValue, null, t2Tuples);
+    }
+
+    private ArrayList<ArrayList<Integer>> expectedResults(Predicate.Op op) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            for (ArrayList<Integer> t2 : t2Tuples) {
+                if (new IntField(t1.get(0)).compare(op, new IntField(t2.get(1)))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+        return expected;
+    }
+
+    private void validateJoin(Predicate.Op op, int sortPages) throws Exception {
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, op, 1);
+        SortMergeJoin join = new SortMergeJoin(p, new SeqScan(tid, table1.getId()),
+                new SeqScan(tid, table2.getId()), sortPages);
+        SystemTestUtil.matchTuples(join, expectedResults(op));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Equality join with duplicate keys on both sides. */
+    @Test public void equals() throws Exception {
+        createTables(1500, 1500, 300);
+        validateJoin(Predicate.Op.EQUALS, SortMergeJoin.DEFAULT_SORT_PAGES);
+    }
+
+    /** Both inputs are too big for the sort budget, so runs are merged. */
+    @Test public void equalsExternalSort() throws Exception {
+        createTables(3000, 3000, 1000);
+        validateJoin(Predicate.Op.EQUALS, 1);
+    }
+
+    @Test public void rangeJoins() throws Exception {
+        createTables(150, 120, 100);
+        validateJoin(Predicate.Op.LESS_THAN, 1);
+        validateJoin(Predicate.Op.LESS_THAN_OR_EQ, 1);
+        validateJoin(Predicate.Op.GREATER_THAN, 1);
+        validateJoin(Predicate.Op.GREATER_THAN_OR_EQ, 1);
+    }
+
+    /** Both inputs are sorted at the same time on worker threads. */
+    @Test public void parallelSort() throws Exception {
+        createTables(3000, 3000, 1000);
+        String old = System.getProperty(MorselQueue.WORKERS_PROPERTY);
+        try {
+            System.setProperty(MorselQueue.WORKERS_PROPERTY, "4");
+            validateJoin(Predicate.Op.EQUALS, 1);
+        } finally {
+            if (old == null) {
+                System.clearProperty(MorselQueue.WORKERS_PROPERTY);
+            } else {
+                System.setProperty(MorselQueue.WORKERS_PROPERTY, old);
+            }
+        }
+    }
+
+    /** An input sorted by an OrderBy is used as is, and the join can be rewound. */
+    @Test public void sortedInput() throws Exception {
+        createTables(500, 500, 100);
+        TransactionId tid = new TransactionId();
+        OrderBy sorted = new OrderBy(0, true, new SeqScan(tid, table1.getId()));
+        assertTrue(SortMergeJoin.isSorted(sorted, 0));
+        assertFalse(SortMergeJoin.isSorted(sorted, 1));
+        assertFalse(SortMergeJoin.isSorted(new SeqScan(tid, table2.getId()), 1));
+
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                sorted, new SeqScan(tid, table2.getId()));
+        assertTrue(SortMergeJoin.isSorted(join, 0));
+        assertTrue(SortMergeJoin.isSorted(join, 3));
+        int expected = expectedResults(Predicate.Op.EQUALS).size();
+        join.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            while (join.hasNext()) {
+                Tuple t = join.next();
+                assertEquals(t.getField(0), t.getField(3));
+                count++;
+            }
+            assertEquals(expected, count);
+            join.rewind();
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,234 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests TopN and Limit, and that the parser plans LIMIT clauses with them.
+ */
+public class TopNTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private final ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile table;
+
+    /** Passes its child through, counting the tuples read from it. */
+    private static class CountingIterator extends Operator {
+        private static final long serialVersionUID = 1L;
+        private OpIterator child;
+        int read;
+
+        CountingIterator(OpIterator child) {
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws NoSuchElementException,
+                TransactionAbortedException, DbException {
+            if (!child.hasNext()) {
+                return null;
+            }
+            read++;
+            return child.next();
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 500, null, tuples, "c");
+    }
+
+    /** @return rows offset to offset + limit of the table sorted on field */
+    private ArrayList<ArrayList<Integer>> expected(final int field, final boolean asc,
+            int limit, int offset) {
+        ArrayList<ArrayList<Integer>> sorted = new ArrayList<ArrayList<Integer>>(tuples);
+        Collections.sort(sorted, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                return asc ? a.get(field).compareTo(b.get(field)) : b.get(field).compareTo(a.get(field));
+            }
+        });
+        int from = Math.min(offset, sorted.size());
+        int to = Math.min(sorted.size(), from + limit);
+        return new ArrayList<ArrayList<Integer>>(sorted.subList(from, to));
+    }
+
+    /**
+     * Checks the sort keys of TopN's output, position by position, since
+     * ties may come out in any order.
+     */
+    private void validateTopN(int field, boolean asc, int limit, int offset) throws Exception {
+        TransactionId tid = new TransactionId();
+        TopN topN = new TopN(field, asc, limit, offset, new SeqScan(tid, table.getId()));
+        ArrayList<ArrayList<Integer>> expected = expected(field, asc, limit, offset);
+        topN.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int i = 0;
+            while (topN.hasNext()) {
+                ArrayList<Integer> t = SystemTestUtil.tupleToList(topN.next());
+                assertTrue(i < expected.size());
+                assertEquals(expected.get(i).get(field), t.get(field));
+                i++;
+            }
+            assertEquals(expected.size(), i);
+            topN.rewind();
+        }
+        topN.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Unit test for TopN with a heap over an unsorted child. */
+    @Test public void topN() throws Exception {
+        validateTopN(0, true, 10, 0);
+        validateTopN(1, false, 25, 7);
+        validateTopN(0, true, 0, 5);
+        validateTopN(1, true, 10, 2995);
+        validateTopN(0, false, 5000, 0);
+    }
+
+    /** TopN over an input sorted on its field stops reading it early. */
+    @Test public void sortedInputTerminatesEarly() throws Exception {
+        TransactionId tid = new TransactionId();
+        OrderBy orderBy = new OrderBy(0, true, new SeqScan(tid, table.getId()));
+        TopN topN = new TopN(0, true, 10, 5, orderBy);
+        topN.open();
+        ArrayList<ArrayList<Integer>> expected = expected(0, true, 10, 5);
+        for (ArrayList<Integer> e : expected) {
+            assertTrue(topN.hasNext());
+            assertEquals(e.get(0), SystemTestUtil.tupleToList(topN.next()).get(0));
+        }
+        assertFalse(topN.hasNext());
+        // the rest of the sorted input was never read
+        assertTrue(orderBy.hasNext());
+        topN.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Unit test for Limit: it returns the right rows and stops reading after them. */
+    @Test public void limit() throws Exception {
+        TransactionId tid = new TransactionId();
+        CountingIterator scan = new CountingIterator(new SeqScan(tid, table.getId()));
+        Limit limit = new Limit(20, 30, scan);
+        limit.open();
+        SystemTestUtil.matchTuples(limit, new ArrayList<ArrayList<Integer>>(tuples.subList(30, 50)));
+        assertEquals(50, scan.read);
+        limit.close();
+
+        limit = new Limit(100, 2950, new SeqScan(tid, table.getId()));
+        limit.open();
+        SystemTestUtil.matchTuples(limit, new ArrayList<ArrayList<Integer>>(tuples.subList(2950, 3000)));
+        limit.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return true if the plan rooted at it contains an operator of class c */
+    private static boolean contains(OpIterator it, Class<?> c) {
+        if (c.isInstance(it)) {
+            return true;
+        }
+        if (it instanceof Operator) {
+            for (OpIterator child : ((Operator) it).getChildren()) {
+                if (child != null && contains(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The parser plans LIMIT with TopN under ORDER BY and with Limit
+     * otherwise, and ORDER BY may list several fields.
+     */
+    @Test public void parseLimit() throws Exception {
+        Database.getCatalog().addTable(table, "topn");
+        TableStats.setTableStats("topn", new TableStats(table.getId(), 1));
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("topn", TableStats.getTableStats("topn"));
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+
+        OpIterator plan = p.generateLogicalPlan(tid,
+                "SELECT * FROM topn t ORDER BY t.c0 DESC LIMIT 5 OFFSET 2;")
+                .physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, TopN.class));
+        plan.open();
+        ArrayList<ArrayList<Integer>> expected = expected(0, false, 5, 2);
+        for (ArrayList<Integer> e : expected) {
+            assertTrue(plan.hasNext());
+            assertEquals(e.get(0), SystemTestUtil.tupleToList(plan.next()).get(0));
+        }
+        assertFalse(plan.hasNext());
+        plan.close();
+
+        plan = p.generateLogicalPlan(tid,
+                "SELECT * FROM topn t ORDER BY t.c1 DESC, t.c0 LIMIT 20;")
+                .physicalPlan(tid, stats, false);
+        plan.open();
+        ArrayList<Integer> prev = null;
+        for (int i = 0; i < 20; i++) {
+            ArrayList<Integer> t = SystemTestUtil.tupleToList(plan.next());
+            assertEquals(expected(1, false, 20, 0).get(i).get(1), t.get(1));
+            if (prev != null && prev.get(1).equals(t.get(1))) {
+                assertTrue(prev.get(0) <= t.get(0));
+            }
+            prev = t;
+        }
+        assertFalse(plan.hasNext());
+        plan.close();
+
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM topn t limit 7;")
+                .physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, Limit.class));
+        assertFalse(contains(plan, TopN.class));
+        plan.open();
+        SystemTestUtil.matchTuples(plan, new ArrayList<ArrayList<Integer>>(tuples.subList(0, 7)));
+        plan.close();
+
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM topn t ORDER BY t.c1;")
+                .physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, OrderBy.class));
+        assertFalse(contains(plan, TopN.class) || contains(plan, Limit.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}